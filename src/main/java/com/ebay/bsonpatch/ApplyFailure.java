@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+/**
+ * Signals an operation that can't be applied when the caller only needs the outcome, as
+ * {@link BsonPatch#tryApply(org.bson.BsonArray, org.bson.BsonValue)} does. The instances are shared and carry no
+ * message or stack trace, so failing costs no more than succeeding.
+ */
+final class ApplyFailure extends RuntimeException {
+    private static final long serialVersionUID = -3920442018857015232L;
+
+    static final ApplyFailure PATH_NOT_FOUND = new ApplyFailure(BsonPatchResult.Reason.PATH_NOT_FOUND);
+    static final ApplyFailure NOT_APPLICABLE = new ApplyFailure(BsonPatchResult.Reason.NOT_APPLICABLE);
+
+    private final BsonPatchResult.Reason reason;
+
+    private ApplyFailure(BsonPatchResult.Reason reason) {
+        super(reason.name(), null, false, false);
+        this.reason = reason;
+    }
+
+    BsonPatchResult.Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.types.Decimal128;
+
+/**
+ * Diffs two snapshots of a collection, each a stream of documents sorted by {@code _id}, by walking both streams
+ * side by side. Only the current document of each stream is held, plus the pairs still being diffed when an
+ * executor is used, so memory doesn't grow with the size of the collections:
+ * <pre>
+ *      BsonReader before = new BsonBinaryReader(new ByteBufferBsonInput(new ByteBufNIO(mappedDumpBefore)));
+ *      BsonReader after = new BsonBinaryReader(new ByteBufferBsonInput(new ByteBufNIO(mappedDumpAfter)));
+ *      BsonCollectionDiff.diff(before, after, listener);
+ * </pre>
+ * {@code _id}s are ordered the way MongoDB sorts them: by type (numbers, strings, binaries, object ids, booleans,
+ * dates, timestamps), then by value. Documents or arrays as {@code _id} aren't supported.
+ *
+ * @since 0.4.13
+ */
+public final class BsonCollectionDiff {
+
+    /** Receives the changes in {@code _id} order, on the thread that called {@code diff}. */
+    public interface Listener {
+        /** A document only present in the target collection. */
+        void inserted(BsonDocument document);
+
+        /** A document only present in the source collection. */
+        void deleted(BsonDocument document);
+
+        /** A document present in both collections with different contents. */
+        void updated(BsonValue id, BsonArray patch);
+    }
+
+    private static final String ID = "_id";
+    private static final Comparator<BsonValue> ID_ORDER = new IdOrder();
+
+    private final DiffOptions options;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Listener listener;
+    private final Deque<Change> pending = new ArrayDeque<Change>();
+
+    private BsonCollectionDiff(DiffOptions options, ExecutorService executor, int maxPending, Listener listener) {
+        this.options = options;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.listener = listener;
+    }
+
+    /**
+     * Diffs two sequences of BSON documents, e.g. {@code mongodump} files.
+     *
+     * @param source The source collection, sorted by {@code _id}.
+     * @param target The target collection, sorted by {@code _id}.
+     * @param listener Receives the changes.
+     * @throws IllegalArgumentException A document has no {@code _id}, or either collection isn't sorted by it.
+     */
+    public static void diff(BsonReader source, BsonReader target, Listener listener) throws IllegalArgumentException {
+        diff(documents(source), documents(target), new DiffOptions(DiffFlags.defaults()), listener);
+    }
+
+    /**
+     * Diffs two collections, computing the patches of documents present in both on the calling thread.
+     *
+     * @param source The source collection, sorted by {@code _id}.
+     * @param target The target collection, sorted by {@code _id}.
+     * @param options The options for the patches.
+     * @param listener Receives the changes.
+     * @throws IllegalArgumentException A document has no {@code _id}, or either collection isn't sorted by it.
+     */
+    public static void diff(Iterator<BsonDocument> source, Iterator<BsonDocument> target, DiffOptions options,
+                            Listener listener) throws IllegalArgumentException {
+        try {
+            new BsonCollectionDiff(options, null, 0, listener).run(source, target);
+        } catch (InterruptedException e) {
+            // only waiting for an executor can be interrupted
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Diffs two collections, computing the patches of documents present in both on {@code executor}.
+     * Changes are still reported in {@code _id} order, on the calling thread.
+     *
+     * @param source The source collection, sorted by {@code _id}.
+     * @param target The target collection, sorted by {@code _id}.
+     * @param options The options for the patches.
+     * @param executor Computes the patches.
+     * @param maxPending The maximum number of changes held back while earlier patches are being computed.
+     * @param listener Receives the changes.
+     * @throws IllegalArgumentException A document has no {@code _id}, or either collection isn't sorted by it.
+     * @throws InterruptedException The calling thread was interrupted while waiting for a patch.
+     */
+    public static void diff(Iterator<BsonDocument> source, Iterator<BsonDocument> target, DiffOptions options,
+                            ExecutorService executor, int maxPending, Listener listener)
+            throws IllegalArgumentException, InterruptedException {
+        if (maxPending < 1) throw new IllegalArgumentException("At least one pending change has to be allowed");
+        BsonCollectionDiff diff = new BsonCollectionDiff(options, executor, maxPending, listener);
+        try {
+            diff.run(source, target);
+            diff.drain(0);
+        } finally {
+            for (Change change : diff.pending) {
+                if (change.patch != null) change.patch.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Reads the consecutive documents of {@code reader}, such as those of a {@code mongodump} file, one at a time.
+     *
+     * @param reader The reader, positioned before the first document.
+     * @return The documents.
+     */
+    public static Iterator<BsonDocument> documents(final BsonReader reader) {
+        final BsonDocumentCodec codec = new BsonDocumentCodec();
+        return new Iterator<BsonDocument>() {
+            private Boolean hasNext;
+
+            @Override
+            public boolean hasNext() {
+                if (hasNext == null) {
+                    // a binary reader keeps announcing documents past the end of its input
+                    if (reader instanceof BsonBinaryReader && !((BsonBinaryReader) reader).getBsonInput().hasRemaining())
+                        hasNext = false;
+                    else
+                        hasNext = reader.readBsonType() != BsonType.END_OF_DOCUMENT;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public BsonDocument next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                hasNext = null;
+                return codec.decode(reader, DecoderContext.builder().build());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void run(Iterator<BsonDocument> source, Iterator<BsonDocument> target)
+            throws IllegalArgumentException, InterruptedException {
+        Cursor from = new Cursor("source", source);
+        Cursor to = new Cursor("target", target);
+        while (from.current != null || to.current != null) {
+            int order = from.current == null ? 1 : to.current == null ? -1 : ID_ORDER.compare(from.id, to.id);
+            if (order < 0) {
+                report(new Change(null, from.current, null, null));
+                from.advance();
+            } else if (order > 0) {
+                report(new Change(to.current, null, null, null));
+                to.advance();
+            } else if (executor == null) {
+                BsonArray patch = BsonDiff.asBson(from.current, to.current, options);
+                if (!patch.isEmpty()) listener.updated(from.id, patch);
+                from.advance();
+                to.advance();
+            } else {
+                report(new Change(null, null, from.id, submit(from.current, to.current)));
+                from.advance();
+                to.advance();
+            }
+        }
+    }
+
+    private Future<BsonArray> submit(final BsonDocument source, final BsonDocument target) {
+        return executor.submit(new Callable<BsonArray>() {
+            @Override
+            public BsonArray call() {
+                return BsonDiff.asBson(source, target, options);
+            }
+        });
+    }
+
+    private void report(Change change) throws InterruptedException {
+        if (executor == null) {
+            if (change.inserted != null) listener.inserted(change.inserted);
+            else listener.deleted(change.deleted);
+            return;
+        }
+        pending.add(change);
+        drain(maxPending);
+    }
+
+    /** Reports changes from the head of the queue until no more than {@code max} are left, or the head isn't ready. */
+    private void drain(int max) throws InterruptedException {
+        while (!pending.isEmpty()) {
+            Change change = pending.peek();
+            if (pending.size() <= max && change.patch != null && !change.patch.isDone()) return;
+            pending.poll();
+            if (change.inserted != null) {
+                listener.inserted(change.inserted);
+            } else if (change.deleted != null) {
+                listener.deleted(change.deleted);
+            } else {
+                BsonArray patch;
+                try {
+                    patch = change.patch.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+                if (!patch.isEmpty()) listener.updated(change.id, patch);
+            }
+        }
+    }
+
+    private static final class Change {
+        final BsonDocument inserted;
+        final BsonDocument deleted;
+        final BsonValue id;
+        final Future<BsonArray> patch;
+
+        Change(BsonDocument inserted, BsonDocument deleted, BsonValue id, Future<BsonArray> patch) {
+            this.inserted = inserted;
+            this.deleted = deleted;
+            this.id = id;
+            this.patch = patch;
+        }
+    }
+
+    /** The current document of a collection, checking that they come in {@code _id} order. */
+    private static final class Cursor {
+        private final String name;
+        private final Iterator<BsonDocument> documents;
+        BsonDocument current;
+        BsonValue id;
+
+        Cursor(String name, Iterator<BsonDocument> documents) {
+            this.name = name;
+            this.documents = documents;
+            advance();
+        }
+
+        void advance() {
+            if (!documents.hasNext()) {
+                current = null;
+                return;
+            }
+            BsonDocument next = documents.next();
+            BsonValue nextId = next.get(ID);
+            if (nextId == null)
+                throw new IllegalArgumentException("Document without _id in " + name + " collection");
+            if (id != null && ID_ORDER.compare(id, nextId) >= 0)
+                throw new IllegalArgumentException(name + " collection isn't sorted by _id: " + nextId + " follows " + id);
+            current = next;
+            id = nextId;
+        }
+    }
+
+    /** MongoDB's sort order, for the types found in {@code _id}s. */
+    private static final class IdOrder implements Comparator<BsonValue> {
+        @Override
+        public int compare(BsonValue first, BsonValue second) {
+            int order = Integer.compare(rank(first), rank(second));
+            if (order != 0) return order;
+            switch (first.getBsonType()) {
+                case INT32:
+                case INT64:
+                case DOUBLE:
+                case DECIMAL128:
+                    return compareNumbers(first, second);
+                case STRING:
+                case SYMBOL:
+                    return compareCodePoints(text(first), text(second));
+                case BINARY:
+                    return compareBinaries(first.asBinary(), second.asBinary());
+                case OBJECT_ID:
+                    return first.asObjectId().getValue().compareTo(second.asObjectId().getValue());
+                case BOOLEAN:
+                    return Boolean.compare(first.asBoolean().getValue(), second.asBoolean().getValue());
+                case DATE_TIME:
+                    return Long.compare(first.asDateTime().getValue(), second.asDateTime().getValue());
+                case TIMESTAMP:
+                    return first.asTimestamp().compareTo(second.asTimestamp());
+                default:
+                    // MIN_KEY, MAX_KEY, NULL and UNDEFINED: all equal within their rank
+                    return 0;
+            }
+        }
+
+        private static int rank(BsonValue value) {
+            switch (value.getBsonType()) {
+                case MIN_KEY: return 0;
+                case NULL:
+                case UNDEFINED: return 1;
+                case INT32:
+                case INT64:
+                case DOUBLE:
+                case DECIMAL128: return 2;
+                case STRING:
+                case SYMBOL: return 3;
+                case BINARY: return 4;
+                case OBJECT_ID: return 5;
+                case BOOLEAN: return 6;
+                case DATE_TIME: return 7;
+                case TIMESTAMP: return 8;
+                case MAX_KEY: return 9;
+                default:
+                    throw new IllegalArgumentException("Unsupported _id type " + value.getBsonType());
+            }
+        }
+
+        private static boolean isIntegral(BsonValue value) {
+            return value.getBsonType() == BsonType.INT32 || value.getBsonType() == BsonType.INT64;
+        }
+
+        /** Compares numbers of any type by value, exactly. */
+        private static int compareNumbers(BsonValue first, BsonValue second) {
+            if (isIntegral(first) && isIntegral(second))
+                return Long.compare(first.asNumber().longValue(), second.asNumber().longValue());
+            if (isExactDouble(first) && isExactDouble(second))
+                return compareDoubles(first.asNumber().doubleValue(), second.asNumber().doubleValue());
+            BigDecimal firstValue = decimalValue(first);
+            BigDecimal secondValue = decimalValue(second);
+            if (firstValue == null || secondValue == null) {
+                // NaN or an infinity, whose order against a finite number doesn't depend on its value
+                return compareDoubles(firstValue == null ? doubleValue(first) : 0,
+                        secondValue == null ? doubleValue(second) : 0);
+            }
+            return firstValue.compareTo(secondValue);
+        }
+
+        /** Orders doubles like MongoDB: NaN below every other number, and both zeros equal. */
+        private static int compareDoubles(double first, double second) {
+            if (Double.isNaN(first)) return Double.isNaN(second) ? 0 : -1;
+            if (Double.isNaN(second)) return 1;
+            return first < second ? -1 : first > second ? 1 : 0;
+        }
+
+        private static boolean isExactDouble(BsonValue value) {
+            switch (value.getBsonType()) {
+                case INT32:
+                case DOUBLE:
+                    return true;
+                case INT64:
+                    long l = value.asInt64().getValue();
+                    return l >= -(1L << 53) && l <= 1L << 53;
+                default:
+                    return false;
+            }
+        }
+
+        private static double doubleValue(BsonValue value) {
+            return value.isDecimal128() ? value.asDecimal128().getValue().doubleValue() : value.asNumber().doubleValue();
+        }
+
+        /** Returns the exact value of a number, or {@code null} if it isn't finite. */
+        private static BigDecimal decimalValue(BsonValue value) {
+            switch (value.getBsonType()) {
+                case DOUBLE:
+                    double d = value.asDouble().getValue();
+                    return Double.isNaN(d) || Double.isInfinite(d) ? null : new BigDecimal(d);
+                case DECIMAL128:
+                    Decimal128 decimal = value.asDecimal128().getValue();
+                    if (decimal.isNaN() || decimal.isInfinite()) return null;
+                    try {
+                        return decimal.bigDecimalValue();
+                    } catch (ArithmeticException e) {
+                        // negative zero, which has no BigDecimal form
+                        return BigDecimal.ZERO;
+                    }
+                default:
+                    return BigDecimal.valueOf(value.asNumber().longValue());
+            }
+        }
+
+        private static String text(BsonValue value) {
+            return value.isString() ? value.asString().getValue() : value.asSymbol().getSymbol();
+        }
+
+        // code point order is the order of the UTF-8 bytes MongoDB compares
+        private static int compareCodePoints(String first, String second) {
+            int i = 0;
+            int j = 0;
+            while (i < first.length() && j < second.length()) {
+                int a = first.codePointAt(i);
+                int b = second.codePointAt(j);
+                if (a != b) return Integer.compare(a, b);
+                i += Character.charCount(a);
+                j += Character.charCount(b);
+            }
+            return Integer.compare(first.length() - i, second.length() - j);
+        }
+
+        private static int compareBinaries(BsonBinary first, BsonBinary second) {
+            int order = Integer.compare(first.getData().length, second.getData().length);
+            if (order == 0) order = Integer.compare(first.getType() & 0xff, second.getType() & 0xff);
+            if (order != 0) return order;
+            byte[] a = first.getData();
+            byte[] b = second.getData();
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) return Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            }
+            return 0;
+        }
+    }
+}
@@ -20,15 +20,19 @@
 package com.ebay.bsonpatch;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.collections4.Equator;
 import org.apache.commons.collections4.ListUtils;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
 import org.bson.BsonString;
 import org.bson.BsonValue;
 
@@ -37,9 +41,18 @@ public final class BsonDiff {
 
     private final List<Diff> diffs = new ArrayList<Diff>();
     private final EnumSet<DiffFlags> flags;
-
-    private BsonDiff(EnumSet<DiffFlags> flags) {
-    	this.flags = flags.clone();
+    private final DiffOptions options;
+    private final BsonEquality equality = new BsonEquality();
+    private final BsonPatchMetrics metrics;
+    private final DiffStats stats;
+    private long nodesVisited;
+    private long equalsCalls;
+
+    private BsonDiff(DiffOptions options, DiffStats stats) {
+        this.options = options;
+        this.flags = options.getFlags();
+        this.metrics = MetricsHolder.enabled();
+        this.stats = stats;
     }
     
     public static BsonArray asBson(final BsonValue source, final BsonValue target) {
@@ -47,31 +60,155 @@ public final class BsonDiff {
     }
 
     public static BsonArray asBson(final BsonValue source, final BsonValue target, EnumSet<DiffFlags> flags) {
-        BsonDiff diff = new BsonDiff(flags);
+        return asBson(source, target, new DiffOptions(flags));
+    }
+
+    /**
+     * Computes the patch from {@code source} to {@code target}, honoring the depth limit and the
+     * atomic and ignored paths of the given options.
+     *
+     * @param source The source value.
+     * @param target The target value.
+     * @param options The diff options.
+     * @return The patch, as an array of operations.
+     * @since 0.4.13
+     */
+    public static BsonArray asBson(final BsonValue source, final BsonValue target, DiffOptions options) {
+        return new BsonDiff(options, null).compute(source, target);
+    }
+
+    public static DiffStats asBsonWithStats(final BsonValue source, final BsonValue target) {
+        return asBsonWithStats(source, target, new DiffOptions());
+    }
+
+    public static DiffStats asBsonWithStats(final BsonValue source, final BsonValue target, EnumSet<DiffFlags> flags) {
+        return asBsonWithStats(source, target, new DiffOptions(flags));
+    }
+
+    /**
+     * Computes the patch from {@code source} to {@code target} like {@link #asBson(BsonValue, BsonValue, DiffOptions)},
+     * and explains how it was computed.
+     *
+     * @param source The source value.
+     * @param target The target value.
+     * @param options The diff options.
+     * @return The patch along with statistics about its computation.
+     * @since 0.4.13
+     */
+    public static DiffStats asBsonWithStats(final BsonValue source, final BsonValue target, DiffOptions options) {
+        DiffStats stats = new DiffStats();
+        new BsonDiff(options, stats).compute(source, target);
+        return stats;
+    }
+
+    public static Iterator<String> changedPaths(final BsonValue source, final BsonValue target) {
+        return changedPaths(source, target, new DiffOptions());
+    }
+
+    /**
+     * Lists the JSON pointers at which {@code source} and {@code target} differ, computing each one only when it
+     * is requested, so that a caller interested in the first few changes stops the comparison early. Unlike
+     * {@link #asBson(BsonValue, BsonValue, DiffOptions)}, arrays aren't aligned: arrays of the same length are
+     * compared element by element and arrays whose length changed are reported as a whole. No move or copy
+     * detection takes place.
+     *
+     * @param source The source value.
+     * @param target The target value.
+     * @param options The diff options; only the depth limit and the atomic and ignored paths apply.
+     * @return The paths of the differences, in document order.
+     * @since 0.4.13
+     */
+    public static Iterator<String> changedPaths(final BsonValue source, final BsonValue target, DiffOptions options) {
+        return new ChangedPaths(source, target, options);
+    }
+
+    /**
+     * Indicates whether the value referenced by any of the given JSON pointers differs between {@code source}
+     * and {@code target}, including being present on one side only. Only the referenced subtrees are compared,
+     * and the comparison stops at the first difference.
+     *
+     * @param source The source value.
+     * @param target The target value.
+     * @param paths The JSON pointers to check.
+     * @return Whether any of the referenced values changed.
+     * @throws IllegalArgumentException One of the paths isn't a valid JSON pointer.
+     * @since 0.4.13
+     */
+    public static boolean anyChanged(final BsonValue source, final BsonValue target, Collection<String> paths) {
+        for (String path : paths) {
+            JsonPointer pointer = JsonPointer.parse(path);
+            BsonValue before = pointer.find(source);
+            BsonValue after = pointer.find(target);
+            if (before == null ? after != null : !BsonEquality.equal(before, after)) return true;
+        }
+        return false;
+    }
+
+    private BsonArray compute(final BsonValue source, final BsonValue target) {
+        long start = isMeasured() ? System.nanoTime() : 0L;
         if (source == null && target != null) {
             // return add node at root pointing to the target
-            diff.diffs.add(Diff.generateDiff(Operation.ADD, JsonPointer.ROOT, target));
+            diffs.add(Diff.generateDiff(Operation.ADD, JsonPointer.ROOT, target));
         }
         if (source != null && target == null) {
             // return remove node at root pointing to the source
-            diff.diffs.add(Diff.generateDiff(Operation.REMOVE, JsonPointer.ROOT, source));
+            diffs.add(Diff.generateDiff(Operation.REMOVE, JsonPointer.ROOT, source));
         }
         if (source != null && target != null) {
-            diff.generateDiffs(JsonPointer.ROOT, source, target);
+            generateDiffs(PathNode.ROOT, source, target);
+            long phaseStart = phaseCompleted(DiffStats.Phase.GENERATE_DIFFS, start);
 
-            if (!flags.contains(DiffFlags.OMIT_MOVE_OPERATION))
+            if (!flags.contains(DiffFlags.OMIT_MOVE_OPERATION)) {
                 // Merging remove & add to move operation
-                diff.introduceMoveOperation();
+                introduceMoveOperation();
+                phaseStart = phaseCompleted(DiffStats.Phase.INTRODUCE_MOVE_OPERATION, phaseStart);
+            }
 
-            if (!flags.contains(DiffFlags.OMIT_COPY_OPERATION))
+            if (!flags.contains(DiffFlags.OMIT_COPY_OPERATION)) {
                  // Introduce copy operation
-                diff.introduceCopyOperation(source, target);
+                introduceCopyOperation(source, target);
+                phaseStart = phaseCompleted(DiffStats.Phase.INTRODUCE_COPY_OPERATION, phaseStart);
+            }
 
-            if (flags.contains(DiffFlags.ADD_EXPLICIT_REMOVE_ADD_ON_REPLACE))
+            if (flags.contains(DiffFlags.ADD_EXPLICIT_REMOVE_ADD_ON_REPLACE)) {
                 // Split replace into remove and add instructions
-                diff.introduceExplicitRemoveAndAddOperation();
+                introduceExplicitRemoveAndAddOperation();
+                phaseCompleted(DiffStats.Phase.INTRODUCE_EXPLICIT_REMOVE_AND_ADD_OPERATION, phaseStart);
+            }
+        }
+        BsonArray patch = getBsonNodes();
+        if (metrics != null) {
+            reportMetrics(start);
+        }
+        if (stats != null) {
+            stats.completed(patch, diffs, System.nanoTime() - start, equalsCalls, nodesVisited);
+        }
+        return patch;
+    }
+
+    private boolean isMeasured() {
+        return metrics != null || stats != null;
+    }
+
+    private long phaseCompleted(DiffStats.Phase phase, long phaseStart) {
+        if (!isMeasured()) return 0L;
+        long now = System.nanoTime();
+        if (stats != null) {
+            stats.phaseCompleted(phase, now - phaseStart);
+        }
+        if (metrics != null) {
+            if (phase == DiffStats.Phase.INTRODUCE_MOVE_OPERATION) metrics.movePassCompleted(now - phaseStart);
+            else if (phase == DiffStats.Phase.INTRODUCE_COPY_OPERATION) metrics.copyPassCompleted(now - phaseStart);
+        }
+        return now;
+    }
+
+    private void reportMetrics(long start) {
+        metrics.diffNodesVisited(nodesVisited);
+        for (Diff diff : diffs) {
+            metrics.diffOperationEmitted(diff.getOperation().rfcName());
         }
-        return diff.getBsonNodes();
+        metrics.diffCompleted(System.nanoTime() - start, diffs.size());
     }
 
     private static JsonPointer getMatchingValuePath(Map<BsonValue, JsonPointer> unchangedValues, BsonValue value) {
@@ -82,7 +219,7 @@ public final class BsonDiff {
         Map<BsonValue, JsonPointer> unchangedValues = getUnchangedPart(source, target);
         for (int i = 0; i < diffs.size(); i++) {
             Diff diff = diffs.get(i);
-            if (Operation.ADD != diff.getOperation()) continue;
+            if (Operation.ADD != diff.getOperation() || isBroadcast(diff)) continue;
             
             JsonPointer matchingValuePath = getMatchingValuePath(unchangedValues, diff.getValue());
             if (matchingValuePath != null && isAllowed(matchingValuePath, diff.getPath())) {
@@ -133,16 +270,21 @@ public final class BsonDiff {
     }
 
 
-    private static Map<BsonValue, JsonPointer> getUnchangedPart(BsonValue source, BsonValue target) {
+    private Map<BsonValue, JsonPointer> getUnchangedPart(BsonValue source, BsonValue target) {
         Map<BsonValue, JsonPointer> unchangedValues = new HashMap<BsonValue, JsonPointer>();
-        computeUnchangedValues(unchangedValues, JsonPointer.ROOT, source, target);
+        computeUnchangedValues(unchangedValues, PathNode.ROOT, source, target);
         return unchangedValues;
     }
 
-    private static void computeUnchangedValues(Map<BsonValue, JsonPointer> unchangedValues, JsonPointer path, BsonValue source, BsonValue target) {
-        if (source.equals(target)) {
+    private void computeUnchangedValues(Map<BsonValue, JsonPointer> unchangedValues, PathNode path, BsonValue source, BsonValue target) {
+        if (options.isIgnored(path)) {
+            return;
+        }
+        // a container may hold ignored subtrees, which would be read by hashing it, so only its children are kept
+        boolean container = source.isDocument() || source.isArray();
+        if (!(container && options.hasIgnoredPaths()) && equivalent(source, target)) {
             if (!unchangedValues.containsKey(target)) {
-            	unchangedValues.put(target, path);
+            	unchangedValues.put(target, path.toPointer());
             }
             return;
         }
@@ -161,21 +303,21 @@ public final class BsonDiff {
         }
     }
 
-    private static void computeArray(Map<BsonValue, JsonPointer> unchangedValues, JsonPointer path, BsonValue source, BsonValue target) {
+    private void computeArray(Map<BsonValue, JsonPointer> unchangedValues, PathNode path, BsonValue source, BsonValue target) {
         final int size = Math.min(source.asArray().size(), target.asArray().size());
 
         for (int i = 0; i < size; i++) {
-        	JsonPointer currPath = path.append(i);
+        	PathNode currPath = path.child(i);
             computeUnchangedValues(unchangedValues, currPath, source.asArray().get(i), target.asArray().get(i));
         }
     }
 
-    private static void computeDocument(Map<BsonValue, JsonPointer> unchangedValues, JsonPointer path, BsonValue source, BsonValue target) {
+    private void computeDocument(Map<BsonValue, JsonPointer> unchangedValues, PathNode path, BsonValue source, BsonValue target) {
         final Iterator<String> firstFields = source.asDocument().keySet().iterator();
         while (firstFields.hasNext()) {
             String name = firstFields.next();
             if (target.asDocument().containsKey(name)) {
-            	JsonPointer currPath = path.append(name);
+            	PathNode currPath = path.child(name);
                 computeUnchangedValues(unchangedValues, currPath, source.asDocument().get(name), target.asDocument().get(name));
             }
         }
@@ -191,13 +333,13 @@ public final class BsonDiff {
 
             // if not remove OR add, move to next diff
             if (!(Operation.REMOVE == diff1.getOperation() ||
-                    Operation.ADD == diff1.getOperation())) {
+                    Operation.ADD == diff1.getOperation()) || isBroadcast(diff1)) {
                 continue;
             }
 
             for (int j = i + 1; j < diffs.size(); j++) {
                 Diff diff2 = diffs.get(j);
-                if (!diff1.getValue().equals(diff2.getValue())) {
+                if (isBroadcast(diff2) || !equal(diff1.getValue(), diff2.getValue())) {
                     continue;
                 }
 
@@ -326,17 +468,23 @@ public final class BsonDiff {
             case REMOVE:
                 bsonNode.put(Constants.PATH, new BsonString(diff.getPath().toString()));
                 if (!flags.contains(DiffFlags.OMIT_VALUE_ON_REMOVE))
-                    bsonNode.put(Constants.VALUE, diff.getValue());
+                    bsonNode.put(Constants.VALUE, valueOf(diff.getValue(), flags));
                 break;    
             case REPLACE:
             	if (flags.contains(DiffFlags.ADD_ORIGINAL_VALUE_ON_REPLACE)) {
-            		bsonNode.put(Constants.FROM_VALUE, diff.getSrcValue());
+            		bsonNode.put(Constants.FROM_VALUE, valueOf(diff.getSrcValue(), flags));
             	}
             	// fall through intentional
             case ADD:
             case TEST:
                 bsonNode.put(Constants.PATH, new BsonString(diff.getPath().toString()));
-                bsonNode.put(Constants.VALUE, diff.getValue());
+                if (diff.getOperation() == Operation.TEST && flags.contains(DiffFlags.HASH_TEST_VALUES)
+                        && BsonHash.size(diff.getValue()) >= 0) {
+                    bsonNode.put(Constants.HASH, new BsonInt64(BsonHash.hash(diff.getValue())));
+                    bsonNode.put(Constants.SIZE, new BsonInt32(BsonHash.size(diff.getValue())));
+                    break;
+                }
+                bsonNode.put(Constants.VALUE, valueOf(diff.getValue(), flags));
                 break;
 
             default:
@@ -347,26 +495,43 @@ public final class BsonDiff {
         return bsonNode;
     }
 
-    private void generateDiffs(JsonPointer path, BsonValue source, BsonValue target) {
-        if (!source.equals(target)) {
-            if (source.isArray() && target.isArray()) {
+    // values reference the source and target unless the caller asked for a patch of its own
+    private static BsonValue valueOf(BsonValue value, EnumSet<DiffFlags> flags) {
+        return flags.contains(DiffFlags.DETACH_VALUES) ? CopyingApplyProcessor.deepCopy(value) : value;
+    }
+
+    private void generateDiffs(PathNode path, BsonValue source, BsonValue target) {
+        nodesVisited++;
+        if (options.isIgnored(path)) {
+            return;
+        }
+        if (!equivalent(path, source, target)) {
+            boolean atomic = options.isAtomic(path);
+            if (!atomic && source.isArray() && target.isArray()) {
                 //both are arrays
-                compareArray(path, source, target);
-            } else if (source.isDocument() && target.isDocument()) {
+                if (options.isUnordered(path)) {
+                    compareUnorderedArray(path, source.asArray(), target.asArray());
+                } else {
+                    compareArray(path, source, target);
+                }
+            } else if (!atomic && source.isDocument() && target.isDocument()) {
                 //both are json
                 compareDocuments(path, source, target);
             } else {
                 //can be replaced
             	if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS)) {
-                    diffs.add(new Diff(Operation.TEST, path, source));
+                    diffs.add(new Diff(Operation.TEST, path.toPointer(), source));
             	}
-                diffs.add(Diff.generateDiff(Operation.REPLACE, path, source, target));
+                diffs.add(Diff.generateDiff(Operation.REPLACE, path.toPointer(), source, target));
             }
         }
     }
 
-    private void compareArray(JsonPointer path, BsonValue source, BsonValue target) {
+    private void compareArray(PathNode path, BsonValue source, BsonValue target) {
+        if (metrics != null) metrics.lcsComputed(source.asArray().size(), target.asArray().size());
+        long callsBefore = equalsCalls;
         List<BsonValue> lcs = getLCS(source, target);
+        if (stats != null) stats.arrayCompared(path, source.asArray().size(), target.asArray().size(), equalsCalls - callsBefore);
         int srcIdx = 0;
         int targetIdx = 0;
         int lcsIdx = 0;
@@ -374,6 +539,7 @@ public final class BsonDiff {
         int targetSize = target.asArray().size();
         int lcsSize = lcs.size();
 
+        int first = diffs.size();
         int pos = 0;
         while (lcsIdx < lcsSize) {
             BsonValue lcsNode = lcs.get(lcsIdx);
@@ -381,28 +547,28 @@ public final class BsonDiff {
             BsonValue targetNode = target.asArray().get(targetIdx);
 
 
-            if (lcsNode.equals(srcNode) && lcsNode.equals(targetNode)) { // Both are same as lcs node, nothing to do here
+            if (equal(lcsNode, srcNode) && equal(lcsNode, targetNode)) { // Both are same as lcs node, nothing to do here
                 srcIdx++;
                 targetIdx++;
                 lcsIdx++;
                 pos++;
             } else {
-                if (lcsNode.equals(srcNode)) { // src node is same as lcs, but not targetNode
+                if (equal(lcsNode, srcNode)) { // src node is same as lcs, but not targetNode
                     //addition
-                	JsonPointer currPath = path.append(pos);
-                    diffs.add(Diff.generateDiff(Operation.ADD, currPath, targetNode));
+                	PathNode currPath = path.child(pos);
+                    diffs.add(Diff.generateDiff(Operation.ADD, currPath.toPointer(), targetNode));
                     pos++;
                     targetIdx++;
-                } else if (lcsNode.equals(targetNode)) { //targetNode node is same as lcs, but not src
+                } else if (equal(lcsNode, targetNode)) { //targetNode node is same as lcs, but not src
                     //removal,
-                	JsonPointer currPath = path.append(pos);
+                	PathNode currPath = path.child(pos);
                 	if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS)) {
-                        diffs.add(new Diff(Operation.TEST, currPath, srcNode));
+                        diffs.add(new Diff(Operation.TEST, currPath.toPointer(), srcNode));
                 	}
-                    diffs.add(Diff.generateDiff(Operation.REMOVE, currPath, srcNode));
+                    diffs.add(Diff.generateDiff(Operation.REMOVE, currPath.toPointer(), srcNode));
                     srcIdx++;
                 } else {
-                	JsonPointer currPath = path.append(pos);
+                	PathNode currPath = path.child(pos);
                     //both are unequal to lcs node
                     generateDiffs(currPath, srcNode, targetNode);
                     srcIdx++;
@@ -415,7 +581,7 @@ public final class BsonDiff {
         while ((srcIdx < srcSize) && (targetIdx < targetSize)) {
         	BsonValue srcNode = source.asArray().get(srcIdx);
         	BsonValue targetNode = target.asArray().get(targetIdx);
-        	JsonPointer currPath = path.append(pos);
+        	PathNode currPath = path.child(pos);
             generateDiffs(currPath, srcNode, targetNode);
             srcIdx++;
             targetIdx++;
@@ -423,45 +589,146 @@ public final class BsonDiff {
         }
         pos = addRemaining(path, target, pos, targetIdx, targetSize);
         removeRemaining(path, pos, srcIdx, srcSize, source);
+        if (flags.contains(DiffFlags.EMIT_WILDCARD_OPERATIONS) && srcSize == targetSize) {
+            collapseUniformChanges(path, first, srcSize);
+        }
+    }
+
+    /**
+     * Replaces the operations just generated for the elements of an array by wildcard operations when every
+     * element changed the same way, e.g. a single replace of /items/&#42;/price rather than one per item.
+     */
+    private void collapseUniformChanges(PathNode path, int first, int size) {
+        int count = diffs.size() - first;
+        if (size < 2 || count == 0 || count % size != 0) return;
+        int perElement = count / size;
+        int depth = path.depth();
+        for (int i = 0; i < size; i++) {
+            String index = Integer.toString(i);
+            for (int j = 0; j < perElement; j++) {
+                if (!isSameChange(diffs.get(first + i * perElement + j), diffs.get(first + j), depth, index)) return;
+            }
+        }
+        List<Diff> broadcast = new ArrayList<Diff>(perElement);
+        for (int j = 0; j < perElement; j++) {
+            Diff diff = diffs.get(first + j);
+            List<JsonPointer.RefToken> tokens = new ArrayList<JsonPointer.RefToken>(diff.getPath().decompose());
+            tokens.set(depth, new JsonPointer.RefToken(JsonPointer.WILDCARD));
+            broadcast.add(diff.at(new JsonPointer(tokens)));
+        }
+        diffs.subList(first, diffs.size()).clear();
+        diffs.addAll(broadcast);
+    }
+
+    // whether diff does to the element at index what model does to the first one
+    private boolean isSameChange(Diff diff, Diff model, int depth, String index) {
+        JsonPointer path = diff.getPath();
+        JsonPointer modelPath = model.getPath();
+        Operation op = diff.getOperation();
+        if (op != model.getOperation() || path.size() != modelPath.size() || path.size() <= depth) return false;
+        if (!index.equals(path.get(depth).getField())) return false;
+        // adding or removing the elements themselves changes the array, not each element
+        if (path.size() == depth + 1 && op != Operation.TEST
+                && (op != Operation.REPLACE || flags.contains(DiffFlags.ADD_EXPLICIT_REMOVE_ADD_ON_REPLACE))) {
+            return false;
+        }
+        for (int k = 0; k < path.size(); k++) {
+            if (k != depth && !path.get(k).equals(modelPath.get(k))) return false;
+        }
+        // the replaced values only matter if they're going to be part of the patch
+        if (op == Operation.REPLACE && (flags.contains(DiffFlags.ADD_ORIGINAL_VALUE_ON_REPLACE)
+                || flags.contains(DiffFlags.ADD_EXPLICIT_REMOVE_ADD_ON_REPLACE))
+                && !sameValue(diff.getSrcValue(), model.getSrcValue())) {
+            return false;
+        }
+        return (op == Operation.REMOVE && flags.contains(DiffFlags.OMIT_VALUE_ON_REMOVE))
+                || sameValue(diff.getValue(), model.getValue());
+    }
+
+    private static boolean sameValue(BsonValue a, BsonValue b) {
+        return a == null ? b == null : b != null && BsonEquality.equal(a, b);
     }
 
-    private void removeRemaining(JsonPointer path, int pos, int srcIdx, int srcSize, BsonValue source) {
+    private boolean isBroadcast(Diff diff) {
+        return flags.contains(DiffFlags.EMIT_WILDCARD_OPERATIONS) && diff.getPath().indexOfWildcard() >= 0;
+    }
+
+    private void compareUnorderedArray(PathNode path, BsonArray source, BsonArray target) {
+        // count the source elements, then consume them with the target's; what's left over in the
+        // counts has departed, the target elements that found no match are new
+        Map<BsonValue, Integer> departed = new HashMap<BsonValue, Integer>();
+        for (BsonValue value : source) {
+            Integer count = departed.get(value);
+            departed.put(value, count == null ? 1 : count + 1);
+        }
+        List<BsonValue> arrived = new ArrayList<BsonValue>();
+        for (BsonValue value : target) {
+            Integer count = departed.get(value);
+            if (count == null || count == 0) {
+                arrived.add(value);
+            } else {
+                departed.put(value, count - 1);
+            }
+        }
+        if (stats != null) stats.arrayCompared(path, source.size(), target.size(), 0);
+
+        int pos = 0;
+        for (BsonValue value : source) {
+            Integer count = departed.get(value);
+            if (count == 0) {
+                pos++;
+                continue;
+            }
+            departed.put(value, count - 1);
+            PathNode currPath = path.child(pos);
+            if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS)) {
+                diffs.add(new Diff(Operation.TEST, currPath.toPointer(), value));
+            }
+            diffs.add(Diff.generateDiff(Operation.REMOVE, currPath.toPointer(), value));
+        }
+        for (BsonValue value : arrived) {
+            diffs.add(Diff.generateDiff(Operation.ADD, path.child(pos++).toPointer(), value));
+        }
+    }
+
+    private void removeRemaining(PathNode path, int pos, int srcIdx, int srcSize, BsonValue source) {
 
         while (srcIdx < srcSize) {
-        	JsonPointer currPath = path.append(pos);
+        	PathNode currPath = path.child(pos);
         	if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS)) {
-                diffs.add(new Diff(Operation.TEST, currPath, source.asArray().get(srcIdx)));
+                diffs.add(new Diff(Operation.TEST, currPath.toPointer(), source.asArray().get(srcIdx)));
         	}
-            diffs.add(Diff.generateDiff(Operation.REMOVE, currPath, source.asArray().get(srcIdx)));
+            diffs.add(Diff.generateDiff(Operation.REMOVE, currPath.toPointer(), source.asArray().get(srcIdx)));
             srcIdx++;
         }
     }
 
-    private int addRemaining(JsonPointer path, BsonValue target, int pos, int targetIdx, int targetSize) {
+    private int addRemaining(PathNode path, BsonValue target, int pos, int targetIdx, int targetSize) {
         while (targetIdx < targetSize) {
         	BsonValue bsonNode = target.asArray().get(targetIdx);
-        	JsonPointer currPath = path.append(pos);
-            diffs.add(Diff.generateDiff(Operation.ADD, currPath, CopyingApplyProcessor.deepCopy(bsonNode)));
+        	PathNode currPath = path.child(pos);
+            diffs.add(Diff.generateDiff(Operation.ADD, currPath.toPointer(), bsonNode));
             pos++;
             targetIdx++;
         }
         return pos;
     }
 
-    private void compareDocuments(JsonPointer path, BsonValue source, BsonValue target) {
+    private void compareDocuments(PathNode path, BsonValue source, BsonValue target) {
         Iterator<String> keysFromSrc = source.asDocument().keySet().iterator();
         while (keysFromSrc.hasNext()) {
             String key = keysFromSrc.next();
             if (!target.asDocument().containsKey(key)) {
                 //remove case
-            	JsonPointer currPath = path.append(key);
+            	PathNode currPath = path.child(key);
+                if (options.isIgnored(currPath)) continue;
             	if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS)) {
-                    diffs.add(new Diff(Operation.TEST, currPath, source.asDocument().get(key)));
+                    diffs.add(new Diff(Operation.TEST, currPath.toPointer(), source.asDocument().get(key)));
             	}
-                diffs.add(Diff.generateDiff(Operation.REMOVE, currPath, source.asDocument().get(key)));
+                diffs.add(Diff.generateDiff(Operation.REMOVE, currPath.toPointer(), source.asDocument().get(key)));
                 continue;
             }
-            JsonPointer currPath = path.append(key);
+            PathNode currPath = path.child(key);
             generateDiffs(currPath, source.asDocument().get(key), target.asDocument().get(key));
         }
         Iterator<String> keysFromTarget = target.asDocument().keySet().iterator();
@@ -469,13 +736,89 @@ public final class BsonDiff {
             String key = keysFromTarget.next();
             if (!source.asDocument().containsKey(key)) {
                 //add case
-            	JsonPointer currPath = path.append(key);
-                diffs.add(Diff.generateDiff(Operation.ADD, currPath, target.asDocument().get(key)));
+            	PathNode currPath = path.child(key);
+                if (options.isIgnored(currPath)) continue;
+                diffs.add(Diff.generateDiff(Operation.ADD, currPath.toPointer(), target.asDocument().get(key)));
             }
         }
     }
 
-    private static List<BsonValue> getLCS(final BsonValue first, final BsonValue second) {
-        return ListUtils.longestCommonSubsequence(InternalUtils.toList(first.asArray()), InternalUtils.toList(second.asArray()));
+    private boolean equivalent(BsonValue source, BsonValue target) {
+        equalsCalls++;
+        return equality.equivalent(source, target);
+    }
+
+    // with ignored paths, containers are compared child by child so that the ignored subtrees aren't read at all
+    private boolean equivalent(PathNode path, BsonValue source, BsonValue target) {
+        if (!options.hasIgnoredPaths() || source == target) return equivalent(source, target);
+        if (source.isDocument() && target.isDocument()) {
+            BsonDocument sourceDocument = source.asDocument();
+            BsonDocument targetDocument = target.asDocument();
+            for (Map.Entry<String, BsonValue> field : sourceDocument.entrySet()) {
+                PathNode child = path.child(field.getKey());
+                if (options.isIgnored(child)) continue;
+                BsonValue targetValue = targetDocument.get(field.getKey());
+                if (targetValue == null || !equivalent(child, field.getValue(), targetValue)) return false;
+            }
+            for (String key : targetDocument.keySet()) {
+                if (!sourceDocument.containsKey(key) && !options.isIgnored(path.child(key))) return false;
+            }
+            return true;
+        }
+        if (source.isArray() && target.isArray()) {
+            BsonArray sourceArray = source.asArray();
+            BsonArray targetArray = target.asArray();
+            if (sourceArray.size() != targetArray.size()) return false;
+            for (int i = 0; i < sourceArray.size(); i++) {
+                PathNode child = path.child(i);
+                if (!options.isIgnored(child) && !equivalent(child, sourceArray.get(i), targetArray.get(i))) return false;
+            }
+            return true;
+        }
+        return equivalent(source, target);
+    }
+
+    private boolean equal(BsonValue first, BsonValue second) {
+        equalsCalls++;
+        return BsonEquality.equal(first, second);
+    }
+
+    private final Equator<BsonValue> elementEquator = new Equator<BsonValue>() {
+        @Override
+        public boolean equate(BsonValue o1, BsonValue o2) {
+            return equal(o1, o2);
+        }
+
+        @Override
+        public int hash(BsonValue o) {
+            return o.hashCode();
+        }
+    };
+
+    private List<BsonValue> getLCS(final BsonValue first, final BsonValue second) {
+        BsonArray source = first.asArray();
+        BsonArray target = second.asArray();
+        if ((long) source.size() + target.size() > options.getLcsWindow()) {
+            WindowedLcs windowed = new WindowedLcs(source, target, options.getLcsWindow(), new WindowedLcs.Exact() {
+                @Override
+                public List<BsonValue> lcs(BsonArray first, BsonArray second) {
+                    return exactLCS(first, second);
+                }
+            });
+            List<BsonValue> lcs = windowed.compute();
+            equalsCalls += windowed.comparisons();
+            return lcs;
+        }
+        return exactLCS(source, target);
+    }
+
+    private List<BsonValue> exactLCS(BsonArray first, BsonArray second) {
+        PrimitiveArrayLcs primitive = PrimitiveArrayLcs.of(first, second);
+        if (primitive != null) {
+            List<BsonValue> lcs = primitive.compute(first);
+            equalsCalls += primitive.comparisons();
+            return lcs;
+        }
+        return ListUtils.longestCommonSubsequence(InternalUtils.toList(first), InternalUtils.toList(second), elementEquator);
     }
 }
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+
+/**
+ * Single pass structural equality for {@link BsonValue}s, with the same semantics as
+ * {@link BsonValue#equals(Object)} (document fields are compared regardless of order, array
+ * elements positionally).
+ *
+ * <p>Comparison bails out as early as possible: identical references, differing types, differing
+ * document or array sizes and differing string or binary lengths are detected without descending
+ * any further. A memoizing instance additionally remembers the outcome for every pair of documents
+ * or arrays it has compared, so that a caller walking the same pair of trees again (as the diff
+ * does, level by level) never compares the same subtree twice. Memoized results are only valid
+ * as long as neither tree is modified.
+ */
+final class BsonEquality {
+
+    private final Map<ValuePair, Boolean> memo = new HashMap<ValuePair, Boolean>();
+
+    /**
+     * Compares two values, reusing and recording results for container pairs.
+     */
+    boolean equivalent(BsonValue first, BsonValue second) {
+        return equal(first, second, memo);
+    }
+
+    /**
+     * Compares two values without memoization.
+     */
+    static boolean equal(BsonValue first, BsonValue second) {
+        return equal(first, second, null);
+    }
+
+    private static boolean equal(BsonValue first, BsonValue second, Map<ValuePair, Boolean> memo) {
+        if (first == second) return true;
+        if (first == null || second == null) return false;
+
+        BsonType type = first.getBsonType();
+        if (type != second.getBsonType()) return false;
+
+        switch (type) {
+            case DOCUMENT:
+            case ARRAY: {
+                ValuePair pair = null;
+                if (memo != null) {
+                    pair = new ValuePair(first, second);
+                    Boolean known = memo.get(pair);
+                    if (known != null) return known;
+                }
+                boolean result = type == BsonType.DOCUMENT
+                        ? documentsEqual(first.asDocument(), second.asDocument(), memo)
+                        : arraysEqual(first.asArray(), second.asArray(), memo);
+                if (memo != null) memo.put(pair, result);
+                return result;
+            }
+            case STRING: {
+                String a = first.asString().getValue();
+                String b = second.asString().getValue();
+                return a.length() == b.length() && a.equals(b);
+            }
+            case BINARY: {
+                BsonBinary a = first.asBinary();
+                BsonBinary b = second.asBinary();
+                return a.getType() == b.getType()
+                        && a.getData().length == b.getData().length
+                        && Arrays.equals(a.getData(), b.getData());
+            }
+            default:
+                return first.equals(second);
+        }
+    }
+
+    private static boolean documentsEqual(BsonDocument first, BsonDocument second, Map<ValuePair, Boolean> memo) {
+        if (first.size() != second.size()) return false;
+        for (Map.Entry<String, BsonValue> entry : first.entrySet()) {
+            BsonValue other = second.get(entry.getKey());
+            if (other == null || !equal(entry.getValue(), other, memo)) return false;
+        }
+        return true;
+    }
+
+    private static boolean arraysEqual(BsonArray first, BsonArray second, Map<ValuePair, Boolean> memo) {
+        int size = first.size();
+        if (size != second.size()) return false;
+        for (int i = 0; i < size; i++) {
+            if (!equal(first.get(i), second.get(i), memo)) return false;
+        }
+        return true;
+    }
+
+    /** A pair of values keyed by identity rather than by content. */
+    private static final class ValuePair {
+        private final BsonValue first;
+        private final BsonValue second;
+
+        ValuePair(BsonValue first, BsonValue second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ValuePair)) return false;
+            ValuePair that = (ValuePair) o;
+            return first == that.first && second == that.second;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(first) + System.identityHashCode(second);
+        }
+    }
+}
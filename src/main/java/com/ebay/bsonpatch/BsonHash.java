@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.Map;
+
+import org.bson.BsonBinary;
+import org.bson.BsonDbPointer;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+import org.bson.types.Decimal128;
+
+/**
+ * A stable 64-bit structural hash of {@link BsonValue}s, used by hashed {@link Operation#TEST} operations.
+ *
+ * <p>The hash is consistent with {@link BsonEquality}: equal values hash alike, document fields in any order
+ * and numbers only when of the same BSON type. It only depends on the values themselves, never on identity
+ * hash codes or the JVM, so that patches carrying it can be checked anywhere.
+ */
+final class BsonHash {
+
+    private BsonHash() {}
+
+    static long hash(BsonValue value) {
+        long h = value.getBsonType().getValue();
+        switch (value.getBsonType()) {
+            case DOCUMENT: {
+                // fields are combined with a commutative sum, so that their order doesn't matter
+                long fields = 0;
+                for (Map.Entry<String, BsonValue> field : value.asDocument().entrySet()) {
+                    fields += mix(combine(hash(field.getKey()), hash(field.getValue())));
+                }
+                return combine(combine(h, value.asDocument().size()), fields);
+            }
+            case ARRAY:
+                h = combine(h, value.asArray().size());
+                for (BsonValue element : value.asArray()) {
+                    h = combine(h, hash(element));
+                }
+                return h;
+            case DOUBLE:
+                return combine(h, Double.doubleToLongBits(value.asDouble().getValue()));
+            case STRING:
+                return combine(h, hash(value.asString().getValue()));
+            case SYMBOL:
+                return combine(h, hash(value.asSymbol().getSymbol()));
+            case JAVASCRIPT:
+                return combine(h, hash(value.asJavaScript().getCode()));
+            case JAVASCRIPT_WITH_SCOPE:
+                return combine(combine(h, hash(value.asJavaScriptWithScope().getCode())), hash(value.asJavaScriptWithScope().getScope()));
+            case BINARY: {
+                BsonBinary binary = value.asBinary();
+                return combine(combine(h, binary.getType()), hash(binary.getData()));
+            }
+            case OBJECT_ID:
+                return combine(h, hash(value.asObjectId().getValue().toByteArray()));
+            case BOOLEAN:
+                return combine(h, value.asBoolean().getValue() ? 1 : 0);
+            case DATE_TIME:
+                return combine(h, value.asDateTime().getValue());
+            case REGULAR_EXPRESSION: {
+                BsonRegularExpression regex = value.asRegularExpression();
+                return combine(combine(h, hash(regex.getPattern())), hash(regex.getOptions()));
+            }
+            case DB_POINTER: {
+                BsonDbPointer pointer = value.asDBPointer();
+                return combine(combine(h, hash(pointer.getNamespace())), hash(pointer.getId().toByteArray()));
+            }
+            case INT32:
+                return combine(h, value.asInt32().getValue());
+            case TIMESTAMP:
+                return combine(h, value.asTimestamp().getValue());
+            case INT64:
+                return combine(h, value.asInt64().getValue());
+            case DECIMAL128: {
+                Decimal128 decimal = value.asDecimal128().getValue();
+                return combine(combine(h, decimal.getHigh()), decimal.getLow());
+            }
+            default:
+                // null, undefined, min and max keys carry no value besides their type
+                return mix(h);
+        }
+    }
+
+    /**
+     * Indicates whether a value has the given hash and, unless {@code size} is negative, the given size.
+     */
+    static boolean matches(BsonValue value, long hash, int size) {
+        return (size < 0 || size(value) == size) && hash(value) == hash;
+    }
+
+    /**
+     * Returns the number of fields or elements of a document or array, or -1 for other values.
+     */
+    static int size(BsonValue value) {
+        if (value.isDocument()) return value.asDocument().size();
+        if (value.isArray()) return value.asArray().size();
+        return -1;
+    }
+
+    private static long hash(String string) {
+        long h = string.length();
+        int i = 0;
+        for (; i + 4 <= string.length(); i += 4) {
+            h = combine(h, (long) string.charAt(i) << 48 | (long) string.charAt(i + 1) << 32
+                    | (long) string.charAt(i + 2) << 16 | string.charAt(i + 3));
+        }
+        long tail = 0;
+        for (; i < string.length(); i++) {
+            tail = tail << 16 | string.charAt(i);
+        }
+        return combine(h, tail);
+    }
+
+    private static long hash(byte[] bytes) {
+        long h = bytes.length;
+        int i = 0;
+        for (; i + 8 <= bytes.length; i += 8) {
+            long block = 0;
+            for (int j = 0; j < 8; j++) {
+                block = block << 8 | (bytes[i + j] & 0xFF);
+            }
+            h = combine(h, block);
+        }
+        long tail = 0;
+        for (; i < bytes.length; i++) {
+            tail = tail << 8 | (bytes[i] & 0xFF);
+        }
+        return combine(h, tail);
+    }
+
+    private static long combine(long h, long value) {
+        return mix(Long.rotateLeft(h, 27) * 0x9E3779B97F4A7C15L + value);
+    }
+
+    /** The finalizer of SplitMix64, spreading every input bit over the whole result. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
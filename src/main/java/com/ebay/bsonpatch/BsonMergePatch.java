@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+
+/**
+ * Generates and applies <a href="https://datatracker.ietf.org/doc/html/rfc7396">RFC 7396 JSON Merge Patches</a>.
+ * A merge patch mirrors the shape of the target: fields set to {@code null} are removed, documents are merged
+ * recursively and any other value, arrays included, replaces what was there. For changes to documents this is
+ * usually smaller and cheaper to apply than a JSON Patch, as there are no pointers to evaluate.
+ * <p>
+ * A merge patch can't set a field to {@code null}, nor add a document holding a {@code null} field, since the
+ * {@code null} would be read as a removal; {@link #diff(BsonValue, BsonValue)} rejects such changes and
+ * {@link #smaller(BsonValue, BsonValue)} falls back to a JSON Patch for them.
+ *
+ * @since 0.4.13
+ */
+public final class BsonMergePatch {
+
+    private BsonMergePatch() {}
+
+    public static BsonValue diff(final BsonValue source, final BsonValue target) throws IllegalArgumentException {
+        return diff(source, target, DiffFlags.defaults());
+    }
+
+    /**
+     * Computes the merge patch from {@code source} to {@code target}.
+     *
+     * @param source The source value, or {@code null} if there is none.
+     * @param target The target value.
+     * @param flags The diff flags; only {@link DiffFlags#DETACH_VALUES} applies to merge patches.
+     * @return The merge patch, a document unless {@code source} or {@code target} isn't one.
+     * @throws IllegalArgumentException {@code target} is {@code null}, or the change can't be expressed as a merge patch.
+     */
+    public static BsonValue diff(final BsonValue source, final BsonValue target, EnumSet<DiffFlags> flags) throws IllegalArgumentException {
+        if (target == null)
+            throw new IllegalArgumentException("Target can't be null");
+        return generate(PathNode.ROOT, source, target, flags.contains(DiffFlags.DETACH_VALUES));
+    }
+
+    public static BsonValue apply(BsonValue patch, BsonValue source) {
+        return apply(patch, source, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies a merge patch to a copy of {@code source}.
+     *
+     * @param patch The merge patch.
+     * @param source The value to patch, or {@code null} if there is none. It is left untouched.
+     * @param flags The compatibility flags; only {@link CompatibilityFlags#DISPOSABLE_PATCH_VALUES} applies to
+     *              merge patches, letting the result share the patch's values instead of copies of them.
+     * @return The patched value.
+     */
+    public static BsonValue apply(BsonValue patch, BsonValue source, EnumSet<CompatibilityFlags> flags) {
+        return merge(source == null ? null : CopyingApplyProcessor.deepCopy(source), patch, flags, MetricsHolder.enabled());
+    }
+
+    public static void applyInPlace(BsonValue patch, BsonValue source) throws BsonPatchApplicationException {
+        applyInPlace(patch, source, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies a merge patch to {@code source} itself.
+     *
+     * @param patch The merge patch.
+     * @param source The document to patch.
+     * @param flags The compatibility flags, as for {@link #apply(BsonValue, BsonValue, EnumSet)}.
+     * @throws BsonPatchApplicationException The patch would replace {@code source} as a whole, which
+     *         can't be done in place, because either of them isn't a document.
+     */
+    public static void applyInPlace(BsonValue patch, BsonValue source, EnumSet<CompatibilityFlags> flags) throws BsonPatchApplicationException {
+        if (!patch.isDocument() || !source.isDocument())
+            throw new BsonPatchApplicationException("Merge patch replaces the whole value", Operation.REPLACE, JsonPointer.ROOT);
+        merge(source, patch, flags, MetricsHolder.enabled());
+    }
+
+    public static BsonValue smaller(final BsonValue source, final BsonValue target) {
+        return smaller(source, target, DiffFlags.defaults());
+    }
+
+    /**
+     * Computes both a JSON Patch and a merge patch from {@code source} to {@code target} and returns the smaller
+     * of the two, telling them apart by type: a {@link BsonArray} is a JSON Patch to be applied with
+     * {@link BsonPatch}, a {@link BsonDocument} is a merge patch to be applied with this class. Merge patches are
+     * only considered when both values are documents.
+     *
+     * @param source The source value.
+     * @param target The target value.
+     * @param flags The diff flags, used for the JSON Patch.
+     * @return The smaller patch.
+     */
+    public static BsonValue smaller(final BsonValue source, final BsonValue target, EnumSet<DiffFlags> flags) {
+        BsonArray jsonPatch = BsonDiff.asBson(source, target, flags);
+        if (source == null || target == null || !source.isDocument() || !target.isDocument())
+            return jsonPatch;
+        BsonValue mergePatch;
+        try {
+            mergePatch = generate(PathNode.ROOT, source, target, flags.contains(DiffFlags.DETACH_VALUES));
+        } catch (IllegalArgumentException e) {
+            return jsonPatch;
+        }
+        return InternalUtils.estimateSize(mergePatch) < InternalUtils.estimateSize(jsonPatch) ? mergePatch : jsonPatch;
+    }
+
+    private static BsonValue generate(PathNode path, BsonValue source, BsonValue target, boolean detach) {
+        if (source == null || !source.isDocument() || !target.isDocument())
+            return replacement(path, target, detach);
+        BsonDocument sourceDocument = source.asDocument();
+        BsonDocument targetDocument = target.asDocument();
+        BsonDocument patch = new BsonDocument();
+        for (String key : sourceDocument.keySet()) {
+            if (!targetDocument.containsKey(key)) patch.put(key, BsonNull.VALUE);
+        }
+        for (Map.Entry<String, BsonValue> field : targetDocument.entrySet()) {
+            BsonValue from = sourceDocument.get(field.getKey());
+            BsonValue to = field.getValue();
+            if (from != null && BsonEquality.equal(from, to)) continue;
+            PathNode child = path.child(field.getKey());
+            if (to.isNull()) throw unrepresentable(child);
+            patch.put(field.getKey(), generate(child, from, to, detach));
+        }
+        return patch;
+    }
+
+    private static BsonValue replacement(PathNode path, BsonValue value, boolean detach) {
+        checkNoNullFields(path, value);
+        return detach ? CopyingApplyProcessor.deepCopy(value) : value;
+    }
+
+    // merging a document drops its null fields, so documents holding any can't be added through a merge patch
+    private static void checkNoNullFields(PathNode path, BsonValue value) {
+        if (!value.isDocument()) return;
+        for (Map.Entry<String, BsonValue> field : value.asDocument().entrySet()) {
+            PathNode child = path.child(field.getKey());
+            if (field.getValue().isNull()) throw unrepresentable(child);
+            checkNoNullFields(child, field.getValue());
+        }
+    }
+
+    private static IllegalArgumentException unrepresentable(PathNode path) {
+        return new IllegalArgumentException("Null at " + path + " can't be expressed in a merge patch");
+    }
+
+    private static BsonValue merge(BsonValue target, BsonValue patch, EnumSet<CompatibilityFlags> flags, BsonPatchMetrics metrics) {
+        if (!patch.isDocument()) return BsonPatch.ownedValue(patch, flags, metrics);
+        BsonDocument document = target != null && target.isDocument() ? target.asDocument() : new BsonDocument();
+        for (Map.Entry<String, BsonValue> field : patch.asDocument().entrySet()) {
+            if (field.getValue().isNull()) {
+                document.remove(field.getKey());
+            } else {
+                document.put(field.getKey(), merge(document.get(field.getKey()), field.getValue(), flags, metrics));
+            }
+        }
+        return document;
+    }
+}
@@ -21,12 +21,18 @@ package com.ebay.bsonpatch;
 
 import static com.ebay.bsonpatch.InPlaceApplyProcessor.cloneBsonValue;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.bson.BsonArray;
 import org.bson.BsonNull;
 import org.bson.BsonValue;
+import org.bson.Document;
 
 public final class BsonPatch {
 
@@ -47,74 +53,231 @@ public final class BsonPatch {
             return child;
     }
 
-    private static void process(BsonArray patch, BsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags)
-            throws InvalidBsonPatchException {
+    private static BsonValue getValue(BsonValue bsonNode, EnumSet<CompatibilityFlags> flags) {
+        if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
+            return getPatchAttr(bsonNode, Constants.VALUE);
+        else
+            return getPatchAttrWithDefault(bsonNode, Constants.VALUE, BsonNull.VALUE);
+    }
 
-        Iterator<BsonValue> operations = patch.iterator();
-        while (operations.hasNext()) {
-        	BsonValue bsonNode = operations.next();
-            if (!bsonNode.isDocument()) throw new InvalidBsonPatchException("Invalid BSON Patch payload (not an object)");
-            Operation operation = Operation.fromRfcName(getPatchAttr(bsonNode, Constants.OP).asString().getValue().replaceAll("\"", ""));
-            JsonPointer path = JsonPointer.parse(getPatchAttr(bsonNode, Constants.PATH).asString().getValue());
+    /**
+     * Returns the value to be stored in the target document. Values are cloned so that the
+     * patch and the target don't share mutable nodes, unless the caller has declared the patch
+     * values disposable, in which case they are moved into the target as-is.
+     */
+    static BsonValue ownedValue(BsonValue value, EnumSet<CompatibilityFlags> flags, BsonPatchMetrics metrics) {
+        if (flags.contains(CompatibilityFlags.DISPOSABLE_PATCH_VALUES))
+            return value;
+        if (metrics != null)
+            metrics.bytesCloned(InternalUtils.estimateSize(value));
+        return cloneBsonValue(value);
+    }
+
+    static void process(BsonArray patch, BsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+            BsonPatchMetrics metrics) throws InvalidBsonPatchException {
+        process(parseOperations(patch, flags), patch.size(), processor, flags, metrics);
+    }
+
+    static void process(Iterator<Diff> operations, int size, BsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+            BsonPatchMetrics metrics) throws InvalidBsonPatchException {
+        if (metrics == null) {
+            processOperations(operations, processor, flags, null);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            processOperations(operations, processor, flags, metrics);
+        } catch (BsonPatchApplicationException e) {
+            metrics.applyFailed(e.operation != null ? e.operation.rfcName() : null, e.getClass());
+            throw e;
+        }
+        metrics.applyCompleted(System.nanoTime() - start, size);
+    }
+
+    /** Returns an iterator parsing each operation of the patch as it is reached. */
+    private static Iterator<Diff> parseOperations(BsonArray patch, final EnumSet<CompatibilityFlags> flags) {
+        final Iterator<BsonValue> operations = patch.iterator();
+        return new Iterator<Diff>() {
+            @Override
+            public boolean hasNext() {
+                return operations.hasNext();
+            }
+
+            @Override
+            public Diff next() {
+                return parseOperation(operations.next(), flags);
+            }
+        };
+    }
+
+    /**
+     * Parses a single operation of a patch without applying it. For {@link Operation#MOVE} and
+     * {@link Operation#COPY} the path of the resulting {@link Diff} is the <i>from</i> path and its
+     * to-path the destination, as with diffs generated by {@link BsonDiff}.
+     */
+    static Diff parseOperation(BsonValue bsonNode, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        if (!bsonNode.isDocument()) throw new InvalidBsonPatchException("Invalid BSON Patch payload (not an object)");
+        Operation operation = Operation.fromRfcName(getPatchAttr(bsonNode, Constants.OP).asString().getValue().replaceAll("\"", ""));
+        JsonPointer path = JsonPointer.parse(getPatchAttr(bsonNode, Constants.PATH).asString().getValue());
+
+        switch (operation) {
+            case MOVE:
+            case COPY:
+                JsonPointer from = JsonPointer.parse(getPatchAttr(bsonNode, Constants.FROM).asString().getValue());
+                return checkWildcards(new Diff(operation, from, path), flags);
+            case REMOVE:
+                return new Diff(operation, path, (BsonValue) null);
+            case TEST:
+                if (bsonNode.asDocument().containsKey(Constants.HASH) && !bsonNode.asDocument().containsKey(Constants.VALUE))
+                    return parseHashedTest(bsonNode, path);
+                return new Diff(operation, path, getValue(bsonNode, flags));
+            default:
+                return checkWildcards(new Diff(operation, path, getValue(bsonNode, flags)), flags);
+        }
+    }
+
+    /**
+     * Rejects the operations a wildcard would make ambiguous, when wildcards are allowed: moves and copies,
+     * which can't take their value from or put it into several places, and additions at a wildcard, which
+     * would insert at every index.
+     */
+    static Diff checkWildcards(Diff diff, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        if (!flags.contains(CompatibilityFlags.ALLOW_WILDCARD_PATHS))
+            return diff;
+        JsonPointer path = diff.getPath();
+        switch (diff.getOperation()) {
+            case MOVE:
+            case COPY:
+                if (path.indexOfWildcard() >= 0 || diff.getToPath().indexOfWildcard() >= 0)
+                    throw new InvalidBsonPatchException("Invalid BSON Patch payload (wildcard in " + diff.getOperation().rfcName() + " path)");
+                break;
+            case ADD:
+                if (!path.isRoot() && JsonPointer.WILDCARD.equals(path.last().getField()))
+                    throw new InvalidBsonPatchException("Invalid BSON Patch payload (add path ending with a wildcard)");
+                break;
+            default:
+                break;
+        }
+        return diff;
+    }
+
+    /** Indicates whether an operation applies to every element matched by the wildcards in its path. */
+    static boolean isWildcard(Diff diff, EnumSet<CompatibilityFlags> flags) {
+        return flags.contains(CompatibilityFlags.ALLOW_WILDCARD_PATHS) && diff.getPath().indexOfWildcard() >= 0;
+    }
+
+    /**
+     * Resolves the wildcards of a path against the document of {@code processor}, returning the concrete paths
+     * in document order. Only the tokens up to the last wildcard are resolved, those after it are left to the
+     * operation.
+     */
+    static List<JsonPointer> expandWildcards(JsonPointer path, BsonPatchProcessor processor) throws JsonPointerEvaluationException {
+        List<JsonPointer> paths = Collections.singletonList(JsonPointer.ROOT);
+        int last = path.lastIndexOfWildcard();
+        for (int i = 0; i <= last; i++) {
+            String field = path.get(i).getField();
+            List<JsonPointer> next = new ArrayList<JsonPointer>();
+            for (JsonPointer prefix : paths) {
+                if (JsonPointer.WILDCARD.equals(field)) {
+                    int size = processor.arraySize(prefix);
+                    for (int index = 0; index < size; index++) next.add(prefix.append(index));
+                } else {
+                    next.add(prefix.append(field));
+                }
+            }
+            paths = next;
+        }
+        if (last == path.size() - 1) return paths;
+        List<JsonPointer> result = new ArrayList<JsonPointer>(paths.size());
+        for (JsonPointer prefix : paths) {
+            JsonPointer concrete = prefix;
+            for (int i = last + 1; i < path.size(); i++) concrete = concrete.append(path.get(i).getField());
+            result.add(concrete);
+        }
+        return result;
+    }
 
+    private static Diff parseHashedTest(BsonValue bsonNode, JsonPointer path) throws InvalidBsonPatchException {
+        BsonValue hash = getPatchAttr(bsonNode, Constants.HASH);
+        BsonValue size = getPatchAttrWithDefault(bsonNode, Constants.SIZE, null);
+        if (!hash.isInt64() || size != null && (!size.isInt32() || size.asInt32().getValue() < 0))
+            throw new InvalidBsonPatchException("Invalid BSON Patch payload (hash must be a long and size a non-negative int)");
+        return Diff.hashedTest(path, hash.asInt64().getValue(), size != null ? size.asInt32().getValue() : -1);
+    }
+
+    private static void processOperations(Iterator<Diff> operations, BsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+            BsonPatchMetrics metrics) throws InvalidBsonPatchException {
+
+        while (operations.hasNext()) {
+            Diff diff = operations.next();
             try {
-	            switch (operation) {
-		            case REMOVE: {
-		                processor.remove(path);
-		                break;
-		            }
-		
-		            case ADD: {
-		            	BsonValue value;
-		                if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-		                    value = getPatchAttr(bsonNode, Constants.VALUE);
-		                else
-		                    value = getPatchAttrWithDefault(bsonNode, Constants.VALUE, BsonNull.VALUE);
-		                processor.add(path, cloneBsonValue(value));
-		                break;
-		            }
-		
-		            case REPLACE: {
-		            	BsonValue value;
-		                if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-		                    value = getPatchAttr(bsonNode, Constants.VALUE);
-		                else
-		                    value = getPatchAttrWithDefault(bsonNode, Constants.VALUE, BsonNull.VALUE);
-		                processor.replace(path, cloneBsonValue(value));
-		                break;
-		            }
-		
-		            case MOVE: {
-		                JsonPointer fromPath = JsonPointer.parse(getPatchAttr(bsonNode, Constants.FROM).asString().getValue());
-		                processor.move(fromPath, path);
-		                break;
-		            }
-		
-		            case COPY: {
-		                JsonPointer fromPath = JsonPointer.parse(getPatchAttr(bsonNode, Constants.FROM).asString().getValue());
-		                processor.copy(fromPath, path);
-		                break;
-		            }
-		
-		            case TEST: {
-		            	BsonValue value;
-		                if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-		                    value = getPatchAttr(bsonNode, Constants.VALUE);
-		                else
-		                    value = getPatchAttrWithDefault(bsonNode, Constants.VALUE, BsonNull.VALUE);
-		                processor.test(path, cloneBsonValue(value));
-		                break;
-		            }
-	            }
+                processOperation(diff, processor, flags, metrics);
             }
             catch (JsonPointerEvaluationException e) {
-                throw new BsonPatchApplicationException(e.getMessage(), operation, e.getPath());
+                throw new BsonPatchApplicationException(e.getMessage(), diff.getOperation(), e.getPath());
             }
          }
     }
 
+    private static void processOperation(Diff diff, BsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+            BsonPatchMetrics metrics) throws JsonPointerEvaluationException {
+        if (isWildcard(diff, flags)) {
+            List<JsonPointer> paths = expandWildcards(diff.getPath(), processor);
+            // a disposable value can only be moved into one place, the others get copies
+            EnumSet<CompatibilityFlags> copying = EnumSet.copyOf(flags);
+            copying.remove(CompatibilityFlags.DISPOSABLE_PATCH_VALUES);
+            for (int i = 0; i < paths.size(); i++) {
+                // removing from the back leaves the indexes of the elements still to remove unchanged
+                JsonPointer path = paths.get(diff.getOperation() == Operation.REMOVE ? paths.size() - 1 - i : i);
+                applyOperation(diff, path, processor, i == 0 ? flags : copying, metrics);
+            }
+        } else {
+            applyOperation(diff, diff.getPath(), processor, flags, metrics);
+        }
+        if (metrics != null) metrics.operationApplied(diff.getOperation().rfcName());
+    }
+
+    private static void applyOperation(Diff diff, JsonPointer path, BsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+            BsonPatchMetrics metrics) throws JsonPointerEvaluationException {
+        switch (diff.getOperation()) {
+            case REMOVE: {
+                processor.remove(path);
+                break;
+            }
+
+            case ADD: {
+                processor.add(path, ownedValue(diff.getValue(), flags, metrics));
+                break;
+            }
+
+            case REPLACE: {
+                processor.replace(path, ownedValue(diff.getValue(), flags, metrics));
+                break;
+            }
+
+            case MOVE: {
+                processor.move(diff.getPath(), diff.getToPath());
+                break;
+            }
+
+            case COPY: {
+                processor.copy(diff.getPath(), diff.getToPath());
+                break;
+            }
+
+            case TEST: {
+                // the expected value is only compared, never stored, so it is not cloned
+                if (diff.isHashedTest())
+                    processor.testHash(path, diff.getHash(), diff.getSize());
+                else
+                    processor.test(path, diff.getValue());
+                break;
+            }
+        }
+    }
+
     public static void validate(BsonArray patch, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
-        process(patch, NoopProcessor.INSTANCE, flags);
+        process(patch, NoopProcessor.INSTANCE, flags, null);
     }
 
     public static void validate(BsonArray patch) throws InvalidBsonPatchException {
@@ -122,8 +285,11 @@ public final class BsonPatch {
     }
 
     public static BsonValue apply(BsonArray patch, BsonValue source, EnumSet<CompatibilityFlags> flags) throws BsonPatchApplicationException {
+        BsonPatchMetrics metrics = MetricsHolder.enabled();
+        if (metrics != null) metrics.bytesCloned(InternalUtils.estimateSize(source));
         CopyingApplyProcessor processor = new CopyingApplyProcessor(source, flags);
-        process(patch, processor, flags);
+        processor.setMetrics(metrics);
+        process(patch, processor, flags, metrics);
         return processor.result();
     }
 
@@ -136,8 +302,326 @@ public final class BsonPatch {
     }
 
     public static void applyInPlace(BsonArray patch, BsonValue source, EnumSet<CompatibilityFlags> flags) {
+        BsonPatchMetrics metrics = MetricsHolder.enabled();
         InPlaceApplyProcessor processor = new InPlaceApplyProcessor(source, flags);
-        process(patch, processor, flags);
+        processor.setMetrics(metrics);
+        process(patch, processor, flags, metrics);
+    }
+
+    public static BsonPatchResult tryApply(BsonArray patch, BsonValue source) throws InvalidBsonPatchException {
+        return tryApply(patch, source, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies a patch like {@link #apply(BsonArray, BsonValue, EnumSet)}, but reports a failing operation
+     * through the returned result instead of an exception. {@link Operation#TEST test} operations are checked
+     * without throwing or copying anything, and those preceding the first modification are checked against
+     * {@code source} itself, so that a patch rejected by a test costs no more than the tests it ran. Other
+     * operations that can't be applied fail without building an exception or its stack trace.
+     *
+     * @return The patched copy of {@code source}, or the operation that couldn't be applied.
+     * @throws InvalidBsonPatchException The patch is malformed.
+     * @since 0.4.13
+     */
+    public static BsonPatchResult tryApply(BsonArray patch, BsonValue source, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        return tryProcess(patch, source, false, flags);
+    }
+
+    public static BsonPatchResult tryApplyInPlace(BsonArray patch, BsonValue source) throws InvalidBsonPatchException {
+        return tryApplyInPlace(patch, source, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies a patch like {@link #applyInPlace(BsonArray, BsonValue, EnumSet)}, but reports a failing operation
+     * through the returned result instead of an exception. As with {@code applyInPlace}, the operations preceding
+     * the failing one remain applied to {@code source}.
+     *
+     * @return The patched {@code source}, or the operation that couldn't be applied.
+     * @throws InvalidBsonPatchException The patch is malformed.
+     * @since 0.4.13
+     */
+    public static BsonPatchResult tryApplyInPlace(BsonArray patch, BsonValue source, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        return tryProcess(patch, source, true, flags);
+    }
+
+    private static BsonPatchResult tryProcess(BsonArray patch, BsonValue source, boolean inPlace, EnumSet<CompatibilityFlags> flags) {
+        BsonPatchMetrics metrics = MetricsHolder.enabled();
+        long start = metrics != null ? System.nanoTime() : 0;
+        InPlaceApplyProcessor processor = null;
+        for (int index = 0; index < patch.size(); index++) {
+            Diff diff = parseOperation(patch.get(index), flags);
+            if (diff.getOperation() == Operation.TEST) {
+                BsonValue document = processor != null ? processor.result() : source;
+                List<JsonPointer> paths = Collections.singletonList(diff.getPath());
+                if (isWildcard(diff, flags)) {
+                    // only reads the document
+                    InPlaceApplyProcessor reader = new InPlaceApplyProcessor(document, flags);
+                    reader.setQuiet(true);
+                    try {
+                        paths = expandWildcards(diff.getPath(), reader);
+                    } catch (ApplyFailure e) {
+                        if (metrics != null) metrics.applyFailed(Operation.TEST.rfcName(), BsonPatchApplicationException.class);
+                        return BsonPatchResult.failed(index, diff, e.getReason());
+                    } catch (JsonPointerEvaluationException e) {
+                        if (metrics != null) metrics.applyFailed(Operation.TEST.rfcName(), BsonPatchApplicationException.class);
+                        return BsonPatchResult.failed(index, diff, BsonPatchResult.Reason.PATH_NOT_FOUND);
+                    }
+                }
+                for (JsonPointer path : paths) {
+                    BsonValue actual = path.find(document);
+                    boolean passed = actual != null && (diff.isHashedTest()
+                            ? BsonHash.matches(actual, diff.getHash(), diff.getSize())
+                            : BsonEquality.equal(actual, diff.getValue()));
+                    if (!passed) {
+                        if (metrics != null) metrics.applyFailed(Operation.TEST.rfcName(), BsonPatchApplicationException.class);
+                        return BsonPatchResult.failed(index, diff, actual == null ? BsonPatchResult.Reason.PATH_NOT_FOUND : BsonPatchResult.Reason.TEST_FAILED);
+                    }
+                }
+                if (metrics != null) metrics.operationApplied(Operation.TEST.rfcName());
+                continue;
+            }
+            if (processor == null) {
+                if (metrics != null && !inPlace) metrics.bytesCloned(InternalUtils.estimateSize(source));
+                processor = inPlace ? new InPlaceApplyProcessor(source, flags) : new CopyingApplyProcessor(source, flags);
+                processor.setMetrics(metrics);
+                processor.setQuiet(true);
+            }
+            try {
+                processOperation(diff, processor, flags, metrics);
+            } catch (ApplyFailure e) {
+                if (metrics != null) metrics.applyFailed(diff.getOperation().rfcName(), BsonPatchApplicationException.class);
+                return BsonPatchResult.failed(index, diff, e.getReason());
+            } catch (JsonPointerEvaluationException e) {
+                if (metrics != null) metrics.applyFailed(diff.getOperation().rfcName(), BsonPatchApplicationException.class);
+                return BsonPatchResult.failed(index, diff, BsonPatchResult.Reason.PATH_NOT_FOUND);
+            } catch (BsonPatchApplicationException e) {
+                if (metrics != null) metrics.applyFailed(diff.getOperation().rfcName(), e.getClass());
+                return BsonPatchResult.failed(index, diff, BsonPatchResult.Reason.NOT_APPLICABLE);
+            }
+        }
+        if (metrics != null) metrics.applyCompleted(System.nanoTime() - start, patch.size());
+        if (processor != null) return BsonPatchResult.succeeded(processor.result());
+        return BsonPatchResult.succeeded(inPlace ? source : CopyingApplyProcessor.deepCopy(source));
+    }
+
+    public static BsonArray rebase(BsonArray patch, BsonArray onto, BsonValue base) throws BsonPatchApplicationException {
+        return rebase(patch, onto, base, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Transforms a patch so that it can be applied after another patch, both having been written against the
+     * same base document. Array indexes are adjusted for the elements the other patch inserts and removes,
+     * and changes the other patch already made are dropped.
+     *
+     * @param patch The patch to transform.
+     * @param onto The patch applied first.
+     * @param base The document both patches were written against, used to tell array elements from fields.
+     * @param flags The flags both patches are applied with.
+     * @return The transformed patch, to be applied to the result of applying {@code onto} to {@code base}.
+     * @throws BsonPatchConflictException An operation of {@code patch} reads or writes a value {@code onto}
+     *      modifies or removes.
+     * @throws BsonPatchApplicationException One of the patches can't be applied to {@code base}.
+     * @since 0.4.13
+     */
+    public static BsonArray rebase(BsonArray patch, BsonArray onto, BsonValue base, EnumSet<CompatibilityFlags> flags) throws BsonPatchApplicationException {
+        return PatchRebaser.rebase(patch, onto, base, flags);
+    }
+
+    public static BsonValue merge(BsonValue base, BsonArray patchA, BsonArray patchB) throws BsonPatchApplicationException {
+        return merge(base, patchA, patchB, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Combines two patches written concurrently against the same document, as if {@code patchA} had been
+     * applied first and {@code patchB} rebased onto it.
+     *
+     * @return The document with both patches applied; {@code base} is not modified.
+     * @throws BsonPatchConflictException The patches modify overlapping values.
+     * @throws BsonPatchApplicationException One of the patches can't be applied to {@code base}.
+     * @since 0.4.13
+     */
+    public static BsonValue merge(BsonValue base, BsonArray patchA, BsonArray patchB, EnumSet<CompatibilityFlags> flags) throws BsonPatchApplicationException {
+        BsonArray rebased = rebase(patchB, patchA, base, flags);
+        BsonValue result = apply(patchA, base, flags);
+        applyInPlace(rebased, result, flags);
+        return result;
+    }
+
+    public static BsonArray optimize(BsonArray patch) throws InvalidBsonPatchException {
+        return optimize(patch, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Removes redundant operations from a patch: writes that a later operation overwrites or removes before
+     * anything reads them, such as repeated replaces of a path, an add followed by a remove of the same field
+     * or a replace under a path later replaced as a whole, and tests implied by an earlier test or write.
+     *
+     * <p>The optimized patch produces the same result as the original whenever the original applies
+     * successfully, but may succeed on documents the original fails on.
+     *
+     * @param patch The patch to optimize; it is not modified.
+     * @param flags The flags the patch is applied with.
+     * @return A patch holding the remaining operations, in order.
+     * @throws InvalidBsonPatchException The patch is malformed.
+     * @since 0.4.13
+     */
+    public static BsonArray optimize(BsonArray patch, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        return PatchOptimizer.optimize(patch, flags);
+    }
+
+    /**
+     * Indicates whether two patches touch disjoint parts of a document, so that applying them in either order,
+     * or concurrently to separate copies of the containers they modify, gives the same result.
+     * The analysis only looks at the patches' paths; operations inserting or removing array elements are
+     * considered to modify the whole array, as they shift the indexes of the following elements.
+     *
+     * @throws InvalidBsonPatchException One of the patches is malformed.
+     * @since 0.4.13
+     */
+    public static boolean independent(BsonArray patchA, BsonArray patchB) throws InvalidBsonPatchException {
+        return independent(patchA, patchB, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Indicates whether two patches applied with the given flags are {@link #independent(BsonArray, BsonArray)
+     * independent}. With {@link CompatibilityFlags#ALLOW_WILDCARD_PATHS}, a wildcard overlaps every element of
+     * its array.
+     *
+     * @throws InvalidBsonPatchException One of the patches is malformed.
+     * @since 0.4.13
+     */
+    public static boolean independent(BsonArray patchA, BsonArray patchB, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        return !PatchFootprint.of(patchA, flags).overlaps(PatchFootprint.of(patchB, flags));
+    }
+
+    /**
+     * Groups a sequence of patches into batches of {@link #independent(BsonArray, BsonArray) independent}
+     * patches. Applying the batches in order, and the patches of each batch in any order, gives the same
+     * result as applying the patches in sequence.
+     *
+     * @param patches The patches, in the order they would be applied.
+     * @return The indexes of the patches in each batch, in order.
+     * @throws InvalidBsonPatchException One of the patches is malformed.
+     * @since 0.4.13
+     */
+    public static List<List<Integer>> independentBatches(List<BsonArray> patches) throws InvalidBsonPatchException {
+        return independentBatches(patches, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Groups a sequence of patches applied with the given flags into batches, as
+     * {@link #independentBatches(List)} does.
+     *
+     * @throws InvalidBsonPatchException One of the patches is malformed.
+     * @since 0.4.13
+     */
+    public static List<List<Integer>> independentBatches(List<BsonArray> patches, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        FootprintTrie trie = new FootprintTrie();
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        for (int i = 0; i < patches.size(); i++) {
+            int batch = trie.add(PatchFootprint.of(patches.get(i), flags));
+            if (batch == batches.size())
+                batches.add(new ArrayList<Integer>());
+            batches.get(batch).add(i);
+        }
+        return batches;
+    }
+
+    public static List<String> footprint(BsonArray patch) throws InvalidBsonPatchException {
+        return footprint(patch, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Returns the subtrees of a document a patch reads or writes, including the sources of move and copy
+     * operations and the values it tests, as RFC 6901 pointers none of which points below another.
+     * Applying the patch to a partial document holding just these subtrees, with their ancestors, gives the
+     * same result within them as applying it to the whole document; see
+     * {@link #applyToProjection(BsonArray, BsonValue, EnumSet)}.
+     * <p>
+     * As with {@link #independent(BsonArray, BsonArray)}, operations inserting or removing array elements
+     * touch the whole array, and a pointer to the root means the whole document is needed.
+     *
+     * @throws InvalidBsonPatchException The patch is malformed.
+     * @since 0.4.13
+     */
+    public static List<String> footprint(BsonArray patch, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        List<String> footprint = new ArrayList<String>();
+        for (JsonPointer path : PatchFootprint.of(patch, flags).getTouched()) {
+            footprint.add(path.toString());
+        }
+        return footprint;
+    }
+
+    public static Map<String, BsonValue> applyToProjection(BsonArray patch, BsonValue projection) throws BsonPatchApplicationException {
+        return applyToProjection(patch, projection, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies a patch in place to a partial document holding at least the patch's {@link #footprint(BsonArray)},
+     * such as one fetched with {@link MongoUpdate#projection(BsonArray)}, and returns the subtrees it wrote so
+     * that only those need to be written back.
+     *
+     * @param projection The partial document; the parts of the footprint missing from it are assumed to be
+     *                   missing from the whole document as well.
+     * @return The subtrees written by the patch, keyed by their RFC 6901 pointer, ordered by pointer, and
+     *         mapped to {@code null} where the patch removed them.
+     * @throws BsonPatchApplicationException An operation couldn't be applied; the operations preceding it remain
+     *                                       applied to {@code projection}.
+     * @since 0.4.13
+     */
+    public static Map<String, BsonValue> applyToProjection(BsonArray patch, BsonValue projection, EnumSet<CompatibilityFlags> flags) throws BsonPatchApplicationException {
+        List<JsonPointer> writes = PatchFootprint.of(patch, flags).getWrittenSubtrees();
+        applyInPlace(patch, projection, flags);
+        Map<String, BsonValue> written = new LinkedHashMap<String, BsonValue>();
+        for (JsonPointer path : writes) {
+            written.put(path.toString(), path.find(projection));
+        }
+        return written;
+    }
+
+    public static void applyInPlace(BsonArray patch, Document document) {
+        applyInPlace(patch, document, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies a patch directly to a driver {@link Document}, without converting it to a {@link org.bson.BsonDocument}.
+     * Nested documents may be any {@link Map} and arrays any {@link java.util.List}; patch values are inserted as
+     * the types the driver's default codecs decode them to.
+     *
+     * @since 0.4.13
+     */
+    public static void applyInPlace(BsonArray patch, Document document, EnumSet<CompatibilityFlags> flags) {
+        Object result = applyInPlace(patch, (Object) document, DocumentTreeAdapter.INSTANCE, flags);
+        if (result != document) {
+            // the patch replaced the root, whose content has to be moved into the caller's instance
+            if (!(result instanceof Map))
+                throw new BsonPatchApplicationException("Cannot replace document root with a non-document value", null, JsonPointer.ROOT);
+            document.clear();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) result).entrySet())
+                document.put((String) entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Applies a patch in place to a tree accessed through an adapter.
+     *
+     * @param patch The patch to apply.
+     * @param target The root of the tree to patch.
+     * @param adapter The adapter giving access to the tree.
+     * @param flags The flags controlling patch application.
+     * @return The root of the patched tree, which differs from {@code target} only if the patch replaced the root.
+     * @throws BsonPatchApplicationException The patch can't be applied to the target.
+     * @since 0.4.13
+     */
+    public static <N> N applyInPlace(BsonArray patch, N target, TreeAdapter<N> adapter, EnumSet<CompatibilityFlags> flags) {
+        // values are converted into the tree model by the adapter, which never shares them with the patch
+        EnumSet<CompatibilityFlags> owned = EnumSet.copyOf(flags);
+        owned.add(CompatibilityFlags.DISPOSABLE_PATCH_VALUES);
+        BsonPatchMetrics metrics = MetricsHolder.enabled();
+        TreeApplyProcessor<N> processor = new TreeApplyProcessor<N>(target, adapter, owned);
+        processor.setMetrics(metrics);
+        process(patch, processor, owned, metrics);
+        return processor.result();
     }
 
 }
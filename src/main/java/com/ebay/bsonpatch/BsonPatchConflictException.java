@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+/**
+ * Thrown when two patches written against the same document can't be combined, because an operation of one
+ * reads or writes a value the other one modifies.
+ *
+ * @since 0.4.13
+ */
+public class BsonPatchConflictException extends BsonPatchApplicationException {
+    private static final long serialVersionUID = -2604165129731486521L;
+
+    public BsonPatchConflictException(String message, Operation operation, JsonPointer path) {
+        super(message, operation, path);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+/**
+ * Receives measurements from {@link BsonDiff} and {@link BsonPatch}. Implementations are meant to
+ * forward them to a metrics library such as Micrometer or to JMX; every callback has an empty default
+ * so that adapters only implement what they need.
+ *
+ * <p>A single instance is installed process-wide with {@link #install(BsonPatchMetrics)}. Until one is
+ * installed, {@link #NOOP} is used and no measurements are taken at all: no clocks are read and no
+ * sizes are estimated. Callbacks are invoked synchronously on the calling thread, so implementations
+ * must be thread safe and cheap.
+ *
+ * <p>Operations are reported by their RFC 6902 name ({@code "add"}, {@code "remove"}, ...).
+ *
+ * @since 0.4.13
+ */
+public interface BsonPatchMetrics {
+
+    /** Metrics that discard all measurements. */
+    BsonPatchMetrics NOOP = new BsonPatchMetrics() {};
+
+    /**
+     * Installs the metrics receiving all subsequent measurements.
+     *
+     * @param metrics The metrics, or {@code null} to disable measurements.
+     */
+    static void install(BsonPatchMetrics metrics) {
+        MetricsHolder.installed = metrics != null ? metrics : NOOP;
+    }
+
+    /**
+     * Returns the currently installed metrics, {@link #NOOP} if none.
+     */
+    static BsonPatchMetrics installed() {
+        return MetricsHolder.installed;
+    }
+
+    /**
+     * Called once a diff has been computed.
+     *
+     * @param durationNanos The time taken to compute the patch, in nanoseconds.
+     * @param operationCount The number of operations in the patch.
+     */
+    default void diffCompleted(long durationNanos, int operationCount) {}
+
+    /**
+     * Called for every operation of a computed patch.
+     *
+     * @param operation The name of the operation.
+     */
+    default void diffOperationEmitted(String operation) {}
+
+    /**
+     * Called once per diff with the number of source/target node pairs that were compared.
+     *
+     * @param count The number of visited node pairs.
+     */
+    default void diffNodesVisited(long count) {}
+
+    /**
+     * Called whenever the longest common subsequence of two arrays is computed.
+     *
+     * @param sourceSize The size of the source array.
+     * @param targetSize The size of the target array.
+     */
+    default void lcsComputed(int sourceSize, int targetSize) {}
+
+    /**
+     * Called once the pass merging removals and additions into moves has completed.
+     *
+     * @param durationNanos The duration of the pass, in nanoseconds.
+     */
+    default void movePassCompleted(long durationNanos) {}
+
+    /**
+     * Called once the pass turning additions into copies has completed.
+     *
+     * @param durationNanos The duration of the pass, in nanoseconds.
+     */
+    default void copyPassCompleted(long durationNanos) {}
+
+    /**
+     * Called once a patch has been applied successfully.
+     *
+     * @param durationNanos The time taken to apply the operations of the patch, in nanoseconds.
+     * @param operationCount The number of operations applied.
+     */
+    default void applyCompleted(long durationNanos, int operationCount) {}
+
+    /**
+     * Called for every operation applied.
+     *
+     * @param operation The name of the operation.
+     */
+    default void operationApplied(String operation) {}
+
+    /**
+     * Called whenever values are deep-copied while applying a patch.
+     *
+     * @param bytes The estimated BSON size of the copied values.
+     */
+    default void bytesCloned(long bytes) {}
+
+    /**
+     * Called when applying a patch fails.
+     *
+     * @param operation The name of the failing operation, or {@code null} if it couldn't be determined.
+     * @param failure The type of the exception thrown.
+     */
+    default void applyFailed(String operation, Class<? extends BsonPatchApplicationException> failure) {}
+}
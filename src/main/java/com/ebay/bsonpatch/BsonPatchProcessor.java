@@ -28,4 +28,7 @@ interface BsonPatchProcessor {
     void move(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException;
     void copy(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException;
     void test(JsonPointer path, BsonValue value) throws JsonPointerEvaluationException;
+    void testHash(JsonPointer path, long hash, int size) throws JsonPointerEvaluationException;
+    /** Returns the number of elements of the array at {@code path}, over which a wildcard following it ranges. */
+    int arraySize(JsonPointer path) throws JsonPointerEvaluationException;
 }
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import org.bson.BsonArray;
+import org.bson.BsonValue;
+
+/**
+ * The outcome of {@link BsonPatch#tryApply(BsonArray, BsonValue)}: either the patched document, or the operation
+ * that couldn't be applied and why. Failures are reported with their position in the patch rather than a
+ * message, so that building them is as cheap as succeeding.
+ *
+ * @since 0.4.13
+ */
+public final class BsonPatchResult {
+
+    /** Why an operation couldn't be applied. */
+    public enum Reason {
+        /** A {@code test} operation found a value different from the expected one. */
+        TEST_FAILED,
+        /** The path of the operation, or its {@code from} path, doesn't reference a value, or its parent doesn't exist. */
+        PATH_NOT_FOUND,
+        /**
+         * The operation can't be carried out at its path, e.g. an array index past the end of the array,
+         * a missing field to replace or the removal of the root.
+         */
+        NOT_APPLICABLE
+    }
+
+    private final BsonValue result;
+    private final int operationIndex;
+    private final Diff failed;
+    private final Reason reason;
+
+    private BsonPatchResult(BsonValue result, int operationIndex, Diff failed, Reason reason) {
+        this.result = result;
+        this.operationIndex = operationIndex;
+        this.failed = failed;
+        this.reason = reason;
+    }
+
+    static BsonPatchResult succeeded(BsonValue result) {
+        return new BsonPatchResult(result, -1, null, null);
+    }
+
+    static BsonPatchResult failed(int operationIndex, Diff failed, Reason reason) {
+        return new BsonPatchResult(null, operationIndex, failed, reason);
+    }
+
+    public boolean isSuccess() {
+        return failed == null;
+    }
+
+    /**
+     * @return The patched document, or {@code null} if the patch failed.
+     */
+    public BsonValue getResult() {
+        return result;
+    }
+
+    /**
+     * @return The index within the patch of the operation that failed, or -1 if the patch succeeded.
+     */
+    public int getOperationIndex() {
+        return operationIndex;
+    }
+
+    /**
+     * @return The name of the operation that failed, e.g. {@code "test"}, or {@code null} if the patch succeeded.
+     */
+    public String getOperation() {
+        return failed != null ? failed.getOperation().rfcName() : null;
+    }
+
+    /**
+     * @return The path of the operation that failed (its {@code from} path for {@code move} and {@code copy}),
+     *      or {@code null} if the patch succeeded.
+     */
+    public String getPath() {
+        return failed != null ? failed.getPath().toString() : null;
+    }
+
+    /**
+     * @return Why the operation failed, or {@code null} if the patch succeeded.
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        if (isSuccess()) return "BsonPatchResult{success}";
+        return "BsonPatchResult{" + reason + " at operation " + operationIndex + " (" + getOperation() + " " + getPath() + ")}";
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+/**
+ * Lazily enumerates the paths at which two values differ, walking both trees depth first and only as far as
+ * needed to find the next difference.
+ *
+ * <p>Documents are compared field by field; a field missing on either side is reported at its own path. Arrays
+ * of the same length are compared element by element, while arrays whose length changed, values of different
+ * types and differing scalars are reported as a whole. Ignored and atomic paths and the depth limit of the
+ * {@link DiffOptions} are honored.
+ */
+final class ChangedPaths implements Iterator<String> {
+
+    private abstract static class Frame {
+        final PathNode path;
+
+        Frame(PathNode path) {
+            this.path = path;
+        }
+
+        abstract boolean hasMore();
+
+        /** Advances to the next pair of children, returning its path if it differs or null otherwise. */
+        abstract String step(ChangedPaths owner);
+    }
+
+    private static final class DocumentFrame extends Frame {
+        final BsonDocument source;
+        final BsonDocument target;
+        final Iterator<Map.Entry<String, BsonValue>> sourceFields;
+        final Iterator<String> targetFields;
+
+        DocumentFrame(PathNode path, BsonDocument source, BsonDocument target) {
+            super(path);
+            this.source = source;
+            this.target = target;
+            this.sourceFields = source.entrySet().iterator();
+            this.targetFields = target.keySet().iterator();
+        }
+
+        @Override
+        boolean hasMore() {
+            return sourceFields.hasNext() || targetFields.hasNext();
+        }
+
+        @Override
+        String step(ChangedPaths owner) {
+            if (sourceFields.hasNext()) {
+                Map.Entry<String, BsonValue> field = sourceFields.next();
+                BsonValue targetValue = target.get(field.getKey());
+                if (targetValue == null)
+                    return owner.missing(path.child(field.getKey()));
+                return owner.visit(path.child(field.getKey()), field.getValue(), targetValue);
+            }
+            String key = targetFields.next();
+            return source.containsKey(key) ? null : owner.missing(path.child(key));
+        }
+    }
+
+    private static final class ArrayFrame extends Frame {
+        final BsonArray source;
+        final BsonArray target;
+        int index;
+
+        ArrayFrame(PathNode path, BsonArray source, BsonArray target) {
+            super(path);
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        boolean hasMore() {
+            return index < source.size();
+        }
+
+        @Override
+        String step(ChangedPaths owner) {
+            int i = index++;
+            return owner.visit(path.child(i), source.get(i), target.get(i));
+        }
+    }
+
+    private final DiffOptions options;
+    private final Deque<Frame> stack = new ArrayDeque<Frame>();
+    private BsonValue source;
+    private BsonValue target;
+    private boolean started;
+    private String next;
+
+    ChangedPaths(BsonValue source, BsonValue target, DiffOptions options) {
+        this.options = options;
+        this.source = source;
+        this.target = target;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) next = advance();
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        String result = next;
+        next = null;
+        return result;
+    }
+
+    private String advance() {
+        if (!started) {
+            started = true;
+            String root;
+            if (source == null || target == null)
+                root = source == target ? null : JsonPointer.ROOT.toString();
+            else
+                root = visit(PathNode.ROOT, source, target);
+            source = null;
+            target = null;
+            if (root != null) return root;
+        }
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (!frame.hasMore()) {
+                stack.pop();
+                continue;
+            }
+            String path = frame.step(this);
+            if (path != null) return path;
+        }
+        return null;
+    }
+
+    /** Compares two values found at the same path, descending into them later if both are containers. */
+    private String visit(PathNode path, BsonValue source, BsonValue target) {
+        if (source == target || options.isIgnored(path)) return null;
+        if (!options.isAtomic(path)) {
+            if (source.isDocument() && target.isDocument()) {
+                stack.push(new DocumentFrame(path, source.asDocument(), target.asDocument()));
+                return null;
+            }
+            if (source.isArray() && target.isArray() && source.asArray().size() == target.asArray().size()) {
+                stack.push(new ArrayFrame(path, source.asArray(), target.asArray()));
+                return null;
+            }
+        }
+        return BsonEquality.equal(source, target) ? null : path.toString();
+    }
+
+    /** Reports a field present on one side only. */
+    private String missing(PathNode path) {
+        return options.isIgnored(path) ? null : path.toString();
+    }
+}
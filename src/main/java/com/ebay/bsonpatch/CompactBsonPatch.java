@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.bson.BSONException;
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * A compact binary encoding of JSON patches, for storing or transmitting patches where the RFC 6902 form
+ * spends most of its bytes on repeated operation names, field names and path prefixes.
+ *
+ * <pre>
+ *      byte[] compact = CompactBsonPatch.encode(BsonDiff.asBson(source, target));
+ *      BsonValue patched = CompactBsonPatch.apply(compact, source);
+ * </pre>
+ *
+ * The encoding starts with a format byte followed by the operation count as a varint. Each operation is an
+ * op code byte, then its paths (the <i>from</i> path first for moves and copies), then its value for add,
+ * replace and test. A path is written as the number of leading tokens it shares with the previous path of
+ * the patch and the number of remaining tokens, both varints, followed by those tokens. A token is a varint
+ * holding either {@code index << 1 | 1} for array indexes or {@code length << 1} followed by the UTF-8 bytes
+ * of a field name. Values are written as single-field BSON documents with an empty key, so they keep their
+ * exact BSON types. Tests carrying a hash instead of a value have an op code of their own and are followed by
+ * the hash as 8 little-endian bytes and the size plus one (zero when absent) as a varint.
+ *
+ * @since 0.4.13
+ */
+public final class CompactBsonPatch {
+
+    static final byte FORMAT_VERSION = 1;
+
+    // op codes are part of the stored format: never renumber them, only add new ones
+    static final int ADD = 0;
+    static final int REMOVE = 1;
+    static final int REPLACE = 2;
+    static final int MOVE = 3;
+    static final int COPY = 4;
+    static final int TEST = 5;
+    static final int HASHED_TEST = 6;
+
+    private static final BsonValueCodec VALUE_CODEC = new BsonValueCodec();
+
+    private CompactBsonPatch() {}
+
+    public static byte[] encode(BsonArray patch) throws InvalidBsonPatchException {
+        return encode(patch, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Encodes a patch in the compact format.
+     *
+     * @param patch The patch in RFC 6902 form.
+     * @param flags The flags used to interpret the patch, e.g. {@link CompatibilityFlags#MISSING_VALUES_AS_NULLS}.
+     * @return The encoded patch.
+     * @throws InvalidBsonPatchException The patch is malformed.
+     */
+    public static byte[] encode(BsonArray patch, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT_VERSION);
+        writeVarint(out, patch.size());
+        JsonPointer previous = JsonPointer.ROOT;
+        for (BsonValue node : patch) {
+            Diff operation = BsonPatch.parseOperation(node, flags);
+            out.write(opCode(operation));
+            writePath(out, operation.getPath(), previous);
+            previous = operation.getPath();
+            if (operation.isHashedTest()) {
+                for (int i = 0; i < 8; i++)
+                    out.write((int) (operation.getHash() >>> (8 * i)));
+                writeVarint(out, operation.getSize() + 1L);
+                continue;
+            }
+            switch (operation.getOperation()) {
+                case MOVE:
+                case COPY:
+                    writePath(out, operation.getToPath(), previous);
+                    previous = operation.getToPath();
+                    break;
+                case REMOVE:
+                    break;
+                default:
+                    writeValue(out, operation.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a compact patch back into its RFC 6902 form.
+     *
+     * @param patch The encoded patch.
+     * @return The patch as an array of operation documents.
+     * @throws InvalidBsonPatchException The encoded patch is malformed.
+     */
+    public static BsonArray decode(byte[] patch) throws InvalidBsonPatchException {
+        Decoder decoder = new Decoder(ByteBuffer.wrap(patch), CompatibilityFlags.defaults());
+        BsonArray result = new BsonArray();
+        while (decoder.hasNext()) {
+            Diff operation = decoder.next();
+            BsonDocument node = new BsonDocument(Constants.OP, new BsonString(operation.getOperation().rfcName()));
+            switch (operation.getOperation()) {
+                case MOVE:
+                case COPY:
+                    node.put(Constants.FROM, new BsonString(operation.getPath().toString()));
+                    node.put(Constants.PATH, new BsonString(operation.getToPath().toString()));
+                    break;
+                case REMOVE:
+                    node.put(Constants.PATH, new BsonString(operation.getPath().toString()));
+                    break;
+                default:
+                    node.put(Constants.PATH, new BsonString(operation.getPath().toString()));
+                    if (operation.isHashedTest()) {
+                        node.put(Constants.HASH, new BsonInt64(operation.getHash()));
+                        if (operation.getSize() >= 0) node.put(Constants.SIZE, new BsonInt32(operation.getSize()));
+                    } else {
+                        node.put(Constants.VALUE, operation.getValue());
+                    }
+            }
+            result.add(node);
+        }
+        return result;
+    }
+
+    public static BsonValue apply(byte[] patch, BsonValue source) throws BsonPatchApplicationException {
+        return apply(patch, source, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies a compact patch directly, without going through the RFC 6902 form. Values are decoded
+     * straight into the result and are never cloned.
+     *
+     * @param patch The encoded patch.
+     * @param source The document to patch; it is not modified.
+     * @param flags The flags controlling patch application.
+     * @return The patched document.
+     * @throws BsonPatchApplicationException The patch can't be applied to the source.
+     * @throws InvalidBsonPatchException The encoded patch is malformed.
+     */
+    public static BsonValue apply(byte[] patch, BsonValue source, EnumSet<CompatibilityFlags> flags) throws BsonPatchApplicationException {
+        EnumSet<CompatibilityFlags> owned = ownedValues(flags);
+        BsonPatchMetrics metrics = MetricsHolder.enabled();
+        if (metrics != null) metrics.bytesCloned(InternalUtils.estimateSize(source));
+        CopyingApplyProcessor processor = new CopyingApplyProcessor(source, owned);
+        processor.setMetrics(metrics);
+        Decoder decoder = new Decoder(ByteBuffer.wrap(patch), owned);
+        BsonPatch.process(decoder, decoder.size(), processor, owned, metrics);
+        return processor.result();
+    }
+
+    public static void applyInPlace(byte[] patch, BsonValue source) throws BsonPatchApplicationException {
+        applyInPlace(patch, source, CompatibilityFlags.defaults());
+    }
+
+    public static void applyInPlace(byte[] patch, BsonValue source, EnumSet<CompatibilityFlags> flags) throws BsonPatchApplicationException {
+        applyInPlace(ByteBuffer.wrap(patch), source, flags);
+    }
+
+    /**
+     * Applies a compact patch read from the remaining bytes of {@code patch}, such as a slice of a mapped file,
+     * and returns the patched value: {@code source} itself unless the patch replaces the root.
+     */
+    static BsonValue applyInPlace(ByteBuffer patch, BsonValue source, EnumSet<CompatibilityFlags> flags) throws BsonPatchApplicationException {
+        EnumSet<CompatibilityFlags> owned = ownedValues(flags);
+        BsonPatchMetrics metrics = MetricsHolder.enabled();
+        InPlaceApplyProcessor processor = new InPlaceApplyProcessor(source, owned);
+        processor.setMetrics(metrics);
+        Decoder decoder = new Decoder(patch, owned);
+        BsonPatch.process(decoder, decoder.size(), processor, owned, metrics);
+        return processor.result();
+    }
+
+    /** Decoded values belong to nobody else, so they can be moved into the target as-is. */
+    private static EnumSet<CompatibilityFlags> ownedValues(EnumSet<CompatibilityFlags> flags) {
+        EnumSet<CompatibilityFlags> owned = EnumSet.copyOf(flags);
+        owned.add(CompatibilityFlags.DISPOSABLE_PATCH_VALUES);
+        return owned;
+    }
+
+    private static int opCode(Diff operation) {
+        switch (operation.getOperation()) {
+            case ADD:
+                return ADD;
+            case REMOVE:
+                return REMOVE;
+            case REPLACE:
+                return REPLACE;
+            case MOVE:
+                return MOVE;
+            case COPY:
+                return COPY;
+            case TEST:
+                return operation.isHashedTest() ? HASHED_TEST : TEST;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation.getOperation());
+        }
+    }
+
+    private static void writePath(ByteArrayOutputStream out, JsonPointer path, JsonPointer previous) {
+        int shared = 0;
+        int max = Math.min(path.size(), previous.size());
+        while (shared < max && path.get(shared).equals(previous.get(shared)))
+            shared++;
+        writeVarint(out, shared);
+        writeVarint(out, path.size() - shared);
+        for (int i = shared; i < path.size(); i++) {
+            JsonPointer.RefToken token = path.get(i);
+            String field = token.getField();
+            // only canonical indexes that survive the round trip are written as numbers
+            if (field.length() < 10 && token.isArrayIndex() && token.getIndex() != JsonPointer.LAST_INDEX) {
+                writeVarint(out, ((long) token.getIndex() << 1) | 1);
+            } else {
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                writeVarint(out, (long) bytes.length << 1);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+    }
+
+    private static void writeValue(ByteArrayOutputStream out, BsonValue value) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+        try {
+            writer.writeStartDocument();
+            writer.writeName("");
+            VALUE_CODEC.encode(writer, value, EncoderContext.builder().build());
+            writer.writeEndDocument();
+        } finally {
+            writer.close();
+        }
+        out.write(buffer.getInternalBuffer(), 0, buffer.getPosition());
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads the operations of a compact patch one at a time from a buffer. */
+    static final class Decoder implements Iterator<Diff> {
+        private final ByteBuffer buffer;
+        private final EnumSet<CompatibilityFlags> flags;
+        private final int size;
+        private int read;
+        private JsonPointer previous = JsonPointer.ROOT;
+
+        Decoder(ByteBuffer buffer, EnumSet<CompatibilityFlags> flags) {
+            this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            this.flags = flags;
+            try {
+                byte version = this.buffer.get();
+                if (version != FORMAT_VERSION)
+                    throw new InvalidBsonPatchException("Unsupported compact patch format " + version);
+                long count = readVarint();
+                if (count > Integer.MAX_VALUE)
+                    throw new InvalidBsonPatchException("Invalid compact patch (operation count " + count + ")");
+                this.size = (int) count;
+            } catch (BufferUnderflowException e) {
+                throw new InvalidBsonPatchException("Invalid compact patch (truncated)");
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return read < size;
+        }
+
+        @Override
+        public Diff next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            read++;
+            return BsonPatch.checkWildcards(readOperation(), flags);
+        }
+
+        private Diff readOperation() {
+            try {
+                int code = buffer.get();
+                switch (code) {
+                    case ADD:
+                        return new Diff(Operation.ADD, readPath(), readValue());
+                    case REMOVE:
+                        return new Diff(Operation.REMOVE, readPath(), (BsonValue) null);
+                    case REPLACE:
+                        return new Diff(Operation.REPLACE, readPath(), readValue());
+                    case MOVE:
+                        return new Diff(Operation.MOVE, readPath(), readPath());
+                    case COPY:
+                        return new Diff(Operation.COPY, readPath(), readPath());
+                    case TEST:
+                        return new Diff(Operation.TEST, readPath(), readValue());
+                    case HASHED_TEST: {
+                        JsonPointer path = readPath();
+                        long hash = buffer.getLong();
+                        long size = readVarint() - 1;
+                        if (size < -1 || size > Integer.MAX_VALUE)
+                            throw new InvalidBsonPatchException("Invalid compact patch (size " + size + ")");
+                        return Diff.hashedTest(path, hash, (int) size);
+                    }
+                    default:
+                        throw new InvalidBsonPatchException("Invalid compact patch (op code " + code + ")");
+                }
+            } catch (BufferUnderflowException e) {
+                throw new InvalidBsonPatchException("Invalid compact patch (truncated)");
+            } catch (BSONException e) {
+                // malformed values, which the BSON reader reports as serialization or invalid operation errors
+                throw new InvalidBsonPatchException("Invalid compact patch (" + e.getMessage() + ")");
+            }
+        }
+
+        private JsonPointer readPath() {
+            long shared = readVarint();
+            int added = readLength();
+            if (shared > previous.size())
+                throw new InvalidBsonPatchException("Invalid compact patch (shares " + shared + " tokens of " + previous + ")");
+            List<JsonPointer.RefToken> tokens = new ArrayList<JsonPointer.RefToken>((int) shared + added);
+            for (int i = 0; i < shared; i++)
+                tokens.add(previous.get(i));
+            for (int i = 0; i < added; i++) {
+                long header = readVarint();
+                if ((header & 1) != 0) {
+                    if (header >>> 1 > Integer.MAX_VALUE)
+                        throw new InvalidBsonPatchException("Invalid compact patch (index " + (header >>> 1) + ")");
+                    tokens.add(new JsonPointer.RefToken(Long.toString(header >>> 1)));
+                } else {
+                    int length = toLength(header >>> 1);
+                    byte[] bytes = new byte[length];
+                    buffer.get(bytes);
+                    tokens.add(new JsonPointer.RefToken(new String(bytes, StandardCharsets.UTF_8)));
+                }
+            }
+            previous = tokens.isEmpty() ? JsonPointer.ROOT : new JsonPointer(tokens);
+            return previous;
+        }
+
+        private BsonValue readValue() {
+            if (buffer.remaining() < 4)
+                throw new InvalidBsonPatchException("Invalid compact patch (truncated)");
+            int length = buffer.getInt(buffer.position());
+            if (length < 5 || length > buffer.remaining())
+                throw new InvalidBsonPatchException("Invalid compact patch (value length " + length + ")");
+            ByteBuffer value = buffer.slice();
+            value.limit(length);
+            buffer.position(buffer.position() + length);
+            BsonBinaryReader reader = new BsonBinaryReader(value);
+            try {
+                reader.readStartDocument();
+                reader.readName();
+                BsonValue result = VALUE_CODEC.decode(reader, DecoderContext.builder().build());
+                reader.readEndDocument();
+                return result;
+            } finally {
+                reader.close();
+            }
+        }
+
+        private int readLength() {
+            return toLength(readVarint());
+        }
+
+        private int toLength(long value) {
+            if (value > buffer.remaining())
+                throw new InvalidBsonPatchException("Invalid compact patch (length " + value + ")");
+            return (int) value;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new InvalidBsonPatchException("Invalid compact patch (varint too long)");
+        }
+    }
+}
@@ -25,7 +25,30 @@ public enum CompatibilityFlags {
 	MISSING_VALUES_AS_NULLS,
 	REMOVE_NONE_EXISTING_ARRAY_ELEMENT,
     ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE,
-    FORBID_REMOVE_MISSING_OBJECT;
+    FORBID_REMOVE_MISSING_OBJECT,
+
+    /**
+     * Declares that the patch being applied is owned by the caller and will not be used again,
+     * so the values of its {@link Operation#ADD} and {@link Operation#REPLACE} operations may be
+     * moved into the target document instead of being deep-copied. After application the target
+     * shares those nodes with the patch; mutating one will affect the other.
+     *
+     * @since 0.4.13
+     */
+    DISPOSABLE_PATCH_VALUES,
+
+    /**
+     * Makes a {@code *} reference token in the path of an {@link Operation#ADD}, {@link Operation#REMOVE},
+     * {@link Operation#REPLACE} or {@link Operation#TEST} operation stand for every element of the array
+     * it is applied to, so that e.g. a replace of <code>/items/&#42;/currency</code>
+     * replaces the currency of all items. Wildcards can't be used in moves and copies, nor end the path of an add.
+     * Without this flag {@code *} is an ordinary field name, as RFC 6902 requires.
+     * <p>
+     * Please note that this is a non-standard extension to RFC 6902.
+     *
+     * @since 0.4.13
+     */
+    ALLOW_WILDCARD_PATHS;
 
     public static EnumSet<CompatibilityFlags> defaults() {
         return EnumSet.noneOf(CompatibilityFlags.class);
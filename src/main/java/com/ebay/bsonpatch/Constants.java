@@ -25,6 +25,8 @@ final class Constants {
 	public static final String PATH = "path";
 	public static final String FROM = "from";
 	public static final String FROM_VALUE = "fromValue";
+	public static final String HASH = "hash";
+	public static final String SIZE = "size";
 
     private Constants() {}
 
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+/**
+ * Applies a patch without modifying the source: each container on the path to a change is copied once, and
+ * every untouched subtree is shared between the source and the result.
+ */
+class CopyOnWriteApplyProcessor extends InPlaceApplyProcessor {
+
+    /** Containers copied by this processor, which belong to the result only and can be modified. */
+    private final Set<BsonValue> fresh = Collections.newSetFromMap(new IdentityHashMap<BsonValue, Boolean>());
+
+    CopyOnWriteApplyProcessor(BsonValue source, EnumSet<CompatibilityFlags> flags) {
+        super(source, flags);
+    }
+
+    @Override
+    BsonValue parentForUpdate(JsonPointer path) throws JsonPointerEvaluationException {
+        evaluate(path); // reports missing paths exactly like the in-place processor
+
+        BsonValue node = writable(result());
+        setTarget(node);
+        for (int i = 0; i < path.size(); i++) {
+            JsonPointer.RefToken token = path.get(i);
+            if (node.isArray()) {
+                BsonArray array = node.asArray();
+                BsonValue child = array.get(token.getIndex());
+                BsonValue copy = writable(child);
+                if (copy != child) array.set(token.getIndex(), copy);
+                node = copy;
+            } else {
+                BsonDocument document = node.asDocument();
+                BsonValue child = document.get(token.getField());
+                BsonValue copy = writable(child);
+                if (copy != child) document.put(token.getField(), copy);
+                node = copy;
+            }
+        }
+        return node;
+    }
+
+    @Override
+    public void copy(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
+        // the copy is shared rather than cloned, so neither occurrence may be modified in place from now on
+        BsonValue valueNode = evaluate(fromPath);
+        seal(valueNode);
+        set(toPath, valueNode, Operation.COPY);
+    }
+
+    private BsonValue writable(BsonValue node) {
+        if (fresh.contains(node))
+            return node;
+        BsonValue copy;
+        if (node.isDocument()) {
+            BsonDocument document = new BsonDocument();
+            for (Map.Entry<String, BsonValue> entry : node.asDocument().entrySet())
+                document.put(entry.getKey(), entry.getValue());
+            copy = document;
+        } else if (node.isArray()) {
+            copy = new BsonArray(node.asArray().getValues());
+        } else {
+            return node;
+        }
+        fresh.add(copy);
+        return copy;
+    }
+
+    private void seal(BsonValue node) {
+        if (!fresh.remove(node))
+            return;
+        if (node.isDocument()) {
+            for (BsonValue child : node.asDocument().values()) seal(child);
+        } else {
+            for (BsonValue child : node.asArray()) seal(child);
+        }
+    }
+}
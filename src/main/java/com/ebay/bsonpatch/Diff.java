@@ -27,6 +27,9 @@ class Diff {
     private final BsonValue value;
     private JsonPointer toPath; //only to be used in move operation
     private final BsonValue srcValue; // only used in replace operation
+    private boolean hashed; // only used in test operation, which then has no value
+    private long hash;
+    private int size = -1;
 
     Diff(Operation operation, JsonPointer path, BsonValue value) {
         this.operation = operation;
@@ -70,6 +73,40 @@ class Diff {
         return new Diff(replace, path, source, target);
     }    
 
+    /**
+     * Creates a {@link Operation#TEST} operation checking the value at a path against its {@link BsonHash hash}
+     * and, unless negative, its {@link BsonHash#size(BsonValue) size}, instead of against the value itself.
+     */
+    static Diff hashedTest(JsonPointer path, long hash, int size) {
+        Diff diff = new Diff(Operation.TEST, path, (BsonValue) null);
+        diff.hashed = true;
+        diff.hash = hash;
+        diff.size = size;
+        return diff;
+    }
+
+    /** Returns the same operation at another path, such as one of the paths a wildcard matches. */
+    Diff at(JsonPointer path) {
+        Diff diff = new Diff(operation, path, srcValue, value);
+        diff.toPath = toPath;
+        diff.hashed = hashed;
+        diff.hash = hash;
+        diff.size = size;
+        return diff;
+    }
+
+    boolean isHashedTest() {
+        return hashed;
+    }
+
+    long getHash() {
+        return hash;
+    }
+
+    int getSize() {
+        return size;
+    }
+
     JsonPointer getToPath() {
         return toPath;
     }
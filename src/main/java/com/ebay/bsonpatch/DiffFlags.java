@@ -89,7 +89,45 @@ public enum DiffFlags {
      *
      * @since 0.4.8
      */
-    EMIT_TEST_OPERATIONS;
+    EMIT_TEST_OPERATIONS,
+
+    /**
+     * This flag makes the {@link Operation#TEST} operations emitted with {@link DiffFlags#EMIT_TEST_OPERATIONS}
+     * carry a 64-bit structural <i>hash</i> and the <i>size</i> of documents and arrays instead of
+     * the documents and arrays themselves, which keeps patches guarding large subtrees small:
+     * {@code "op": "test", "path": "/a", "hash": NumberLong(...), "size": 3 }
+     * Scalar values are still tested by value.
+     * <p>
+     * Please note that this is a non-standard extension to RFC 6902: such patches can only be applied
+     * by this library.
+     *
+     * @since 0.4.13
+     */
+    HASH_TEST_VALUES,
+
+    /**
+     * This flag deep-copies the <i>value</i> and <i>fromValue</i> fields of the generated patch.
+     * Without it, those fields reference the corresponding parts of the source and target documents,
+     * which keeps diffing cheap but means that mutating either document afterwards also changes the patch.
+     * Set it when the documents are going to be modified while the patch is still in use.
+     *
+     * @since 0.4.13
+     */
+    DETACH_VALUES,
+
+    /**
+     * This flag collapses the operations generated for the elements of an array into a single operation
+     * with a <code>*</code> path segment when every element changed the same way, e.g. a single replace of
+     * <code>/items/&#42;/currency</code> instead of one replace per item.
+     * Only arrays whose length didn't change are considered.
+     * <p>
+     * Please note that this is a non-standard extension to RFC 6902: such patches can only be applied
+     * by this library, with {@link CompatibilityFlags#ALLOW_WILDCARD_PATHS} set, and documents having
+     * fields named <code>*</code> shouldn't be diffed with it.
+     *
+     * @since 0.4.13
+     */
+    EMIT_WILDCARD_OPERATIONS;
 	
     public static EnumSet<DiffFlags> defaults() {
         return EnumSet.of(OMIT_VALUE_ON_REMOVE);
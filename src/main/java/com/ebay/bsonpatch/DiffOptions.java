@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Options controlling how {@link BsonDiff} generates a patch. In addition to the {@link DiffFlags},
+ * options can limit how far the diff descends into the documents being compared:
+ *
+ * <pre>
+ *      DiffOptions options = new DiffOptions()
+ *              .maxDepth(4)              // replace anything deeper than 4 levels as a whole
+ *              .atomic("/items/*")       // replace matching subtrees as a whole when they differ
+ *              .ignore("/audit");        // never look at matching subtrees
+ *      BsonArray patch = BsonDiff.asBson(source, target, options);
+ * </pre>
+ *
+ * Path patterns use JSON pointer syntax, where a {@code *} token matches any single reference token and
+ * a {@code **} token matches any number of them. Pruning takes place while the documents are traversed,
+ * so atomic and ignored subtrees are never descended into.
+ *
+ * @since 0.4.13
+ */
+public final class DiffOptions {
+    private final EnumSet<DiffFlags> flags;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int lcsWindow = Integer.MAX_VALUE;
+    private final List<PathPattern> atomicPaths = new ArrayList<PathPattern>();
+    private final List<PathPattern> ignoredPaths = new ArrayList<PathPattern>();
+    private final List<PathPattern> unorderedPaths = new ArrayList<PathPattern>();
+
+    /**
+     * Creates options with the {@link DiffFlags#defaults() default flags}.
+     */
+    public DiffOptions() {
+        this(DiffFlags.defaults());
+    }
+
+    /**
+     * Creates options with the given flags.
+     *
+     * @param flags The flags to use; the set is copied.
+     */
+    public DiffOptions(EnumSet<DiffFlags> flags) {
+        this.flags = flags.clone();
+    }
+
+    /**
+     * Limits the depth to which documents and arrays are compared. Containers found at the given depth
+     * (the root being at depth 0) are replaced as a whole when they differ.
+     *
+     * @param maxDepth The maximum depth, must not be negative.
+     * @return This instance.
+     */
+    public DiffOptions maxDepth(int maxDepth) {
+        if (maxDepth < 0) throw new IllegalArgumentException("Maximum depth can't be negative");
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Bounds the cost of comparing large arrays. When the combined size of two arrays exceeds the window, they
+     * are first matched on common prefixes, suffixes and elements occurring exactly once in both (as in patience
+     * diff), and the longest common subsequence is only computed between those anchors, on pieces of at most
+     * {@code elements} elements. The patch remains valid but may be larger than the one found without a window.
+     *
+     * @param elements The maximum combined size of the arrays compared exactly, at least 2.
+     * @return This instance.
+     */
+    public DiffOptions lcsWindow(int elements) {
+        if (elements < 2) throw new IllegalArgumentException("LCS window must hold at least 2 elements");
+        this.lcsWindow = elements;
+        return this;
+    }
+
+    /**
+     * Marks the subtrees matching a path pattern as atomic: when they differ, they are replaced as a
+     * whole instead of being compared field by field.
+     *
+     * @param pattern The path pattern.
+     * @return This instance.
+     */
+    public DiffOptions atomic(String pattern) {
+        atomicPaths.add(PathPattern.compile(pattern));
+        return this;
+    }
+
+    /**
+     * Marks the subtrees matching a path pattern as ignored: changes within them, as well as their
+     * addition or removal as document fields, don't appear in the patch.
+     *
+     * @param pattern The path pattern.
+     * @return This instance.
+     */
+    public DiffOptions ignore(String pattern) {
+        ignoredPaths.add(PathPattern.compile(pattern));
+        return this;
+    }
+
+    /**
+     * Marks the arrays matching a path pattern as unordered: they are compared as multisets in linear
+     * time instead of positionally. The patch removes the elements missing from the target and appends
+     * the ones missing from the source, so applying it yields the target elements, though not
+     * necessarily in the target's order. Elements present in both arrays are never compared field by
+     * field.
+     *
+     * @param pattern The path pattern.
+     * @return This instance.
+     */
+    public DiffOptions unordered(String pattern) {
+        unorderedPaths.add(PathPattern.compile(pattern));
+        return this;
+    }
+
+    EnumSet<DiffFlags> getFlags() {
+        return flags;
+    }
+
+    int getLcsWindow() {
+        return lcsWindow;
+    }
+
+    boolean hasIgnoredPaths() {
+        return !ignoredPaths.isEmpty();
+    }
+
+    boolean isIgnored(PathNode path) {
+        return matchesAny(ignoredPaths, path);
+    }
+
+    boolean isAtomic(PathNode path) {
+        return path.depth() >= maxDepth || matchesAny(atomicPaths, path);
+    }
+
+    boolean isUnordered(PathNode path) {
+        return matchesAny(unorderedPaths, path);
+    }
+
+    // patterns are matched against the node chain, so the pointer is only built when an operation needs it
+    private static boolean matchesAny(List<PathPattern> patterns, PathNode path) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matches(path)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.bson.BsonArray;
+
+/**
+ * A patch computed by {@link BsonDiff#asBsonWithStats(org.bson.BsonValue, org.bson.BsonValue, DiffOptions)}
+ * together with a breakdown of where the diff spent its time and which parts of the documents produced
+ * the most operations. Useful to tune {@link DiffFlags} and {@link DiffOptions}, or the design of the
+ * documents themselves, when a diff is slow or a patch is large.
+ *
+ * @since 0.4.13
+ */
+public final class DiffStats {
+
+    /** The number of entries kept for {@link #getLargestArrays()} and {@link #getBusiestSubtrees()}. */
+    public static final int TOP_ENTRIES = 10;
+
+    /** The phases of a diff. */
+    public enum Phase {
+        /** Recursive comparison of the source and target values. */
+        GENERATE_DIFFS,
+        /** Merging of removals and additions into moves. */
+        INTRODUCE_MOVE_OPERATION,
+        /** Replacement of additions with copies of unchanged values. */
+        INTRODUCE_COPY_OPERATION,
+        /** Splitting of replacements into removals and additions. */
+        INTRODUCE_EXPLICIT_REMOVE_AND_ADD_OPERATION
+    }
+
+    /** An array comparison, measured by the number of element comparisons its LCS required. */
+    public static final class ArrayComparison {
+        private final String path;
+        private final int sourceSize;
+        private final int targetSize;
+        private final long cost;
+
+        ArrayComparison(String path, int sourceSize, int targetSize, long cost) {
+            this.path = path;
+            this.sourceSize = sourceSize;
+            this.targetSize = targetSize;
+            this.cost = cost;
+        }
+
+        /** Returns the JSON pointer to the array. */
+        public String getPath() {
+            return path;
+        }
+
+        public int getSourceSize() {
+            return sourceSize;
+        }
+
+        public int getTargetSize() {
+            return targetSize;
+        }
+
+        /** Returns the number of element comparisons needed to compute the LCS of both arrays. */
+        public long getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return path + " (" + sourceSize + "x" + targetSize + ", cost " + cost + ")";
+        }
+    }
+
+    private static final Comparator<ArrayComparison> BY_COST = new Comparator<ArrayComparison>() {
+        @Override
+        public int compare(ArrayComparison o1, ArrayComparison o2) {
+            return Long.compare(o1.cost, o2.cost);
+        }
+    };
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final PriorityQueue<ArrayComparison> largestArrays = new PriorityQueue<ArrayComparison>(TOP_ENTRIES + 1, BY_COST);
+    private BsonArray patch;
+    private long totalNanos;
+    private long equalsCalls;
+    private long nodesVisited;
+    private Map<String, Integer> busiestSubtrees = Collections.emptyMap();
+
+    DiffStats() {}
+
+    /** Returns the computed patch. */
+    public BsonArray getPatch() {
+        return patch;
+    }
+
+    /** Returns the total duration of the diff, in nanoseconds. */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the time spent in a phase of the diff, in nanoseconds. Phases disabled by the flags
+     * take no time.
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /** Returns the number of value comparisons performed. */
+    public long getEqualsCalls() {
+        return equalsCalls;
+    }
+
+    /** Returns the number of source/target node pairs visited. */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /** Returns the most expensive array comparisons, most expensive first. */
+    public List<ArrayComparison> getLargestArrays() {
+        List<ArrayComparison> result = new ArrayList<ArrayComparison>(largestArrays);
+        Collections.sort(result, Collections.reverseOrder(BY_COST));
+        return result;
+    }
+
+    /**
+     * Returns the documents and arrays whose direct children received the most operations, mapped
+     * to the number of operations, busiest first.
+     */
+    public Map<String, Integer> getBusiestSubtrees() {
+        return busiestSubtrees;
+    }
+
+    void phaseCompleted(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    void arrayCompared(PathNode path, int sourceSize, int targetSize, long cost) {
+        if (largestArrays.size() == TOP_ENTRIES && largestArrays.peek().cost >= cost) return;
+        largestArrays.add(new ArrayComparison(path.toString(), sourceSize, targetSize, cost));
+        if (largestArrays.size() > TOP_ENTRIES) largestArrays.poll();
+    }
+
+    void completed(BsonArray patch, List<Diff> diffs, long totalNanos, long equalsCalls, long nodesVisited) {
+        this.patch = patch;
+        this.totalNanos = totalNanos;
+        this.equalsCalls = equalsCalls;
+        this.nodesVisited = nodesVisited;
+
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Diff diff : diffs) {
+            JsonPointer path = diff.getOperation() == Operation.MOVE || diff.getOperation() == Operation.COPY
+                    ? diff.getToPath() : diff.getPath();
+            String parent = path.getParent().toString();
+            Integer count = counts.get(parent);
+            counts.put(parent, count == null ? 1 : count + 1);
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        Map<String, Integer> busiest = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < entries.size() && i < TOP_ENTRIES; i++) {
+            busiest.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        this.busiestSubtrees = Collections.unmodifiableMap(busiest);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("DiffStats[operations=").append(patch != null ? patch.size() : 0)
+          .append(", totalNanos=").append(totalNanos);
+        for (Phase phase : Phase.values()) {
+            sb.append(", ").append(phase).append('=').append(phaseNanos[phase.ordinal()]);
+        }
+        sb.append(", equalsCalls=").append(equalsCalls)
+          .append(", nodesVisited=").append(nodesVisited)
+          .append(", largestArrays=").append(getLargestArrays())
+          .append(", busiestSubtrees=").append(busiestSubtrees)
+          .append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.Binary;
+
+import com.mongodb.MongoClientSettings;
+
+/**
+ * Adapts the driver's {@link Document} model, where objects are {@link Map}s and arrays are {@link List}s, so
+ * that patches can be applied to plain maps and lists as well.
+ */
+final class DocumentTreeAdapter implements TreeAdapter<Object> {
+
+    static final DocumentTreeAdapter INSTANCE = new DocumentTreeAdapter();
+
+    private static final CodecRegistry REGISTRY = MongoClientSettings.getDefaultCodecRegistry();
+    private static final DocumentCodec CODEC = new DocumentCodec(REGISTRY);
+
+    private DocumentTreeAdapter() {}
+
+    @Override
+    public boolean isObject(Object node) {
+        return node instanceof Map;
+    }
+
+    @Override
+    public boolean isArray(Object node) {
+        return node instanceof List;
+    }
+
+    @Override
+    public boolean hasField(Object object, String field) {
+        return asMap(object).containsKey(field);
+    }
+
+    @Override
+    public Object getField(Object object, String field) {
+        return asMap(object).get(field);
+    }
+
+    @Override
+    public void putField(Object object, String field, Object value) {
+        asMap(object).put(field, value);
+    }
+
+    @Override
+    public void removeField(Object object, String field) {
+        asMap(object).remove(field);
+    }
+
+    @Override
+    public int size(Object array) {
+        return asList(array).size();
+    }
+
+    @Override
+    public Object getElement(Object array, int index) {
+        return asList(array).get(index);
+    }
+
+    @Override
+    public void setElement(Object array, int index, Object value) {
+        asList(array).set(index, value);
+    }
+
+    @Override
+    public void addElement(Object array, int index, Object value) {
+        asList(array).add(index, value);
+    }
+
+    @Override
+    public void removeElement(Object array, int index) {
+        asList(array).remove(index);
+    }
+
+    @Override
+    public Object fromBson(BsonValue value) {
+        // the codec decodes into fresh objects, so nothing is shared with the patch
+        return CODEC.decode(new BsonDocumentReader(new BsonDocument("v", value)), DecoderContext.builder().build()).get("v");
+    }
+
+    @Override
+    public BsonValue toBson(Object node) {
+        return new Document("v", node).toBsonDocument(BsonDocument.class, REGISTRY).get("v");
+    }
+
+    @Override
+    public Object deepCopy(Object node) {
+        if (node instanceof Map) {
+            Document copy = new Document();
+            for (Map.Entry<String, Object> entry : asMap(node).entrySet())
+                copy.put(entry.getKey(), deepCopy(entry.getValue()));
+            return copy;
+        } else if (node instanceof List) {
+            List<Object> elements = asList(node);
+            List<Object> copy = new ArrayList<Object>(elements.size());
+            for (Object element : elements)
+                copy.add(deepCopy(element));
+            return copy;
+        } else if (node instanceof byte[]) {
+            return ((byte[]) node).clone();
+        } else if (node instanceof Binary) {
+            return new Binary(((Binary) node).getType(), ((Binary) node).getData().clone());
+        } else if (node instanceof Date) {
+            return new Date(((Date) node).getTime());
+        }
+        return node; // assume that other values are immutable
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object node) {
+        return (Map<String, Object>) node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object node) {
+        return (List<Object>) node;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A prefix trie over the footprints of a sequence of patches, used to assign each patch to the earliest batch
+ * that follows every earlier patch it overlaps. Patches in the same batch touch disjoint subtrees and can be
+ * applied in any order, or in parallel.
+ */
+final class FootprintTrie {
+
+    private static final class Node {
+        final Map<JsonPointer.RefToken, Node> children = new HashMap<JsonPointer.RefToken, Node>();
+        /** Highest batch of a patch reading or writing exactly this subtree. */
+        int read = -1;
+        int write = -1;
+        /** Highest batch of a patch reading or writing this subtree or any subtree below it. */
+        int readBelow = -1;
+        int writeBelow = -1;
+    }
+
+    private static final JsonPointer.RefToken WILDCARD = new JsonPointer.RefToken(JsonPointer.WILDCARD);
+
+    private final Node root = new Node();
+
+    /** Returns the batch a patch with the given footprint goes to, and records it. */
+    int add(PatchFootprint footprint) {
+        int after = -1;
+        for (JsonPointer write : footprint.getWrites()) {
+            after = Math.max(after, latestOverlapping(write, true, footprint.hasWildcards()));
+        }
+        for (JsonPointer read : footprint.getReads()) {
+            after = Math.max(after, latestOverlapping(read, false, footprint.hasWildcards()));
+        }
+        int batch = after + 1;
+        for (JsonPointer write : footprint.getWrites()) {
+            record(write, batch, true);
+        }
+        for (JsonPointer read : footprint.getReads()) {
+            record(read, batch, false);
+        }
+        return batch;
+    }
+
+    private int latestOverlapping(JsonPointer path, boolean write, boolean wildcards) {
+        return latestOverlapping(root, path, 0, write, wildcards);
+    }
+
+    // with wildcards a path can reach several nodes: a wildcard follows every child, any other token also a wildcard child
+    private static int latestOverlapping(Node node, JsonPointer path, int i, boolean write, boolean wildcards) {
+        // ancestors, and the node itself
+        int latest = write ? Math.max(node.write, node.read) : node.write;
+        if (i == path.size()) {
+            // descendants
+            return Math.max(latest, write ? Math.max(node.writeBelow, node.readBelow) : node.writeBelow);
+        }
+        JsonPointer.RefToken token = path.get(i);
+        if (wildcards && JsonPointer.WILDCARD.equals(token.getField())) {
+            for (Node child : node.children.values()) {
+                latest = Math.max(latest, latestOverlapping(child, path, i + 1, write, true));
+            }
+            return latest;
+        }
+        Node child = node.children.get(token);
+        if (child != null)
+            latest = Math.max(latest, latestOverlapping(child, path, i + 1, write, wildcards));
+        Node any = wildcards ? node.children.get(WILDCARD) : null;
+        if (any != null)
+            latest = Math.max(latest, latestOverlapping(any, path, i + 1, write, true));
+        return latest;
+    }
+
+    private void record(JsonPointer path, int batch, boolean write) {
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (write) node.writeBelow = Math.max(node.writeBelow, batch);
+            else node.readBelow = Math.max(node.readBelow, batch);
+            if (i == path.size()) break;
+            Node child = node.children.get(path.get(i));
+            if (child == null) {
+                child = new Node();
+                node.children.put(path.get(i), child);
+            }
+            node = child;
+        }
+        if (write) node.write = Math.max(node.write, batch);
+        else node.read = Math.max(node.read, batch);
+    }
+}
@@ -31,6 +31,8 @@ class InPlaceApplyProcessor implements BsonPatchProcessor {
 
     private BsonValue target;
     private EnumSet<CompatibilityFlags> flags;
+    private BsonPatchMetrics metrics;
+    private boolean quiet;
 
     InPlaceApplyProcessor(BsonValue target) {
     	this(target, CompatibilityFlags.defaults());
@@ -45,21 +47,41 @@ class InPlaceApplyProcessor implements BsonPatchProcessor {
         return target;
     }
 
+    /**
+     * Replaces the document being patched, for subclasses that substitute a copy of it before updating it.
+     */
+    void setTarget(BsonValue target) {
+        this.target = target;
+    }
+
+    void setMetrics(BsonPatchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Makes failing operations throw a shared {@link ApplyFailure} instead of building an exception, for
+     * callers that only need the outcome.
+     */
+    void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
     @Override
     public void move(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
-        BsonValue valueNode = fromPath.evaluate(target);
+        BsonValue valueNode = evaluate(fromPath);
         remove(fromPath);
         set(toPath, valueNode, Operation.MOVE);
     }
 
     @Override
     public void copy(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
-    	BsonValue valueNode = fromPath.evaluate(target);
+    	BsonValue valueNode = evaluate(fromPath);
+    	if (metrics != null && valueNode != null) metrics.bytesCloned(InternalUtils.estimateSize(valueNode));
     	BsonValue valueToCopy = valueNode != null ? cloneBsonValue(valueNode) : null;
         set(toPath, valueToCopy, Operation.COPY);
     }
     
-    private static String show(BsonValue value) {
+    static String show(BsonValue value) {
         if (value == null || value.isNull())
             return "null";
         else if (value.isArray())
@@ -80,10 +102,32 @@ class InPlaceApplyProcessor implements BsonPatchProcessor {
 
     @Override
     public void test(JsonPointer path, BsonValue value) throws JsonPointerEvaluationException {
-    	BsonValue valueNode = path.evaluate(target);
-        if (!valueNode.equals(value))
+    	BsonValue valueNode = evaluate(path);
+        if (!BsonEquality.equal(valueNode, value)) {
+            if (quiet) throw ApplyFailure.NOT_APPLICABLE;
             throw new BsonPatchApplicationException(
                     "Expected value " + show(value) + " but found " + show(valueNode), Operation.TEST, path);
+        }
+    }
+
+    @Override
+    public void testHash(JsonPointer path, long hash, int size) throws JsonPointerEvaluationException {
+        BsonValue valueNode = evaluate(path);
+        if (!BsonHash.matches(valueNode, hash, size)) {
+            if (quiet) throw ApplyFailure.NOT_APPLICABLE;
+            throw new BsonPatchApplicationException(
+                    "Expected value with hash " + hash + " but found " + show(valueNode), Operation.TEST, path);
+        }
+    }
+
+    @Override
+    public int arraySize(JsonPointer path) throws JsonPointerEvaluationException {
+        BsonValue valueNode = evaluate(path);
+        if (!valueNode.isArray()) {
+            if (quiet) throw ApplyFailure.PATH_NOT_FOUND;
+            throw new JsonPointerEvaluationException("Wildcard applied to " + show(valueNode) + " instead of array", path, target);
+        }
+        return valueNode.asArray().size();
     }
 
     @Override
@@ -99,21 +143,22 @@ class InPlaceApplyProcessor implements BsonPatchProcessor {
             return;
         }
 
-        BsonValue parentNode = path.getParent().evaluate(target);
+        BsonValue parentNode = parentForUpdate(path.getParent());
         JsonPointer.RefToken token = path.last();
         if (parentNode.isDocument()) {
             if (!flags.contains(CompatibilityFlags.ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE) &&
             		!parentNode.asDocument().containsKey(token.getField()))
-                throw new BsonPatchApplicationException(
+                throw failure(
                         "Missing field \"" + token.getField() + "\"", Operation.REPLACE, path.getParent());
             parentNode.asDocument().put(token.getField(), value);
         } else if (parentNode.isArray()) {
-            if (token.getIndex() >= parentNode.asArray().size())
-                throw new BsonPatchApplicationException(
-                        "Array index " + token.getIndex() + " out of bounds", Operation.REPLACE, path.getParent());
-            parentNode.asArray().set(token.getIndex(), value);
+            int index = index(path, Operation.REPLACE);
+            if (index >= parentNode.asArray().size())
+                throw failure(
+                        "Array index " + index + " out of bounds", Operation.REPLACE, path.getParent());
+            parentNode.asArray().set(index, value);
         } else {
-            throw new BsonPatchApplicationException(
+            throw failure(
                     "Can't reference past scalar value", Operation.REPLACE, path.getParent());
         }
     }
@@ -121,33 +166,69 @@ class InPlaceApplyProcessor implements BsonPatchProcessor {
     @Override
     public void remove(JsonPointer path) throws JsonPointerEvaluationException {
         if (path.isRoot())
-            throw new BsonPatchApplicationException("Cannot remove document root", Operation.REMOVE, path);
+            throw failure("Cannot remove document root", Operation.REMOVE, path);
 
-        BsonValue parentNode = path.getParent().evaluate(target);
+        BsonValue parentNode = parentForUpdate(path.getParent());
         JsonPointer.RefToken token = path.last();
         if (parentNode.isDocument()) {
             if (flags.contains(CompatibilityFlags.FORBID_REMOVE_MISSING_OBJECT) && !parentNode.asDocument().containsKey(token.getField()))
-                throw new BsonPatchApplicationException(
+                throw failure(
                         "Missing field " + token.getField(), Operation.REMOVE, path.getParent());
             parentNode.asDocument().remove(token.getField());
         }
         else if (parentNode.isArray()) {
+            int index = index(path, Operation.REMOVE);
             if (!flags.contains(CompatibilityFlags.REMOVE_NONE_EXISTING_ARRAY_ELEMENT) &&
-                    token.getIndex() >= parentNode.asArray().size()) {
-                throw new BsonPatchApplicationException(
-                        "Array index " + token.getIndex() + " out of bounds", Operation.REMOVE, path.getParent());
-            } else if (token.getIndex() >= parentNode.asArray().size()) {
+                    index >= parentNode.asArray().size()) {
+                throw failure(
+                        "Array index " + index + " out of bounds", Operation.REMOVE, path.getParent());
+            } else if (index >= parentNode.asArray().size()) {
             	// do nothing, don't get upset about index out of bounds if REMOVE_NONE_EXISTING_ARRAY_ELEMENT set 
             	// can't just call remove on BsonArray because it throws index out of bounds exception
             } else {
-            	parentNode.asArray().remove(token.getIndex());
+            	parentNode.asArray().remove(index);
             }
         } else {
-            throw new BsonPatchApplicationException(
+            throw failure(
                     "Cannot reference past scalar value", Operation.REMOVE, path.getParent());
         }
     }
     
+    /**
+     * Returns the container referenced by a path, in which a value is about to be added, replaced or removed.
+     */
+    BsonValue parentForUpdate(JsonPointer path) throws JsonPointerEvaluationException {
+        return evaluate(path);
+    }
+
+    /** Resolves a path in the document being patched. */
+    BsonValue evaluate(JsonPointer path) throws JsonPointerEvaluationException {
+        if (!quiet) return path.evaluate(target);
+        BsonValue value = path.find(target);
+        if (value == null) throw ApplyFailure.PATH_NOT_FOUND;
+        return value;
+    }
+
+    /** Returns the exception reporting an operation that can't be applied, unless only the outcome is wanted. */
+    private BsonPatchApplicationException failure(String message, Operation operation, JsonPointer path) {
+        if (quiet) throw ApplyFailure.NOT_APPLICABLE;
+        return new BsonPatchApplicationException(message, operation, path);
+    }
+
+    private int index(JsonPointer path, Operation operation) {
+        if (quiet && !path.last().isArrayIndex()) throw ApplyFailure.NOT_APPLICABLE;
+        return arrayIndex(path, operation);
+    }
+
+    /** Returns the array index the last token of a path refers to, which mustn't be a field name. */
+    static int arrayIndex(JsonPointer path, Operation operation) {
+        JsonPointer.RefToken token = path.last();
+        if (!token.isArrayIndex())
+            throw new BsonPatchApplicationException(
+                    "Field \"" + token.getField() + "\" used as array index", operation, path.getParent());
+        return token.getIndex();
+    }
+
     static BsonValue cloneBsonValue(BsonValue from) {
         BsonValue to;
         switch (from.getBsonType()) {
@@ -169,13 +250,13 @@ class InPlaceApplyProcessor implements BsonPatchProcessor {
         return to;
     }
     
-    private void set(JsonPointer path, BsonValue value, Operation forOp) throws JsonPointerEvaluationException {
+    void set(JsonPointer path, BsonValue value, Operation forOp) throws JsonPointerEvaluationException {
         if (path.isRoot())
             target = value;
         else {
-        	BsonValue parentNode = path.getParent().evaluate(target);
+        	BsonValue parentNode = parentForUpdate(path.getParent());
             if (!parentNode.isDocument() && !parentNode.isArray())
-                throw new BsonPatchApplicationException("Cannot reference past scalar value", forOp, path.getParent());
+                throw failure("Cannot reference past scalar value", forOp, path.getParent());
             else if (parentNode.isArray())
                 addToArray(path, value, parentNode);
             else
@@ -191,14 +272,14 @@ class InPlaceApplyProcessor implements BsonPatchProcessor {
 
     private void addToArray(JsonPointer path, BsonValue value, BsonValue parentNode) {
         final BsonArray target = parentNode.asArray();
-        int idx = path.last().getIndex();
+        int idx = index(path, Operation.ADD);
 
         if (idx == JsonPointer.LAST_INDEX) {
             // see http://tools.ietf.org/html/rfc6902#section-4.1
             target.add(value);
         } else {
             if (idx > target.size())
-                throw new BsonPatchApplicationException(
+                throw failure(
                         "Array index " + idx + " out of bounds", Operation.ADD, path.getParent());
             target.add(idx, value);
         }
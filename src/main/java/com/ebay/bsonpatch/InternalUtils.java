@@ -20,15 +20,77 @@
 package com.ebay.bsonpatch;
 
 import org.bson.BsonArray;
+import org.bson.BsonDocument;
 import org.bson.BsonValue;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 class InternalUtils {
 
+    /**
+     * Estimates the size of a value once encoded as BSON, without encoding it. Strings are
+     * assumed to be mostly ASCII.
+     */
+    static long estimateSize(BsonValue value) {
+        switch (value.getBsonType()) {
+            case DOCUMENT: {
+                long size = 5;
+                for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+                    size += 2 + entry.getKey().length() + estimateSize(entry.getValue());
+                }
+                return size;
+            }
+            case ARRAY: {
+                long size = 5;
+                BsonArray array = value.asArray();
+                for (int i = 0; i < array.size(); i++) {
+                    size += 2 + stringSize(i) + estimateSize(array.get(i));
+                }
+                return size;
+            }
+            case STRING:
+                return 5 + value.asString().getValue().length();
+            case SYMBOL:
+                return 5 + value.asSymbol().getSymbol().length();
+            case JAVASCRIPT:
+                return 5 + value.asJavaScript().getCode().length();
+            case JAVASCRIPT_WITH_SCOPE: {
+                BsonDocument scope = value.asJavaScriptWithScope().getScope();
+                return 9 + value.asJavaScriptWithScope().getCode().length() + estimateSize(scope);
+            }
+            case BINARY:
+                return 5 + value.asBinary().getData().length;
+            case OBJECT_ID:
+                return 12;
+            case DECIMAL128:
+                return 16;
+            case INT32:
+                return 4;
+            case BOOLEAN:
+                return 1;
+            case NULL:
+            case UNDEFINED:
+            case MIN_KEY:
+            case MAX_KEY:
+                return 0;
+            case REGULAR_EXPRESSION:
+                return 2 + value.asRegularExpression().getPattern().length() + value.asRegularExpression().getOptions().length();
+            case DB_POINTER:
+                return 17 + value.asDBPointer().getNamespace().length();
+            default:
+                // INT64, DOUBLE, DATE_TIME and TIMESTAMP
+                return 8;
+        }
+    }
+
+    private static int stringSize(int i) {
+        return i < 10 ? 1 : Integer.toString(i).length();
+    }
+
     static List<BsonValue> toList(BsonArray input) {
         int size = input.size();
         List<BsonValue> toReturn = new ArrayList<BsonValue>(size);
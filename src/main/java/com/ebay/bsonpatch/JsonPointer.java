@@ -44,6 +44,9 @@ class JsonPointer {
     /** A JSON pointer representing the root node of a JSON document */
     public final static JsonPointer ROOT = new JsonPointer(new RefToken[] {});
 
+    /** The reference token standing for every element of an array under {@link CompatibilityFlags#ALLOW_WILDCARD_PATHS}. */
+    static final String WILDCARD = "*";
+
     private JsonPointer(RefToken[] tokens) {
         this.tokens = tokens;
     }
@@ -138,6 +141,25 @@ class JsonPointer {
         return append(Integer.toString(index));
     }
 
+    /**
+     * Returns the position of the first {@code *} reference token, which {@link CompatibilityFlags#ALLOW_WILDCARD_PATHS}
+     * turns into a wildcard, or -1 if there is none.
+     */
+    int indexOfWildcard() {
+        for (int i = 0; i < tokens.length; i++) {
+            if (WILDCARD.equals(tokens[i].getField())) return i;
+        }
+        return -1;
+    }
+
+    /** Returns the position of the last {@code *} reference token, or -1 if there is none. */
+    int lastIndexOfWildcard() {
+        for (int i = tokens.length - 1; i >= 0; i--) {
+            if (WILDCARD.equals(tokens[i].getField())) return i;
+        }
+        return -1;
+    }
+
     /** Returns the number of reference tokens comprising this instance. */
     int size() {
         return tokens.length;
@@ -202,6 +224,28 @@ class JsonPointer {
         return isRoot() ? this : new JsonPointer(Arrays.copyOf(tokens, tokens.length - 1));
     }
 
+    /**
+     * Indicates whether this pointer is equal to the specified pointer or points to one of its ancestors.
+     *
+     * @param other The pointer to test against.
+     * @return {@code true} if every reference token of this pointer is a leading token of {@code other}.
+     */
+    boolean isPrefixOf(JsonPointer other) {
+        if (tokens.length > other.tokens.length) return false;
+        for (int i = 0; i < tokens.length; i++) {
+            if (!tokens[i].equals(other.tokens[i])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether the subtrees referenced by this pointer and the specified pointer overlap, in other words
+     * whether either pointer is a prefix of the other.
+     */
+    boolean overlaps(JsonPointer other) {
+        return isPrefixOf(other) || other.isPrefixOf(this);
+    }
+
     private void error(int atToken, String message, BsonValue document) throws JsonPointerEvaluationException {
         throw new JsonPointerEvaluationException(
                 message,
@@ -244,6 +288,67 @@ class JsonPointer {
         return current;
     }
 
+    /**
+     * Resolves the node represented by this instance like {@link #evaluate(BsonValue)}, returning {@code null}
+     * instead of throwing when the pointer can't be evaluated.
+     */
+    BsonValue find(final BsonValue document) {
+        BsonValue current = document;
+
+        for (int idx = 0; idx < tokens.length; ++idx) {
+            final RefToken token = tokens[idx];
+
+            if (current.isArray()) {
+                if (!token.isArrayIndex() || token.getIndex() == LAST_INDEX || token.getIndex() >= current.asArray().size())
+                    return null;
+                current = current.asArray().get(token.getIndex());
+            }
+            else if (current.isDocument()) {
+                current = current.asDocument().get(token.getField());
+                if (current == null)
+                    return null;
+            }
+            else
+                return null;
+        }
+
+        return current;
+    }
+
+    /**
+     * Resolves the node represented by this instance in a tree accessed through an adapter, following the same
+     * semantics as {@link #evaluate(BsonValue)}.
+     *
+     * @param document The root of the tree against which to evaluate the JSON pointer.
+     * @param adapter The adapter giving access to the tree.
+     * @return The node resolved by evaluating this JSON pointer.
+     * @throws JsonPointerEvaluationException The pointer could not be evaluated.
+     */
+    <N> N evaluate(final N document, TreeAdapter<N> adapter) throws JsonPointerEvaluationException {
+        N current = document;
+
+        for (int idx = 0; idx < tokens.length; ++idx) {
+            final RefToken token = tokens[idx];
+
+            if (adapter.isArray(current)) {
+                if (!token.isArrayIndex())
+                    error(idx, "Can't reference field \"" + token.getField() + "\" on array", null);
+                if (token.getIndex() == LAST_INDEX || token.getIndex() >= adapter.size(current))
+                    error(idx, "Array index " + token.toString() + " is out of bounds", null);
+                current = adapter.getElement(current, token.getIndex());
+            }
+            else if (adapter.isObject(current)) {
+                if (!adapter.hasField(current, token.getField()))
+                    error(idx,"Missing field \"" + token.getField() + "\"", null);
+                current = adapter.getField(current, token.getField());
+            }
+            else
+                error(idx, "Can't reference past scalar value", null);
+        }
+
+        return current;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,477 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+/**
+ * A JSON patch translated into MongoDB update statements, so that a patch can be applied by the server
+ * instead of fetching, patching and writing back the whole document.
+ *
+ * <pre>
+ *      MongoUpdate update = MongoUpdate.fromPatch(BsonDiff.asBson(before, after, DiffFlags.dontNormalizeOpIntoMoveAndCopy()));
+ *      if (update.isComplete()) {
+ *          // in a transaction, so that the stages apply atomically
+ *          BsonDocument filter = new BsonDocument("$and", new BsonArray(Arrays.asList(idFilter, update.getFilter())));
+ *          for (MongoUpdate.Stage stage : update.getStages()) {
+ *              UpdateResult result = stage.isPipeline() ? collection.updateOne(session, filter, stage.getPipeline())
+ *                                                       : collection.updateOne(session, filter, stage.getUpdate());
+ *              if (result.getMatchedCount() == 0) session.abortTransaction(); // the patch doesn't apply
+ *              // the filter is about the original document, which the first stage already changed
+ *              filter = idFilter;
+ *          }
+ *      }
+ * </pre>
+ *
+ * The operations of the patch are grouped into as few {@link Stage stages} as possible: consecutive operations
+ * on unrelated fields share an operator update ({@code $set}, {@code $unset}, {@code $push} with {@code $each}
+ * and {@code $position}), while array element removals and moves or copies between fields become aggregation
+ * pipeline updates (MongoDB 4.2 or later). Stages must be executed in order, within a transaction if the patch
+ * is to be applied atomically. {@link Operation#TEST} operations, as well as the preconditions of
+ * {@link Operation#REPLACE} and array element removals, become the {@link #getFilter() filter}: an update that
+ * matches no document corresponds to a patch that fails. The filter holds for the document before the patch,
+ * so only the first stage may be executed with it; the following ones must only select the document. A patch
+ * made of tests alone has no stages, its filter being checked with a query instead.
+ *
+ * <p>Some operations have no equivalent, for instance those replacing the root, addressing fields whose name
+ * contains a dot or starts with a dollar sign, removing elements of arrays nested in arrays, or testing values
+ * that were modified earlier in the patch. They are reported as {@link #getRejections() rejections} and left out
+ * of the update; callers should fall back to applying the patch locally when the translation is not
+ * {@link #isComplete() complete}.
+ *
+ * <p>MongoDB update semantics differ from RFC 6902 in a few ways the translation can't account for: the patch
+ * doesn't say whether a numeric reference token addresses an array element or a document field, so additions
+ * at numeric tokens are translated into array insertions; {@code $set} creates missing intermediate documents
+ * where a patch would fail; and equality in filters follows MongoDB's comparison rather than the patch's:
+ * numbers compare equal across types, documents are only equal with their fields in the same order, and on
+ * paths containing array indexes, arrays also match the values they contain.
+ *
+ * @since 0.4.13
+ */
+public final class MongoUpdate {
+
+    /** One update statement, either an operator update document or an aggregation pipeline. */
+    public static final class Stage {
+        private final BsonDocument update;
+        private final List<BsonDocument> pipeline;
+
+        private Stage(BsonDocument update, List<BsonDocument> pipeline) {
+            this.update = update;
+            this.pipeline = pipeline;
+        }
+
+        public boolean isPipeline() {
+            return pipeline != null;
+        }
+
+        /** Returns the operator update document, or {@code null} if this stage is a pipeline. */
+        public BsonDocument getUpdate() {
+            return update;
+        }
+
+        /** Returns the aggregation pipeline, or {@code null} if this stage is an operator update. */
+        public List<BsonDocument> getPipeline() {
+            return pipeline;
+        }
+
+        @Override
+        public String toString() {
+            return isPipeline() ? pipeline.toString() : update.toJson();
+        }
+    }
+
+    /** An operation of the patch that couldn't be translated. */
+    public static final class Rejection {
+        private final int index;
+        private final BsonDocument operation;
+        private final String reason;
+
+        private Rejection(int index, BsonDocument operation, String reason) {
+            this.index = index;
+            this.operation = operation;
+            this.reason = reason;
+        }
+
+        /** Returns the index of the operation in the patch. */
+        public int getIndex() {
+            return index;
+        }
+
+        public BsonDocument getOperation() {
+            return operation;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index + " " + operation.toJson() + ": " + reason;
+        }
+    }
+
+    private final BsonDocument filter;
+    private final List<Stage> stages;
+    private final List<Rejection> rejections;
+
+    private MongoUpdate(BsonDocument filter, List<Stage> stages, List<Rejection> rejections) {
+        this.filter = filter;
+        this.stages = Collections.unmodifiableList(stages);
+        this.rejections = Collections.unmodifiableList(rejections);
+    }
+
+    public static MongoUpdate fromPatch(BsonArray patch) throws InvalidBsonPatchException {
+        return fromPatch(patch, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Translates a patch into MongoDB updates.
+     *
+     * @param patch The patch to translate.
+     * @param flags The flags the patch would be applied with.
+     * @return The translated updates.
+     * @throws InvalidBsonPatchException The patch is malformed.
+     */
+    public static MongoUpdate fromPatch(BsonArray patch, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        return new Translator(flags).translate(patch);
+    }
+
+    public static BsonDocument projection(BsonArray patch) throws InvalidBsonPatchException {
+        return projection(patch, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Returns a projection fetching the part of a document a patch needs, its
+     * {@link BsonPatch#footprint(BsonArray, EnumSet) footprint}, so that the patch can be applied with
+     * {@link BsonPatch#applyToProjection(BsonArray, BsonValue, EnumSet)} without fetching the whole document.
+     * Projections can't address array elements, so paths are cut at their first numeric reference token, and
+     * at fields whose name can't be part of a field path. An empty projection, which fetches the whole document,
+     * is returned if a path is cut down to the root.
+     *
+     * @param patch The patch to be applied.
+     * @param flags The flags the patch would be applied with.
+     * @return The projection, including the fields of the footprint.
+     * @throws InvalidBsonPatchException The patch is malformed.
+     * @since 0.4.13
+     */
+    public static BsonDocument projection(BsonArray patch, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        List<JsonPointer> fields = new ArrayList<JsonPointer>();
+        for (JsonPointer path : PatchFootprint.of(patch, flags).getTouched()) {
+            int size = 0;
+            while (size < path.size() && !path.get(size).isArrayIndex() && Translator.fieldPath(path.get(size)) != null)
+                size++;
+            if (size == 0)
+                return new BsonDocument();
+            fields.add(new JsonPointer(path.decompose().subList(0, size)));
+        }
+        BsonDocument projection = new BsonDocument();
+        // cutting paths can make one contain another, which a projection doesn't allow
+        for (JsonPointer field : PatchFootprint.covering(fields)) {
+            projection.put(Translator.fieldPath(field), new BsonInt32(1));
+        }
+        return projection;
+    }
+
+    /**
+     * Returns the query filter a document must match for the patch to apply, an empty document if the
+     * patch has no preconditions. It applies to the document before the first stage only.
+     */
+    public BsonDocument getFilter() {
+        return filter;
+    }
+
+    /** Returns the update statements, to be executed in order. */
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /** Returns the operations that couldn't be translated. */
+    public List<Rejection> getRejections() {
+        return rejections;
+    }
+
+    /** Indicates whether every operation of the patch was translated. */
+    public boolean isComplete() {
+        return rejections.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "MongoUpdate[filter=" + filter.toJson() + ", stages=" + stages + ", rejections=" + rejections + "]";
+    }
+
+    private static final class Translator {
+        private final EnumSet<CompatibilityFlags> flags;
+        private final List<BsonDocument> conditions = new ArrayList<BsonDocument>();
+        private final List<Stage> stages = new ArrayList<Stage>();
+        private final List<Rejection> rejections = new ArrayList<Rejection>();
+        private final List<JsonPointer> written = new ArrayList<JsonPointer>();
+        private BsonDocument update;
+        private final List<String> updatedFields = new ArrayList<String>();
+        private List<BsonDocument> pipeline;
+
+        Translator(EnumSet<CompatibilityFlags> flags) {
+            this.flags = flags;
+        }
+
+        MongoUpdate translate(BsonArray patch) {
+            for (int i = 0; i < patch.size(); i++) {
+                Diff operation = BsonPatch.parseOperation(patch.get(i), flags);
+                String reason = translate(operation);
+                if (reason != null) {
+                    rejections.add(new Rejection(i, patch.get(i).asDocument(), reason));
+                }
+            }
+            flush();
+
+            BsonDocument filter;
+            if (conditions.isEmpty())
+                filter = new BsonDocument();
+            else if (conditions.size() == 1)
+                filter = conditions.get(0);
+            else
+                filter = new BsonDocument("$and", new BsonArray(conditions));
+            return new MongoUpdate(filter, stages, rejections);
+        }
+
+        private String translate(Diff operation) {
+            JsonPointer path = operation.getPath();
+            if (BsonPatch.isWildcard(operation, flags))
+                return "the elements a wildcard matches aren't known without the document";
+            switch (operation.getOperation()) {
+                case TEST:
+                    if (operation.isHashedTest())
+                        return "a hashed test can't be expressed as a query";
+                    return test(path, operation.getValue());
+                case ADD:
+                    return add(path, operation.getValue());
+                case REPLACE:
+                    return replace(path, operation.getValue());
+                case REMOVE:
+                    return remove(path);
+                default:
+                    return moveOrCopy(operation.getOperation(), path, operation.getToPath());
+            }
+        }
+
+        private String test(JsonPointer path, BsonValue value) {
+            if (isWritten(path))
+                return "the tested value is modified earlier in the patch";
+            if (path.isRoot()) {
+                conditions.add(expressionEquals("$$ROOT", value));
+                return null;
+            }
+            String field = fieldPath(path);
+            if (field == null)
+                return "the path can't be expressed as a field path";
+            if (hasArrayIndex(path))
+                conditions.add(new BsonDocument(field, new BsonDocument("$eq", value)));
+            else
+                conditions.add(expressionEquals("$" + field, value));
+            return null;
+        }
+
+        private String add(JsonPointer path, BsonValue value) {
+            if (path.isRoot())
+                return "replacing the whole document isn't an update";
+            if (!path.last().isArrayIndex()) {
+                String field = fieldPath(path);
+                if (field == null)
+                    return "the path can't be expressed as a field path";
+                operator("$set", field, value);
+                written.add(path);
+                return null;
+            }
+
+            JsonPointer arrayPath = path.getParent();
+            String field = fieldPath(arrayPath);
+            if (arrayPath.isRoot() || field == null)
+                return "the array path can't be expressed as a field path";
+            BsonDocument push = new BsonDocument("$each", new BsonArray(Collections.singletonList(value)));
+            if (path.last().getIndex() != JsonPointer.LAST_INDEX)
+                push.put("$position", new BsonInt32(path.last().getIndex()));
+            operator("$push", field, push);
+            written.add(arrayPath);
+            return null;
+        }
+
+        private String replace(JsonPointer path, BsonValue value) {
+            if (path.isRoot())
+                return "replacing the whole document isn't an update";
+            String field = fieldPath(path);
+            if (field == null)
+                return "the path can't be expressed as a field path";
+            if (!flags.contains(CompatibilityFlags.ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE))
+                requireExists(path, field);
+            operator("$set", field, value);
+            written.add(path);
+            return null;
+        }
+
+        private String remove(JsonPointer path) {
+            if (path.isRoot())
+                return "the document root can't be removed";
+            if (!path.last().isArrayIndex()) {
+                String field = fieldPath(path);
+                if (field == null)
+                    return "the path can't be expressed as a field path";
+                if (flags.contains(CompatibilityFlags.FORBID_REMOVE_MISSING_OBJECT))
+                    requireExists(path, field);
+                operator("$unset", field, new BsonString(""));
+                written.add(path);
+                return null;
+            }
+
+            int index = path.last().getIndex();
+            JsonPointer arrayPath = path.getParent();
+            String field = fieldPath(arrayPath);
+            if (index == JsonPointer.LAST_INDEX)
+                return "the end of an array can't be removed";
+            if (arrayPath.isRoot() || field == null || hasArrayIndex(arrayPath))
+                return "elements can only be removed from arrays addressed by field names";
+            if (!flags.contains(CompatibilityFlags.REMOVE_NONE_EXISTING_ARRAY_ELEMENT))
+                requireExists(path, field + "." + index);
+
+            BsonString array = new BsonString("$" + field);
+            BsonDocument size = new BsonDocument("$max", new BsonArray(Arrays.asList(new BsonInt32(1), new BsonDocument("$size", array))));
+            BsonValue remaining = new BsonDocument("$slice", new BsonArray(Arrays.<BsonValue>asList(array, new BsonInt32(index + 1), size)));
+            if (index > 0) {
+                BsonValue head = new BsonDocument("$slice", new BsonArray(Arrays.<BsonValue>asList(array, new BsonInt32(index))));
+                remaining = new BsonDocument("$concatArrays", new BsonArray(Arrays.asList(head, remaining)));
+            }
+            pipeline(new BsonDocument("$set", new BsonDocument(field, remaining)));
+            written.add(arrayPath);
+            return null;
+        }
+
+        private String moveOrCopy(Operation operation, JsonPointer from, JsonPointer to) {
+            if (from.isRoot() || to.isRoot() || hasArrayIndex(from) || hasArrayIndex(to))
+                return "only values addressed by field names can be moved or copied";
+            if (operation == Operation.MOVE && from.isPrefixOf(to))
+                return "a value can't be moved into itself";
+            String fromField = fieldPath(from);
+            String toField = fieldPath(to);
+            if (fromField == null || toField == null)
+                return "the path can't be expressed as a field path";
+            requireExists(from, fromField);
+            pipeline(new BsonDocument("$set", new BsonDocument(toField, new BsonString("$" + fromField))));
+            written.add(to);
+            if (operation == Operation.MOVE) {
+                pipeline(new BsonDocument("$unset", new BsonString(fromField)));
+                written.add(from);
+            }
+            return null;
+        }
+
+        private void requireExists(JsonPointer path, String field) {
+            if (!isWritten(path))
+                conditions.add(new BsonDocument(field, new BsonDocument("$exists", BsonBoolean.TRUE)));
+        }
+
+        private boolean isWritten(JsonPointer path) {
+            for (JsonPointer pointer : written) {
+                if (pointer.overlaps(path)) return true;
+            }
+            return false;
+        }
+
+        private void operator(String operator, String field, BsonValue value) {
+            if (pipeline != null || conflicts(field))
+                flush();
+            if (update == null)
+                update = new BsonDocument();
+            if (!update.containsKey(operator))
+                update.put(operator, new BsonDocument());
+            update.getDocument(operator).put(field, value);
+            updatedFields.add(field);
+        }
+
+        private boolean conflicts(String field) {
+            for (String updated : updatedFields) {
+                if (updated.equals(field) || field.startsWith(updated + ".") || updated.startsWith(field + "."))
+                    return true;
+            }
+            return false;
+        }
+
+        private void pipeline(BsonDocument stage) {
+            if (update != null)
+                flush();
+            if (pipeline == null)
+                pipeline = new ArrayList<BsonDocument>();
+            pipeline.add(stage);
+        }
+
+        private void flush() {
+            if (update != null)
+                stages.add(new Stage(update, null));
+            if (pipeline != null)
+                stages.add(new Stage(null, Collections.unmodifiableList(pipeline)));
+            update = null;
+            pipeline = null;
+            updatedFields.clear();
+        }
+
+        private static BsonDocument expressionEquals(String expression, BsonValue value) {
+            BsonArray operands = new BsonArray(Arrays.asList(new BsonString(expression), new BsonDocument("$literal", value)));
+            return new BsonDocument("$expr", new BsonDocument("$eq", operands));
+        }
+
+        private static boolean hasArrayIndex(JsonPointer path) {
+            for (int i = 0; i < path.size(); i++) {
+                if (path.get(i).isArrayIndex()) return true;
+            }
+            return false;
+        }
+
+        /** Returns the dotted field path for a pointer, or {@code null} if the pointer can't be expressed as one. */
+        private static String fieldPath(JsonPointer path) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < path.size(); i++) {
+                String token = fieldPath(path.get(i));
+                if (token == null)
+                    return null;
+                if (i > 0) sb.append('.');
+                sb.append(token);
+            }
+            return sb.toString();
+        }
+
+        /** Returns the field name for a reference token, or {@code null} if it can't be part of a field path. */
+        private static String fieldPath(JsonPointer.RefToken token) {
+            String field = token.getField();
+            if (field.isEmpty() || field.indexOf('.') >= 0 || field.startsWith("$") || field.indexOf('\0') >= 0)
+                return null;
+            return field;
+        }
+    }
+}
@@ -36,5 +36,7 @@ public class NoopProcessor implements BsonPatchProcessor {
     @Override public void move(JsonPointer fromPath, JsonPointer toPath) {}
     @Override public void copy(JsonPointer fromPath, JsonPointer toPath) {}
     @Override public void test(JsonPointer path, BsonValue value) {}
+    @Override public void testHash(JsonPointer path, long hash, int size) {}
+    @Override public int arraySize(JsonPointer path) { return 0; }
 
 }
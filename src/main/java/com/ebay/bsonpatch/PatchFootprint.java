@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonValue;
+
+/**
+ * The subtrees of a document a patch reads and writes, computed from the patch alone.
+ *
+ * <p>Adding or removing an array element shifts the indexes of the elements after it, so such operations
+ * write the whole array. Without the document, a numeric last reference token can't be told apart from a
+ * numeric field name, so it is conservatively assumed to address an array element. When wildcards are allowed,
+ * paths keep their {@code *} tokens, which overlap every sibling.
+ */
+final class PatchFootprint {
+
+    private final List<JsonPointer> reads;
+    private final List<JsonPointer> writes;
+    private final boolean wildcards;
+
+    private PatchFootprint(List<JsonPointer> reads, List<JsonPointer> writes, boolean wildcards) {
+        this.reads = Collections.unmodifiableList(reads);
+        this.writes = Collections.unmodifiableList(writes);
+        this.wildcards = wildcards;
+    }
+
+    static PatchFootprint of(BsonArray patch, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        List<JsonPointer> reads = new ArrayList<JsonPointer>();
+        List<JsonPointer> writes = new ArrayList<JsonPointer>();
+        for (BsonValue node : patch) {
+            collect(BsonPatch.parseOperation(node, flags), reads, writes);
+        }
+        return new PatchFootprint(reads, writes, flags.contains(CompatibilityFlags.ALLOW_WILDCARD_PATHS));
+    }
+
+    /** Adds the subtrees a single operation reads and writes to the given lists. */
+    static void collect(Diff operation, List<JsonPointer> reads, List<JsonPointer> writes) {
+        JsonPointer path = operation.getPath();
+        switch (operation.getOperation()) {
+            case TEST:
+                reads.add(path);
+                break;
+            case REPLACE:
+                writes.add(path);
+                break;
+            case ADD:
+            case REMOVE:
+                writes.add(shiftedContainer(path));
+                break;
+            case MOVE:
+                writes.add(shiftedContainer(path));
+                writes.add(shiftedContainer(operation.getToPath()));
+                break;
+            case COPY:
+                reads.add(path);
+                writes.add(shiftedContainer(operation.getToPath()));
+                break;
+        }
+    }
+
+    /** Returns the subtree written by inserting or removing a value at a path. */
+    static JsonPointer shiftedContainer(JsonPointer path) {
+        return !path.isRoot() && path.last().isArrayIndex() ? path.getParent() : path;
+    }
+
+    List<JsonPointer> getReads() {
+        return reads;
+    }
+
+    List<JsonPointer> getWrites() {
+        return writes;
+    }
+
+    boolean hasWildcards() {
+        return wildcards;
+    }
+
+    /**
+     * Returns the subtrees read or written, none of which contains another. The elements a wildcard matches
+     * aren't known without the document, so the whole array is returned for it.
+     */
+    List<JsonPointer> getTouched() {
+        List<JsonPointer> touched = new ArrayList<JsonPointer>(reads.size() + writes.size());
+        touched.addAll(subtrees(reads));
+        touched.addAll(subtrees(writes));
+        return covering(touched);
+    }
+
+    /** Returns the subtrees written, none of which contains another, with arrays in place of wildcards. */
+    List<JsonPointer> getWrittenSubtrees() {
+        return covering(subtrees(writes));
+    }
+
+    private List<JsonPointer> subtrees(List<JsonPointer> paths) {
+        List<JsonPointer> subtrees = new ArrayList<JsonPointer>(paths.size());
+        for (JsonPointer path : paths) {
+            int wildcard = wildcards ? path.indexOfWildcard() : -1;
+            subtrees.add(wildcard < 0 ? path : new JsonPointer(path.decompose().subList(0, wildcard)));
+        }
+        return subtrees;
+    }
+
+    /**
+     * Returns the paths among the given ones that aren't below another one, ordered by reference tokens.
+     * The given list is sorted in the process.
+     */
+    static List<JsonPointer> covering(List<JsonPointer> paths) {
+        // ancestors sort right before their descendants
+        Collections.sort(paths, TOKEN_ORDER);
+        List<JsonPointer> covering = new ArrayList<JsonPointer>();
+        JsonPointer last = null;
+        for (JsonPointer path : paths) {
+            if (last == null || !last.isPrefixOf(path)) {
+                covering.add(path);
+                last = path;
+            }
+        }
+        return covering;
+    }
+
+    private static final Comparator<JsonPointer> TOKEN_ORDER = new Comparator<JsonPointer>() {
+        @Override
+        public int compare(JsonPointer a, JsonPointer b) {
+            int size = Math.min(a.size(), b.size());
+            for (int i = 0; i < size; i++) {
+                int c = a.get(i).getField().compareTo(b.get(i).getField());
+                if (c != 0) return c;
+            }
+            return a.size() - b.size();
+        }
+    };
+
+    /** Indicates whether applying the patches in either order could give different results. */
+    boolean overlaps(PatchFootprint other) {
+        // footprints are built with the same flags
+        for (JsonPointer write : writes) {
+            if (overlapsAny(write, other.writes) || overlapsAny(write, other.reads)) return true;
+        }
+        for (JsonPointer read : reads) {
+            if (overlapsAny(read, other.writes)) return true;
+        }
+        return false;
+    }
+
+    private boolean overlapsAny(JsonPointer path, List<JsonPointer> paths) {
+        for (JsonPointer other : paths) {
+            if (overlaps(path, other)) return true;
+        }
+        return false;
+    }
+
+    /** Indicates whether one path is a prefix of the other, a wildcard matching any token. */
+    private boolean overlaps(JsonPointer path, JsonPointer other) {
+        if (!wildcards) return path.overlaps(other);
+        int size = Math.min(path.size(), other.size());
+        for (int i = 0; i < size; i++) {
+            if (!matches(path.get(i), other.get(i))) return false;
+        }
+        return true;
+    }
+
+    static boolean matches(JsonPointer.RefToken token, JsonPointer.RefToken other) {
+        return token.equals(other) || JsonPointer.WILDCARD.equals(token.getField()) || JsonPointer.WILDCARD.equals(other.getField());
+    }
+
+    @Override
+    public String toString() {
+        return "PatchFootprint[reads=" + reads + ", writes=" + writes + "]";
+    }
+}
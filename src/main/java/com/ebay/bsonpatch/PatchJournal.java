@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * An append-only history of a document, kept as patches in their {@link CompactBsonPatch compact form} in
+ * memory-mapped segment files, with a full copy of the document written every {@code checkpointInterval}
+ * versions. Version 0 is the document the journal was created with, each appended patch adds a version.
+ * <pre>
+ *      PatchJournal journal = PatchJournal.create(directory, document, 100);
+ *      long version = journal.append(BsonDiff.asBson(document, updated));
+ *      BsonValue old = journal.read(version - 1);
+ * </pre>
+ * Reading a version decodes the closest checkpoint at or before it and applies the patches that follow in place,
+ * straight from the mapped segments, so the cost is bounded by the checkpoint interval rather than the length of
+ * the history. An index from version to record is kept in memory and rebuilt by scanning the segments on
+ * {@link #open(Path, int)}.
+ * <p>
+ * Each record is a kind byte, the length of its payload and its version, followed by the payload. The kind is
+ * written last, and the byte after the record is reset to the end marker before it, so a record torn by a crash
+ * of the process reads as the end of the journal, and is overwritten by the next append. Appending doesn't
+ * force the segments to disk, though, and the operating system may write the pages of a record in any order:
+ * only versions appended before a call to {@link #flush()} survive a crash of the machine. Once closed, the
+ * journal can't be used any more. Instances aren't thread safe.
+ *
+ * @since 0.4.13
+ */
+public final class PatchJournal implements Closeable {
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final byte END = 0;
+    private static final byte PATCH = 1;
+    private static final byte CHECKPOINT = 2;
+    private static final int HEADER_SIZE = 1 + 4 + 8;
+    private static final String SUFFIX = ".journal";
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    private final Path directory;
+    private final int checkpointInterval;
+    private final int segmentSize;
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private final TreeMap<Long, Long> checkpoints = new TreeMap<Long, Long>();
+    private long[] patches = new long[16];
+    private long version = -1;
+    private int position;
+    private BsonValue head;
+    private boolean closed;
+
+    private PatchJournal(Path directory, int checkpointInterval, int segmentSize) {
+        if (checkpointInterval < 1) throw new IllegalArgumentException("Checkpoint interval must be positive");
+        this.directory = directory;
+        this.checkpointInterval = checkpointInterval;
+        this.segmentSize = segmentSize;
+    }
+
+    public static PatchJournal create(Path directory, BsonValue base, int checkpointInterval) throws IOException {
+        return create(directory, base, checkpointInterval, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Starts a new journal.
+     *
+     * @param directory The directory holding the segment files; it is created if needed.
+     * @param base The document at version 0. The journal works on a copy of it.
+     * @param checkpointInterval The number of patches between full copies of the document.
+     * @param segmentSize The size of segment files, in bytes.
+     * @return The journal.
+     * @throws IOException The directory already holds a journal, or the first segment couldn't be created.
+     */
+    public static PatchJournal create(Path directory, BsonValue base, int checkpointInterval, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        if (!listSegments(directory).isEmpty()) throw new FileAlreadyExistsException(directory.toString(), null, "Journal exists");
+        PatchJournal journal = new PatchJournal(directory, checkpointInterval, segmentSize);
+        journal.head = CopyingApplyProcessor.deepCopy(base);
+        journal.writeCheckpoint(0);
+        journal.version = 0;
+        return journal;
+    }
+
+    public static PatchJournal open(Path directory, int checkpointInterval) throws IOException {
+        return open(directory, checkpointInterval, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens an existing journal, indexing its records.
+     *
+     * @param directory The directory holding the segment files.
+     * @param checkpointInterval The number of patches between full copies of the document from now on.
+     * @param segmentSize The size of new segment files, in bytes.
+     * @return The journal, positioned after its last version.
+     * @throws IOException The segments couldn't be read, or they don't hold a valid journal.
+     */
+    public static PatchJournal open(Path directory, int checkpointInterval, int segmentSize) throws IOException {
+        PatchJournal journal = new PatchJournal(directory, checkpointInterval, segmentSize);
+        List<Path> files = listSegments(directory);
+        if (files.isEmpty()) throw new IOException("No journal in " + directory);
+        for (int i = 0; i < files.size(); i++) {
+            if (!files.get(i).getFileName().toString().equals(segmentName(i)))
+                throw new IOException("Missing journal segment " + segmentName(i) + " in " + directory);
+            journal.segments.add(map(files.get(i), Files.size(files.get(i)), false));
+            journal.position = journal.index(i);
+        }
+        if (journal.version < 0) throw new IOException("Journal in " + directory + " has no base checkpoint");
+        journal.head = journal.read(journal.version);
+        return journal;
+    }
+
+    /** Returns the latest version. */
+    public long version() {
+        checkOpen();
+        return version;
+    }
+
+    /**
+     * Appends a patch, creating a new version.
+     *
+     * @param patch The patch, which must apply to the latest version.
+     * @return The new version.
+     * @throws InvalidBsonPatchException The patch is malformed.
+     * @throws BsonPatchApplicationException The patch doesn't apply to the latest version; nothing is appended.
+     * @throws IOException A new segment couldn't be created.
+     * @throws IllegalStateException The journal is closed.
+     */
+    public long append(BsonArray patch) throws IOException {
+        checkOpen();
+        byte[] encoded = CompactBsonPatch.encode(patch);
+        long next = version + 1;
+        long location;
+        try {
+            head = CompactBsonPatch.applyInPlace(ByteBuffer.wrap(encoded), head, CompatibilityFlags.defaults());
+            location = write(PATCH, next, encoded);
+        } catch (RuntimeException e) {
+            // the patch may have been partly applied
+            head = read(version);
+            throw e;
+        } catch (IOException e) {
+            head = read(version);
+            throw e;
+        }
+        if (next == patches.length) patches = Arrays.copyOf(patches, patches.length * 2);
+        patches[(int) next] = location;
+        version = next;
+        if (next % checkpointInterval == 0) writeCheckpoint(next);
+        return next;
+    }
+
+    /**
+     * Reconstructs a version of the document.
+     *
+     * @param version The version, between 0 and {@link #version()}.
+     * @return A new copy of the document at that version.
+     */
+    public BsonValue read(long version) {
+        checkOpen();
+        if (version < 0 || version > this.version) throw new IllegalArgumentException("No version " + version);
+        Map.Entry<Long, Long> checkpoint = checkpoints.floorEntry(version);
+        BsonValue document = CODEC.decode(new BsonBinaryReader(record(checkpoint.getValue())), DecoderContext.builder().build()).get("");
+        for (long v = checkpoint.getKey() + 1; v <= version; v++) {
+            document = CompactBsonPatch.applyInPlace(record(patches[(int) v]), document, CompatibilityFlags.defaults());
+        }
+        return document;
+    }
+
+    /** Writes the mapped segments back to their files, making every version appended so far durable. */
+    public void flush() {
+        checkOpen();
+        for (MappedByteBuffer segment : segments) segment.force();
+    }
+
+    /** Flushes the journal and releases it. Closing a closed journal has no effect. */
+    @Override
+    public void close() {
+        if (closed) return;
+        flush();
+        closed = true;
+        segments.clear();
+        checkpoints.clear();
+        head = null;
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("Journal is closed");
+    }
+
+    private void writeCheckpoint(long version) throws IOException {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(buffer), new BsonDocument("", head), EncoderContext.builder().build());
+        checkpoints.put(version, write(CHECKPOINT, version, buffer.toByteArray()));
+    }
+
+    private long write(byte kind, long version, byte[] payload) throws IOException {
+        int size = HEADER_SIZE + payload.length;
+        if (segments.isEmpty() || position + size > segments.get(segments.size() - 1).capacity()) {
+            Path file = directory.resolve(segmentName(segments.size()));
+            segments.add(map(file, Math.max(segmentSize, size), true));
+            position = 0;
+        }
+        ByteBuffer segment = segments.get(segments.size() - 1).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        // ends the journal after this record, hiding whatever a torn record left behind there
+        if (position + size < segment.capacity()) segment.put(position + size, END);
+        segment.position(position + 1);
+        segment.putInt(payload.length);
+        segment.putLong(version);
+        segment.put(payload);
+        segment.put(position, kind);
+        long location = (long) (segments.size() - 1) << 32 | position;
+        position += size;
+        return location;
+    }
+
+    /** Returns the payload of the record at {@code location}, without copying it. */
+    private ByteBuffer record(long location) {
+        ByteBuffer segment = segments.get((int) (location >>> 32)).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int offset = (int) location;
+        int length = segment.getInt(offset + 1);
+        segment.position(offset + HEADER_SIZE).limit(offset + HEADER_SIZE + length);
+        return segment.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Indexes the records of a segment, returning where the next record would go. */
+    private int index(int segmentIndex) throws IOException {
+        ByteBuffer segment = segments.get(segmentIndex).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segment.capacity() && segment.get(offset) != END) {
+            byte kind = segment.get(offset);
+            int length = segment.getInt(offset + 1);
+            long recordVersion = segment.getLong(offset + 5);
+            if (length < 0 || offset + HEADER_SIZE + length > segment.capacity())
+                throw new IOException("Corrupt journal record at " + segmentName(segmentIndex) + ":" + offset);
+            long location = (long) segmentIndex << 32 | offset;
+            if (kind == PATCH && recordVersion == version + 1 && version >= 0) {
+                if (recordVersion == patches.length) patches = Arrays.copyOf(patches, patches.length * 2);
+                patches[(int) recordVersion] = location;
+                version = recordVersion;
+            } else if (kind == CHECKPOINT && recordVersion == Math.max(version, 0)) {
+                checkpoints.put(recordVersion, location);
+                version = recordVersion;
+            } else {
+                throw new IOException("Unexpected journal record for version " + recordVersion + " at "
+                        + segmentName(segmentIndex) + ":" + offset);
+            }
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    private static MappedByteBuffer map(Path file, long size, boolean create) throws IOException {
+        FileChannel channel = create
+                ? FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static String segmentName(int index) {
+        return String.format("%08d%s", index, SUFFIX);
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        if (!Files.isDirectory(directory)) return files;
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX);
+        try {
+            for (Path file : stream) files.add(file);
+        } finally {
+            stream.close();
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
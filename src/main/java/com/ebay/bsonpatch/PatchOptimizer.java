@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonValue;
+
+/**
+ * Removes operations whose effect doesn't show in the result of a patch: writes overwritten or removed by a
+ * later operation before anything else touches them, and tests implied by an earlier test or write of the
+ * same value.
+ *
+ * <p>The optimized patch produces the same document as the original wherever the original applies
+ * successfully. It may however apply to documents the original would have failed on, for instance when a
+ * removed replace was the only operation requiring its path to exist.
+ */
+final class PatchOptimizer {
+
+    private PatchOptimizer() {}
+
+    static BsonArray optimize(BsonArray patch, EnumSet<CompatibilityFlags> flags) throws InvalidBsonPatchException {
+        List<Diff> operations = new ArrayList<Diff>(patch.size());
+        for (BsonValue node : patch) {
+            Diff operation = BsonPatch.parseOperation(node, flags);
+            // which elements a wildcard matches isn't known without the document, so such patches are left alone
+            if (BsonPatch.isWildcard(operation, flags)) return patch.clone();
+            operations.add(operation);
+        }
+
+        boolean[] dead = new boolean[operations.size()];
+        removeOverwrittenWrites(operations, dead, flags);
+        removeImpliedTests(operations, dead);
+
+        BsonArray result = new BsonArray();
+        for (int i = 0; i < operations.size(); i++) {
+            if (!dead[i]) result.add(patch.get(i));
+        }
+        return result;
+    }
+
+    /** Walks the patch backwards, checking each write against the nearest later operation touching it. */
+    private static void removeOverwrittenWrites(List<Diff> operations, boolean[] dead, EnumSet<CompatibilityFlags> flags) {
+        NearestTrie later = new NearestTrie();
+        for (int i = operations.size() - 1; i >= 0; i--) {
+            Diff operation = operations.get(i);
+            Operation op = operation.getOperation();
+            if (op == Operation.ADD || op == Operation.REMOVE || op == Operation.REPLACE) {
+                JsonPointer written = op == Operation.REPLACE ? operation.getPath() : PatchFootprint.shiftedContainer(operation.getPath());
+                int next = later.nearest(written);
+                if (next >= 0 && overwrites(operations.get(next), written, operation, flags)) {
+                    dead[i] = true;
+                    continue;
+                }
+            }
+            later.put(operation, i);
+        }
+    }
+
+    /**
+     * Indicates whether an operation discards whatever an earlier write did at a path, without reading it or
+     * depending on it to apply.
+     *
+     * @param path The path written, which is the whole array when the write inserted or removed an element.
+     */
+    private static boolean overwrites(Diff operation, JsonPointer path, Diff write, EnumSet<CompatibilityFlags> flags) {
+        JsonPointer target = operation.getPath();
+        if (!target.isPrefixOf(path))
+            return false;
+        boolean shifting = !target.isRoot() && target.last().isArrayIndex();
+        boolean replaced = write.getOperation() == Operation.REPLACE;
+        // an added value may be what makes the target exist
+        boolean requiresAdd = write.getOperation() == Operation.ADD && target.equals(write.getPath());
+        switch (operation.getOperation()) {
+            case REPLACE:
+                return !requiresAdd || flags.contains(CompatibilityFlags.ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE);
+            case ADD:
+                // inserting an array element at the path would keep the value written there
+                return !shifting;
+            case REMOVE:
+                // removing the element that was replaced discards it, but an inserted one might be a field
+                if (requiresAdd && flags.contains(CompatibilityFlags.FORBID_REMOVE_MISSING_OBJECT))
+                    return false;
+                return !shifting || target.size() < path.size() || replaced;
+            default:
+                return false;
+        }
+    }
+
+    /** Walks the patch forwards, checking each test against the nearest earlier operation touching its path. */
+    private static void removeImpliedTests(List<Diff> operations, boolean[] dead) {
+        NearestTrie earlier = new NearestTrie();
+        for (int i = 0; i < operations.size(); i++) {
+            if (dead[i]) continue;
+            Diff operation = operations.get(i);
+            if (operation.getOperation() == Operation.TEST) {
+                int previous = earlier.nearest(operation.getPath());
+                if (previous >= 0 && implies(operations.get(previous), operation)) {
+                    dead[i] = true;
+                    continue;
+                }
+            }
+            earlier.put(operation, i);
+        }
+    }
+
+    /** Indicates whether a test, add or replace guarantees the value a later test expects. */
+    private static boolean implies(Diff operation, Diff test) {
+        Operation op = operation.getOperation();
+        if (op != Operation.TEST && op != Operation.ADD && op != Operation.REPLACE || operation.isHashedTest())
+            return false;
+        JsonPointer path = operation.getPath();
+        JsonPointer tested = test.getPath();
+        if (!path.isPrefixOf(tested))
+            return false;
+        for (int i = 0; i < tested.size(); i++) {
+            JsonPointer.RefToken token = tested.get(i);
+            if (token.isArrayIndex() && token.getIndex() == JsonPointer.LAST_INDEX) return false;
+        }
+        List<JsonPointer.RefToken> tokens = tested.decompose();
+        JsonPointer relative = path.size() == tested.size() ? JsonPointer.ROOT : new JsonPointer(tokens.subList(path.size(), tokens.size()));
+        try {
+            BsonValue expected = relative.evaluate(operation.getValue());
+            if (test.isHashedTest())
+                return BsonHash.matches(expected, test.getHash(), test.getSize());
+            return BsonEquality.equal(expected, test.getValue());
+        } catch (JsonPointerEvaluationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds, among the operations added so far, the one added last that touches a subtree overlapping a path.
+     */
+    private static final class NearestTrie {
+        private static final class Node {
+            final Map<JsonPointer.RefToken, Node> children = new HashMap<JsonPointer.RefToken, Node>();
+            /** Sequence number of the last operation touching exactly this subtree, or below it. */
+            int at = -1;
+            int below = -1;
+        }
+
+        private final Node root = new Node();
+        private final List<Integer> indexes = new ArrayList<Integer>();
+        private final List<JsonPointer> reads = new ArrayList<JsonPointer>(2);
+        private final List<JsonPointer> writes = new ArrayList<JsonPointer>(2);
+
+        void put(Diff operation, int index) {
+            int sequence = indexes.size();
+            indexes.add(index);
+            reads.clear();
+            writes.clear();
+            PatchFootprint.collect(operation, reads, writes);
+            for (JsonPointer path : reads) put(path, sequence);
+            for (JsonPointer path : writes) put(path, sequence);
+        }
+
+        private void put(JsonPointer path, int sequence) {
+            Node node = root;
+            for (int i = 0; i < path.size(); i++) {
+                node.below = sequence;
+                Node child = node.children.get(path.get(i));
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(path.get(i), child);
+                }
+                node = child;
+            }
+            node.below = sequence;
+            node.at = sequence;
+        }
+
+        /** Returns the index of the nearest operation overlapping the path, or -1 if there is none. */
+        int nearest(JsonPointer path) {
+            int latest = -1;
+            Node node = root;
+            for (int i = 0; i < path.size(); i++) {
+                latest = Math.max(latest, node.at);
+                node = node.children.get(path.get(i));
+                if (node == null) break;
+            }
+            if (node != null) latest = Math.max(latest, node.below);
+            return latest < 0 ? -1 : indexes.get(latest);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+/**
+ * Transforms a patch so that it applies after another patch written against the same base document, in the
+ * manner of operational transformation: array indexes are shifted past the other patch's insertions and
+ * removals, duplicate changes are dropped, and operations touching values the other patch modifies are
+ * reported as conflicts.
+ */
+final class PatchRebaser {
+
+    private static final JsonPointer REMOVED = JsonPointer.ROOT.append("removed");
+
+    private PatchRebaser() {}
+
+    /** An operation, with whether its paths address array elements, which the patch alone doesn't tell. */
+    private static final class Op {
+        final BsonDocument node;
+        final Diff diff;
+        final boolean pathInArray;
+        final boolean toPathInArray;
+
+        Op(BsonDocument node, Diff diff, boolean pathInArray, boolean toPathInArray) {
+            this.node = node;
+            this.diff = diff;
+            this.pathInArray = pathInArray;
+            this.toPathInArray = toPathInArray;
+        }
+
+        Operation operation() {
+            return diff.getOperation();
+        }
+
+        boolean hasToPath() {
+            return operation() == Operation.MOVE || operation() == Operation.COPY;
+        }
+
+        /** Returns the path this operation adds, replaces or removes a value at. */
+        JsonPointer target() {
+            return hasToPath() ? diff.getToPath() : diff.getPath();
+        }
+
+        boolean targetInArray() {
+            return hasToPath() ? toPathInArray : pathInArray;
+        }
+
+        Op withPaths(JsonPointer path, JsonPointer toPath) {
+            Diff moved = hasToPath() ? new Diff(operation(), path, toPath) : new Diff(operation(), path, diff.getValue());
+            return new Op(node, moved, pathInArray, toPathInArray);
+        }
+    }
+
+    /** An insertion or removal of an array element, which shifts the indexes of the following elements. */
+    private static final class Shift {
+        final JsonPointer array;
+        final int index;
+        final boolean insert;
+
+        Shift(JsonPointer path, boolean insert) {
+            this.array = path.getParent();
+            this.index = path.last().getIndex();
+            this.insert = insert;
+        }
+    }
+
+    static BsonArray rebase(BsonArray patch, BsonArray onto, BsonValue base, EnumSet<CompatibilityFlags> flags) {
+        List<Op> applied = analyze(onto, base, flags);
+        List<Op> rebased = new ArrayList<Op>();
+        for (Op op : analyze(patch, base, flags)) {
+            Op current = op;
+            for (int i = 0; i < applied.size() && current != null; i++) {
+                Op other = applied.get(i);
+                if (other == null) continue;
+                Op transformed = transform(current, other, true);
+                // the applied patch is carried along so that it stays relative to the same state as the next operation;
+                // a change both patches made is now part of that state, so the applied one no longer shifts or writes
+                applied.set(i, transformed != null ? transform(other, current, false) : null);
+                current = transformed;
+            }
+            if (current != null)
+                rebased.add(current);
+        }
+
+        BsonArray result = new BsonArray();
+        for (Op op : rebased) {
+            BsonDocument node = new BsonDocument();
+            node.putAll(op.node);
+            if (op.hasToPath()) {
+                node.put(Constants.FROM, new BsonString(op.diff.getPath().toString()));
+                node.put(Constants.PATH, new BsonString(op.diff.getToPath().toString()));
+            } else {
+                node.put(Constants.PATH, new BsonString(op.diff.getPath().toString()));
+            }
+            result.add(node);
+        }
+        return result;
+    }
+
+    /**
+     * Parses a patch, applying it to a copy of the base document to find out which operations address array
+     * elements.
+     */
+    private static List<Op> analyze(BsonArray patch, BsonValue base, final EnumSet<CompatibilityFlags> flags) {
+        final List<Op> ops = new ArrayList<Op>();
+        final InPlaceApplyProcessor processor = new InPlaceApplyProcessor(CopyingApplyProcessor.deepCopy(base), flags);
+        final Iterator<BsonValue> nodes = patch.iterator();
+        Iterator<Diff> operations = new Iterator<Diff>() {
+            @Override
+            public boolean hasNext() {
+                return nodes.hasNext();
+            }
+
+            @Override
+            public Diff next() {
+                BsonValue node = nodes.next();
+                Diff diff = BsonPatch.parseOperation(node, flags);
+                BsonValue document = processor.result();
+                if (BsonPatch.isWildcard(diff, flags)) {
+                    // rebased as the operations on each matched element, in the order they are applied
+                    List<JsonPointer> paths = expand(diff, processor);
+                    for (int i = 0; i < paths.size(); i++) {
+                        JsonPointer path = paths.get(diff.getOperation() == Operation.REMOVE ? paths.size() - 1 - i : i);
+                        ops.add(new Op(node.asDocument(), diff.at(path), parentIsArray(path, document), false));
+                    }
+                    return diff;
+                }
+                boolean toPathInArray = diff.getToPath() != null && parentIsArray(diff.getToPath(), document);
+                ops.add(new Op(node.asDocument(), diff, parentIsArray(diff.getPath(), document), toPathInArray));
+                return diff;
+            }
+        };
+        BsonPatch.process(operations, patch.size(), processor, flags, null);
+        return ops;
+    }
+
+    private static List<JsonPointer> expand(Diff diff, BsonPatchProcessor processor) {
+        try {
+            return BsonPatch.expandWildcards(diff.getPath(), processor);
+        } catch (JsonPointerEvaluationException e) {
+            throw new BsonPatchApplicationException(e.getMessage(), diff.getOperation(), e.getPath());
+        }
+    }
+
+    private static boolean parentIsArray(JsonPointer path, BsonValue document) {
+        if (path.isRoot()) return false;
+        try {
+            return path.getParent().evaluate(document).isArray();
+        } catch (JsonPointerEvaluationException e) {
+            return false; // the operation fails when applied, which is reported then
+        }
+    }
+
+    private static List<Shift> shifts(Op op) {
+        List<Shift> shifts = new ArrayList<Shift>(2);
+        switch (op.operation()) {
+            case ADD:
+            case COPY:
+                if (op.targetInArray()) shifts.add(new Shift(op.target(), true));
+                break;
+            case REMOVE:
+                if (op.pathInArray) shifts.add(new Shift(op.diff.getPath(), false));
+                break;
+            case MOVE:
+                if (op.pathInArray) shifts.add(new Shift(op.diff.getPath(), false));
+                if (op.toPathInArray) shifts.add(new Shift(op.diff.getToPath(), true));
+                break;
+            default:
+                break;
+        }
+        return shifts;
+    }
+
+    /** Returns the paths at which an operation changes the document, other than by shifting array elements. */
+    private static List<JsonPointer> writes(Op op) {
+        List<JsonPointer> writes = new ArrayList<JsonPointer>(2);
+        switch (op.operation()) {
+            case TEST:
+                break;
+            case REMOVE:
+                if (!op.pathInArray) writes.add(op.diff.getPath());
+                break;
+            case MOVE:
+                if (!op.pathInArray) writes.add(op.diff.getPath());
+                writes.add(op.diff.getToPath());
+                break;
+            default:
+                writes.add(op.target());
+        }
+        return writes;
+    }
+
+    /**
+     * Transforms {@code op} so that it applies after {@code other}, both being relative to the same state.
+     *
+     * @param detect Whether to check for conflicts; when {@code false}, {@code op} is the operation that was
+     *      applied first and wins ties between insertions at the same index.
+     * @return The transformed operation, or {@code null} if {@code other} already made the same change.
+     */
+    private static Op transform(Op op, Op other, boolean detect) {
+        JsonPointer path = op.diff.getPath();
+        JsonPointer toPath = op.diff.getToPath();
+        boolean pathIsInsert = op.operation() == Operation.ADD && op.pathInArray;
+        boolean toPathIsInsert = op.hasToPath() && op.toPathInArray;
+        for (Shift shift : shifts(other)) {
+            path = shift(path, shift, pathIsInsert, !detect);
+            if (toPath != null)
+                toPath = shift(toPath, shift, toPathIsInsert, !detect);
+        }
+
+        if (path == REMOVED || toPath == REMOVED) {
+            if (op.operation() == Operation.REMOVE && other.operation() == Operation.REMOVE && op.diff.getPath().equals(other.diff.getPath()))
+                return null;
+            if (detect)
+                throw conflict("Value was removed by the other patch", op);
+            return op;
+        }
+        if (!detect)
+            return op.withPaths(path, toPath);
+
+        if (op.operation() == Operation.MOVE && op.pathInArray && !toPath.equals(op.diff.getToPath()))
+            throw conflict("Move within an array modified by the other patch", op);
+        if (sameChange(op, other))
+            return null;
+        for (JsonPointer written : writes(other)) {
+            if (written.overlaps(path) || (toPath != null && written.overlaps(toPath)))
+                throw conflict("Value was modified by the other patch", op);
+        }
+        return op.withPaths(path, toPath);
+    }
+
+    private static JsonPointer shift(JsonPointer path, Shift shift, boolean isInsert, boolean first) {
+        int depth = shift.array.size();
+        if (path.size() <= depth || !shift.array.isPrefixOf(path))
+            return path;
+        JsonPointer.RefToken token = path.get(depth);
+        if (!token.isArrayIndex() || token.getIndex() == JsonPointer.LAST_INDEX || shift.index == JsonPointer.LAST_INDEX)
+            return path;
+
+        int index = token.getIndex();
+        boolean inserting = isInsert && path.size() == depth + 1;
+        if (shift.insert) {
+            if (index > shift.index || (index == shift.index && !(inserting && first)))
+                return withIndex(path, depth, index + 1);
+        } else {
+            if (index > shift.index)
+                return withIndex(path, depth, index - 1);
+            if (index == shift.index && !inserting)
+                return REMOVED;
+        }
+        return path;
+    }
+
+    private static JsonPointer withIndex(JsonPointer path, int position, int index) {
+        List<JsonPointer.RefToken> tokens = path.decompose();
+        tokens.set(position, new JsonPointer.RefToken(Integer.toString(index)));
+        return new JsonPointer(tokens);
+    }
+
+    /** Indicates whether both operations set the same value at the same place, or remove the same field. */
+    private static boolean sameChange(Op op, Op other) {
+        if ((op.operation() == Operation.ADD && op.targetInArray()) || !op.target().equals(other.target()))
+            return false;
+        switch (op.operation()) {
+            case REMOVE:
+                return other.operation() == Operation.REMOVE;
+            case ADD:
+            case REPLACE:
+                return (other.operation() == Operation.ADD || other.operation() == Operation.REPLACE)
+                        && BsonEquality.equal(op.diff.getValue(), other.diff.getValue());
+            default:
+                return false;
+        }
+    }
+
+    private static BsonPatchConflictException conflict(String message, Op op) {
+        return new BsonPatchConflictException(message, op.operation(), op.target());
+    }
+}
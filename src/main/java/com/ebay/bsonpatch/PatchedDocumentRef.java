@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bson.BsonArray;
+import org.bson.BsonValue;
+
+/**
+ * A reference to a document shared by many threads and updated with patches.
+ *
+ * <p>Readers call {@link #get()} and receive a consistent snapshot without locking. Writers call
+ * {@link #apply(BsonArray)}: the patch is applied copy-on-write, so only the containers on the paths it
+ * modifies are copied and every other subtree is shared with the previous version, and the new version is
+ * published atomically. If another writer published first, the patch is applied again to the newer version.
+ *
+ * <pre>
+ *      PatchedDocumentRef ref = new PatchedDocumentRef(document);
+ *      ref.apply(patch);              // writers
+ *      BsonValue snapshot = ref.get(); // readers
+ * </pre>
+ *
+ * Versions share structure, so snapshots and the initial document must be treated as read-only; use
+ * {@link BsonPatch#apply(BsonArray, BsonValue)} to derive a modified copy of a snapshot.
+ *
+ * @since 0.4.13
+ */
+public final class PatchedDocumentRef {
+
+    private final AtomicReference<BsonValue> current;
+    private final EnumSet<CompatibilityFlags> flags;
+
+    public PatchedDocumentRef(BsonValue initial) {
+        this(initial, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * @param initial The initial version of the document, which the reference takes ownership of.
+     * @param flags The flags patches are applied with.
+     */
+    public PatchedDocumentRef(BsonValue initial, EnumSet<CompatibilityFlags> flags) {
+        if (initial == null) throw new IllegalArgumentException("initial document can't be null");
+        this.current = new AtomicReference<BsonValue>(initial);
+        this.flags = EnumSet.copyOf(flags);
+    }
+
+    /** Returns the current version of the document. */
+    public BsonValue get() {
+        return current.get();
+    }
+
+    /**
+     * Applies a patch to the current version and publishes the result.
+     *
+     * @param patch The patch to apply.
+     * @return The version the patch produced.
+     * @throws BsonPatchApplicationException The patch can't be applied to the current version, which is left
+     *      unchanged.
+     */
+    public BsonValue apply(BsonArray patch) throws BsonPatchApplicationException {
+        while (true) {
+            BsonValue base = current.get();
+            BsonValue result = applyTo(patch, base);
+            if (current.compareAndSet(base, result))
+                return result;
+        }
+    }
+
+    /**
+     * Applies a patch only if the current version is still {@code expected}, typically a snapshot the patch
+     * was computed against.
+     *
+     * @return The version the patch produced, or {@code null} if the document was changed in the meantime.
+     * @throws BsonPatchApplicationException The patch can't be applied to {@code expected}.
+     */
+    public BsonValue compareAndApply(BsonValue expected, BsonArray patch) throws BsonPatchApplicationException {
+        if (current.get() != expected)
+            return null;
+        BsonValue result = applyTo(patch, expected);
+        return current.compareAndSet(expected, result) ? result : null;
+    }
+
+    private BsonValue applyTo(BsonArray patch, BsonValue base) {
+        BsonPatchMetrics metrics = MetricsHolder.enabled();
+        CopyOnWriteApplyProcessor processor = new CopyOnWriteApplyProcessor(base, flags);
+        processor.setMetrics(metrics);
+        BsonPatch.process(patch, processor, flags, metrics);
+        return processor.result();
+    }
+
+    @Override
+    public String toString() {
+        return "PatchedDocumentRef[" + current.get() + "]";
+    }
+}
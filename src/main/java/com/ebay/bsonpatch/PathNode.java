@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+/**
+ * A path built up while walking a document, linked to its parent so that descending a level costs one small
+ * object instead of a copy of every token above it. The {@link JsonPointer} is only materialized, and then
+ * kept, when something asks for it, typically because an operation is emitted at this path.
+ */
+final class PathNode {
+    static final PathNode ROOT = new PathNode(null, null, -1, 0);
+
+    private final PathNode parent;
+    private final String field;
+    private final int index;
+    private final int depth;
+    private JsonPointer pointer;
+
+    private PathNode(PathNode parent, String field, int index, int depth) {
+        this.parent = parent;
+        this.field = field;
+        this.index = index;
+        this.depth = depth;
+        if (parent == null) this.pointer = JsonPointer.ROOT;
+    }
+
+    PathNode child(String field) {
+        return new PathNode(this, field, -1, depth + 1);
+    }
+
+    PathNode child(int index) {
+        return new PathNode(this, null, index, depth + 1);
+    }
+
+    /** Returns the number of reference tokens in this path. */
+    int depth() {
+        return depth;
+    }
+
+    /** Returns the path one level up, or {@code null} for the root. */
+    PathNode parent() {
+        return parent;
+    }
+
+    /** Indicates whether the last reference token of this path is the given one, without building it. */
+    boolean hasToken(String token) {
+        if (field != null) return field.equals(token);
+        // the canonical decimal form of the index, compared digit by digit from the end
+        int value = index;
+        int i = token.length();
+        do {
+            if (--i < 0 || token.charAt(i) != '0' + value % 10) return false;
+            value /= 10;
+        } while (value > 0);
+        return i == 0;
+    }
+
+    JsonPointer toPointer() {
+        if (pointer == null) {
+            // built on the parent's pointer, which siblings then share
+            JsonPointer above = parent.toPointer();
+            pointer = field != null ? above.append(field) : above.append(index);
+        }
+        return pointer;
+    }
+
+    @Override
+    public String toString() {
+        return toPointer().toString();
+    }
+}
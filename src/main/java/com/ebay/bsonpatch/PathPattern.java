@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A glob over JSON pointers. Patterns use JSON pointer syntax in which the reference token
+ * {@code *} matches exactly one token and {@code **} matches any number of tokens (including none),
+ * e.g. {@code /audit}, {@code /items/*}{@code /cache} or {@code /**}{@code /blob}.
+ */
+final class PathPattern {
+    private static final String ANY_TOKEN = "*";
+    private static final String ANY_TOKENS = "**";
+
+    private final String pattern;
+    private final String[] tokens;
+    private final boolean anyTokens;
+
+    private PathPattern(String pattern, String[] tokens) {
+        this.pattern = pattern;
+        this.tokens = tokens;
+        this.anyTokens = Arrays.asList(tokens).contains(ANY_TOKENS);
+    }
+
+    /**
+     * Parses a pattern.
+     *
+     * @param pattern The pattern, in JSON pointer syntax.
+     * @return The parsed pattern.
+     * @throws IllegalArgumentException The pattern isn't a valid JSON pointer.
+     */
+    static PathPattern compile(String pattern) throws IllegalArgumentException {
+        List<JsonPointer.RefToken> refTokens = JsonPointer.parse(pattern).decompose();
+        String[] tokens = new String[refTokens.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = refTokens.get(i).getField();
+        }
+        return new PathPattern(pattern, tokens);
+    }
+
+    boolean matches(JsonPointer path) {
+        return matches(path, 0, 0);
+    }
+
+    /**
+     * Matches the path leading to a node, walking up from the node so that no {@link JsonPointer} needs
+     * to be built.
+     */
+    boolean matches(PathNode path) {
+        if (!anyTokens && path.depth() != tokens.length) return false;
+        return matches(path, tokens.length);
+    }
+
+    // matches the tokens of the pattern before patternEnd against the path leading to node
+    private boolean matches(PathNode node, int patternEnd) {
+        while (patternEnd > 0) {
+            String token = tokens[patternEnd - 1];
+            if (ANY_TOKENS.equals(token)) {
+                for (PathNode ancestor = node; ancestor != null; ancestor = ancestor.parent()) {
+                    if (matches(ancestor, patternEnd - 1)) return true;
+                }
+                return false;
+            }
+            if (node.depth() == 0) return false;
+            if (!ANY_TOKEN.equals(token) && !node.hasToken(token)) return false;
+            node = node.parent();
+            patternEnd--;
+        }
+        return node.depth() == 0;
+    }
+
+    private boolean matches(JsonPointer path, int pathIdx, int patternIdx) {
+        while (patternIdx < tokens.length) {
+            String token = tokens[patternIdx];
+            if (ANY_TOKENS.equals(token)) {
+                for (int i = pathIdx; i <= path.size(); i++) {
+                    if (matches(path, i, patternIdx + 1)) return true;
+                }
+                return false;
+            }
+            if (pathIdx >= path.size()) return false;
+            if (!ANY_TOKEN.equals(token) && !token.equals(path.get(pathIdx).getField())) return false;
+            pathIdx++;
+            patternIdx++;
+        }
+        return pathIdx == path.size();
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+
+/**
+ * Longest common subsequence of two arrays holding scalars of a single type (int32, int64, double, date-time or
+ * string), computed on {@code long} keys instead of {@link BsonValue}s.
+ *
+ * <p>Each element is mapped to a key that is equal for two elements exactly when the elements are equal: the
+ * value itself for integers and dates, the raw bits for doubles, matching {@code BsonDouble.equals}, and an
+ * interned id for strings. The subsequence is found with the same divide-and-conquer variant of Myers' algorithm
+ * as {@link org.apache.commons.collections4.ListUtils#longestCommonSubsequence(List, List)}, so both return the same
+ * subsequence when several exist.
+ */
+final class PrimitiveArrayLcs {
+
+    private final long[] first;
+    private final long[] second;
+    private final int[] vDown;
+    private final int[] vUp;
+    private final List<Integer> kept = new ArrayList<Integer>();
+    private long comparisons;
+
+    private PrimitiveArrayLcs(long[] first, long[] second) {
+        this.first = first;
+        this.second = second;
+        int size = first.length + second.length + 2;
+        this.vDown = new int[size];
+        this.vUp = new int[size];
+    }
+
+    /**
+     * Prepares the comparison of two arrays, returning {@code null} if they don't both hold scalars of one
+     * supported type.
+     */
+    static PrimitiveArrayLcs of(BsonArray source, BsonArray target) {
+        BsonType type = commonType(source, target);
+        if (type == null)
+            return null;
+        Map<String, Long> ids = type == BsonType.STRING ? new HashMap<String, Long>() : null;
+        return new PrimitiveArrayLcs(keys(source, type, ids), keys(target, type, ids));
+    }
+
+    /** Returns the longest common subsequence, as elements of the source array. */
+    List<BsonValue> compute(BsonArray source) {
+        kept.clear();
+        buildScript(0, first.length, 0, second.length);
+        List<BsonValue> result = new ArrayList<BsonValue>(kept.size());
+        for (int index : kept) {
+            result.add(source.get(index));
+        }
+        return result;
+    }
+
+    /** Returns the number of element comparisons made so far. */
+    long comparisons() {
+        return comparisons;
+    }
+
+    private static BsonType commonType(BsonArray source, BsonArray target) {
+        BsonType type = !source.isEmpty() ? source.get(0).getBsonType() : !target.isEmpty() ? target.get(0).getBsonType() : null;
+        if (type != BsonType.INT32 && type != BsonType.INT64 && type != BsonType.DOUBLE
+                && type != BsonType.DATE_TIME && type != BsonType.STRING)
+            return null;
+        for (BsonValue value : source) {
+            if (value.getBsonType() != type) return null;
+        }
+        for (BsonValue value : target) {
+            if (value.getBsonType() != type) return null;
+        }
+        return type;
+    }
+
+    private static long[] keys(BsonArray array, BsonType type, Map<String, Long> ids) {
+        long[] keys = new long[array.size()];
+        for (int i = 0; i < keys.length; i++) {
+            BsonValue value = array.get(i);
+            switch (type) {
+                case INT32:
+                    keys[i] = value.asInt32().getValue();
+                    break;
+                case INT64:
+                    keys[i] = value.asInt64().getValue();
+                    break;
+                case DOUBLE:
+                    keys[i] = Double.doubleToLongBits(value.asDouble().getValue());
+                    break;
+                case DATE_TIME:
+                    keys[i] = value.asDateTime().getValue();
+                    break;
+                default:
+                    String string = value.asString().getValue();
+                    Long id = ids.get(string);
+                    if (id == null) {
+                        id = (long) ids.size();
+                        ids.put(string, id);
+                    }
+                    keys[i] = id;
+            }
+        }
+        return keys;
+    }
+
+    private boolean equate(int i, int j) {
+        comparisons++;
+        return first[i] == second[j];
+    }
+
+    private void buildScript(int start1, int end1, int start2, int end2) {
+        int[] middle = getMiddleSnake(start1, end1, start2, end2);
+
+        if (middle == null
+                || middle[0] == end1 && middle[2] == end1 - end2
+                || middle[1] == start1 && middle[2] == start1 - start2) {
+            int i = start1;
+            int j = start2;
+            while (i < end1 || j < end2) {
+                if (i < end1 && j < end2 && equate(i, j)) {
+                    kept.add(i);
+                    ++i;
+                    ++j;
+                } else if (end1 - start1 > end2 - start2) {
+                    ++i;
+                } else {
+                    ++j;
+                }
+            }
+        } else {
+            buildScript(start1, middle[0], start2, middle[0] - middle[2]);
+            for (int i = middle[0]; i < middle[1]; ++i) {
+                kept.add(i);
+            }
+            buildScript(middle[1], end1, middle[1] - middle[2], end2);
+        }
+    }
+
+    /** Returns the middle snake as {start, end, diagonal}, or {@code null} if either range is empty. */
+    private int[] getMiddleSnake(int start1, int end1, int start2, int end2) {
+        int m = end1 - start1;
+        int n = end2 - start2;
+        if (m == 0 || n == 0)
+            return null;
+
+        int delta = m - n;
+        int sum = n + m;
+        int offset = (sum % 2 == 0 ? sum : sum + 1) / 2;
+        vDown[1 + offset] = start1;
+        vUp[1 + offset] = end1 + 1;
+
+        for (int d = 0; d <= offset; ++d) {
+            // down
+            for (int k = -d; k <= d; k += 2) {
+                int i = k + offset;
+                if (k == -d || k != d && vDown[i - 1] < vDown[i + 1])
+                    vDown[i] = vDown[i + 1];
+                else
+                    vDown[i] = vDown[i - 1] + 1;
+
+                int x = vDown[i];
+                int y = x - start1 + start2 - k;
+                while (x < end1 && y < end2 && equate(x, y)) {
+                    vDown[i] = ++x;
+                    ++y;
+                }
+                if (delta % 2 != 0 && delta - d <= k && k <= delta + d && vUp[i - delta] <= vDown[i])
+                    return buildSnake(vUp[i - delta], k + start1 - start2, end1, end2);
+            }
+
+            // up
+            for (int k = delta - d; k <= delta + d; k += 2) {
+                int i = k + offset - delta;
+                if (k == delta - d || k != delta + d && vUp[i + 1] <= vUp[i - 1])
+                    vUp[i] = vUp[i + 1] - 1;
+                else
+                    vUp[i] = vUp[i - 1];
+
+                int x = vUp[i] - 1;
+                int y = x - start1 + start2 - k;
+                while (x >= start1 && y >= start2 && equate(x, y)) {
+                    vUp[i] = x--;
+                    y--;
+                }
+                if (delta % 2 == 0 && -d <= k && k <= d && vUp[i] <= vDown[i + delta])
+                    return buildSnake(vUp[i], k + start1 - start2, end1, end2);
+            }
+        }
+        throw new IllegalStateException("No middle snake found");
+    }
+
+    private int[] buildSnake(int start, int diag, int end1, int end2) {
+        int end = start;
+        while (end - diag < end2 && end < end1 && equate(end, end - diag)) {
+            ++end;
+        }
+        return new int[] {start, end, diag};
+    }
+}
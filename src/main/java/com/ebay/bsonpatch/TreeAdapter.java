@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import org.bson.BsonValue;
+
+/**
+ * Gives the patch processor access to a document tree model other than {@link BsonValue}, so that patches
+ * can be applied to it directly instead of converting the whole document to BSON and back.
+ *
+ * <p>A tree is made of objects (keyed by field name), arrays and scalar values, all represented by nodes of
+ * type {@code N}. Patch values are converted into the model with {@link #fromBson(BsonValue)}, and nodes are
+ * converted to BSON only where the patch needs to compare them, for {@link Operation#TEST} operations.
+ *
+ * @param <N> The node type of the tree model.
+ * @see BsonPatch#applyInPlace(org.bson.BsonArray, Object, TreeAdapter, java.util.EnumSet)
+ * @since 0.4.13
+ */
+public interface TreeAdapter<N> {
+
+    boolean isObject(N node);
+
+    boolean isArray(N node);
+
+    boolean hasField(N object, String field);
+
+    N getField(N object, String field);
+
+    /** Adds or replaces a field of an object. */
+    void putField(N object, String field, N value);
+
+    void removeField(N object, String field);
+
+    int size(N array);
+
+    N getElement(N array, int index);
+
+    void setElement(N array, int index, N value);
+
+    /** Inserts an element, shifting the element at {@code index} and those after it to the right. */
+    void addElement(N array, int index, N value);
+
+    void removeElement(N array, int index);
+
+    /**
+     * Converts a patch value into a node of this model. The returned node must not share mutable state with
+     * {@code value}, as it will be stored in the tree.
+     */
+    N fromBson(BsonValue value);
+
+    /** Converts a node into its BSON equivalent. */
+    BsonValue toBson(N node);
+
+    /** Returns a copy of a node that shares no mutable state with it. */
+    N deepCopy(N node);
+}
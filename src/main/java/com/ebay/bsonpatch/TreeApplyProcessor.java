@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.EnumSet;
+
+import org.bson.BsonValue;
+
+/**
+ * Applies a patch in place to a tree accessed through a {@link TreeAdapter}, with the same semantics and
+ * error reporting as {@link InPlaceApplyProcessor}.
+ */
+class TreeApplyProcessor<N> implements BsonPatchProcessor {
+
+    private final TreeAdapter<N> adapter;
+    private final EnumSet<CompatibilityFlags> flags;
+    private N target;
+    private BsonPatchMetrics metrics;
+
+    TreeApplyProcessor(N target, TreeAdapter<N> adapter, EnumSet<CompatibilityFlags> flags) {
+        this.target = target;
+        this.adapter = adapter;
+        this.flags = flags;
+    }
+
+    public N result() {
+        return target;
+    }
+
+    void setMetrics(BsonPatchMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void move(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
+        N valueNode = fromPath.evaluate(target, adapter);
+        remove(fromPath);
+        set(toPath, valueNode, Operation.MOVE);
+    }
+
+    @Override
+    public void copy(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
+        N valueNode = fromPath.evaluate(target, adapter);
+        if (metrics != null) metrics.bytesCloned(InternalUtils.estimateSize(adapter.toBson(valueNode)));
+        set(toPath, adapter.deepCopy(valueNode), Operation.COPY);
+    }
+
+    @Override
+    public void test(JsonPointer path, BsonValue value) throws JsonPointerEvaluationException {
+        BsonValue valueNode = adapter.toBson(path.evaluate(target, adapter));
+        if (!BsonEquality.equal(valueNode, value))
+            throw new BsonPatchApplicationException(
+                    "Expected value " + InPlaceApplyProcessor.show(value) + " but found " + InPlaceApplyProcessor.show(valueNode),
+                    Operation.TEST, path);
+    }
+
+    @Override
+    public void testHash(JsonPointer path, long hash, int size) throws JsonPointerEvaluationException {
+        BsonValue valueNode = adapter.toBson(path.evaluate(target, adapter));
+        if (!BsonHash.matches(valueNode, hash, size))
+            throw new BsonPatchApplicationException(
+                    "Expected value with hash " + hash + " but found " + InPlaceApplyProcessor.show(valueNode),
+                    Operation.TEST, path);
+    }
+
+    @Override
+    public int arraySize(JsonPointer path) throws JsonPointerEvaluationException {
+        N valueNode = path.evaluate(target, adapter);
+        if (!adapter.isArray(valueNode))
+            throw new JsonPointerEvaluationException(
+                    "Wildcard applied to " + InPlaceApplyProcessor.show(adapter.toBson(valueNode)) + " instead of array", path, null);
+        return adapter.size(valueNode);
+    }
+
+    @Override
+    public void add(JsonPointer path, BsonValue value) throws JsonPointerEvaluationException {
+        set(path, fromBson(value), Operation.ADD);
+    }
+
+    @Override
+    public void replace(JsonPointer path, BsonValue value) throws JsonPointerEvaluationException {
+        if (path.isRoot()) {
+            target = fromBson(value);
+            return;
+        }
+
+        N parentNode = path.getParent().evaluate(target, adapter);
+        JsonPointer.RefToken token = path.last();
+        if (adapter.isObject(parentNode)) {
+            if (!flags.contains(CompatibilityFlags.ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE) &&
+                    !adapter.hasField(parentNode, token.getField()))
+                throw new BsonPatchApplicationException(
+                        "Missing field \"" + token.getField() + "\"", Operation.REPLACE, path.getParent());
+            adapter.putField(parentNode, token.getField(), fromBson(value));
+        } else if (adapter.isArray(parentNode)) {
+            int index = InPlaceApplyProcessor.arrayIndex(path, Operation.REPLACE);
+            if (index >= adapter.size(parentNode))
+                throw new BsonPatchApplicationException(
+                        "Array index " + index + " out of bounds", Operation.REPLACE, path.getParent());
+            adapter.setElement(parentNode, index, fromBson(value));
+        } else {
+            throw new BsonPatchApplicationException(
+                    "Can't reference past scalar value", Operation.REPLACE, path.getParent());
+        }
+    }
+
+    @Override
+    public void remove(JsonPointer path) throws JsonPointerEvaluationException {
+        if (path.isRoot())
+            throw new BsonPatchApplicationException("Cannot remove document root", Operation.REMOVE, path);
+
+        N parentNode = path.getParent().evaluate(target, adapter);
+        JsonPointer.RefToken token = path.last();
+        if (adapter.isObject(parentNode)) {
+            if (flags.contains(CompatibilityFlags.FORBID_REMOVE_MISSING_OBJECT) && !adapter.hasField(parentNode, token.getField()))
+                throw new BsonPatchApplicationException(
+                        "Missing field " + token.getField(), Operation.REMOVE, path.getParent());
+            adapter.removeField(parentNode, token.getField());
+        } else if (adapter.isArray(parentNode)) {
+            int index = InPlaceApplyProcessor.arrayIndex(path, Operation.REMOVE);
+            if (index < adapter.size(parentNode))
+                adapter.removeElement(parentNode, index);
+            else if (!flags.contains(CompatibilityFlags.REMOVE_NONE_EXISTING_ARRAY_ELEMENT))
+                throw new BsonPatchApplicationException(
+                        "Array index " + index + " out of bounds", Operation.REMOVE, path.getParent());
+        } else {
+            throw new BsonPatchApplicationException(
+                    "Cannot reference past scalar value", Operation.REMOVE, path.getParent());
+        }
+    }
+
+    // converting a patch value into the model copies it, like cloning a patch value that isn't disposable
+    private N fromBson(BsonValue value) {
+        if (metrics != null) metrics.bytesCloned(InternalUtils.estimateSize(value));
+        return adapter.fromBson(value);
+    }
+
+    private void set(JsonPointer path, N value, Operation forOp) throws JsonPointerEvaluationException {
+        if (path.isRoot()) {
+            target = value;
+            return;
+        }
+        N parentNode = path.getParent().evaluate(target, adapter);
+        if (adapter.isObject(parentNode)) {
+            adapter.putField(parentNode, path.last().getField(), value);
+        } else if (adapter.isArray(parentNode)) {
+            int idx = InPlaceApplyProcessor.arrayIndex(path, Operation.ADD);
+            if (idx == JsonPointer.LAST_INDEX) {
+                // see http://tools.ietf.org/html/rfc6902#section-4.1
+                adapter.addElement(parentNode, adapter.size(parentNode), value);
+            } else {
+                if (idx > adapter.size(parentNode))
+                    throw new BsonPatchApplicationException(
+                            "Array index " + idx + " out of bounds", Operation.ADD, path.getParent());
+                adapter.addElement(parentNode, idx, value);
+            }
+        } else {
+            throw new BsonPatchApplicationException("Cannot reference past scalar value", forOp, path.getParent());
+        }
+    }
+}
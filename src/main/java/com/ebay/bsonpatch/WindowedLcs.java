@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonValue;
+
+/**
+ * A common subsequence of two arrays too large for an exact longest common subsequence, in the manner of
+ * patience diff.
+ *
+ * <p>Common prefixes and suffixes are matched first. What remains is split at anchors, elements occurring exactly
+ * once in the remaining part of both arrays, of which the longest run in the same order in both is kept. Windows
+ * between anchors are handled the same way until they are small enough to be handed to the exact algorithm. A
+ * window without any anchor is cut into pieces of at most the window size, paired along the diagonal. The result
+ * is a common subsequence, though not necessarily the longest one, and the exact algorithm never sees more than
+ * {@code window} elements at a time.
+ */
+final class WindowedLcs {
+
+    /**
+     * Computes the exact longest common subsequence of two small arrays, as elements of the first one.
+     */
+    interface Exact {
+        List<BsonValue> lcs(BsonArray first, BsonArray second);
+    }
+
+    private static final int EMIT = -1;
+
+    private final BsonArray first;
+    private final BsonArray second;
+    private final int window;
+    private final Exact exact;
+    private long comparisons;
+
+    WindowedLcs(BsonArray first, BsonArray second, int window, Exact exact) {
+        this.first = first;
+        this.second = second;
+        this.window = window;
+        this.exact = exact;
+    }
+
+    /** Returns the common subsequence, as elements of the first array. */
+    List<BsonValue> compute() {
+        List<BsonValue> result = new ArrayList<BsonValue>();
+        // windows are {start1, end1, start2, end2}, emitted elements {EMIT, index in first}; pushed in reverse order
+        Deque<int[]> pending = new ArrayDeque<int[]>();
+        pending.push(new int[] {0, first.size(), 0, second.size()});
+        while (!pending.isEmpty()) {
+            int[] task = pending.pop();
+            if (task[0] == EMIT) {
+                result.add(first.get(task[1]));
+            } else {
+                split(task[0], task[1], task[2], task[3], pending, result);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of element comparisons made so far, not counting those of the exact algorithm. */
+    long comparisons() {
+        return comparisons;
+    }
+
+    private void split(int start1, int end1, int start2, int end2, Deque<int[]> pending, List<BsonValue> result) {
+        while (start1 < end1 && start2 < end2 && equal(first.get(start1), second.get(start2))) {
+            result.add(first.get(start1));
+            start1++;
+            start2++;
+        }
+        int suffix = 0;
+        while (start1 < end1 - suffix && start2 < end2 - suffix && equal(first.get(end1 - suffix - 1), second.get(end2 - suffix - 1))) {
+            suffix++;
+        }
+        for (int i = 1; i <= suffix; i++) {
+            pending.push(new int[] {EMIT, end1 - i});
+        }
+        end1 -= suffix;
+        end2 -= suffix;
+        if (start1 == end1 || start2 == end2) return;
+
+        if (end1 - start1 + end2 - start2 <= window) {
+            result.addAll(exact.lcs(slice(first, start1, end1), slice(second, start2, end2)));
+            return;
+        }
+
+        int[][] anchors = anchors(start1, end1, start2, end2);
+        if (anchors.length == 0) {
+            int pieces = Math.max(2, (end1 - start1 + end2 - start2 + window - 1) / window);
+            for (int i = pieces - 1; i >= 0; i--) {
+                pending.push(new int[] {
+                        start1 + (int) ((long) (end1 - start1) * i / pieces), start1 + (int) ((long) (end1 - start1) * (i + 1) / pieces),
+                        start2 + (int) ((long) (end2 - start2) * i / pieces), start2 + (int) ((long) (end2 - start2) * (i + 1) / pieces)});
+            }
+            return;
+        }
+        int next1 = end1;
+        int next2 = end2;
+        for (int i = anchors.length - 1; i >= 0; i--) {
+            pending.push(new int[] {anchors[i][0] + 1, next1, anchors[i][1] + 1, next2});
+            pending.push(new int[] {EMIT, anchors[i][0]});
+            next1 = anchors[i][0];
+            next2 = anchors[i][1];
+        }
+        pending.push(new int[] {start1, next1, start2, next2});
+    }
+
+    /**
+     * Finds the elements occurring once in both windows and returns the longest run of them appearing in the same
+     * order in both, as pairs of indexes.
+     */
+    private int[][] anchors(int start1, int end1, int start2, int end2) {
+        Map<BsonValue, int[]> occurrences = new HashMap<BsonValue, int[]>();
+        for (int i = start1; i < end1; i++) {
+            int[] occurrence = occurrences.get(first.get(i));
+            if (occurrence == null) {
+                occurrences.put(first.get(i), new int[] {i, -1});
+            } else {
+                occurrence[0] = -1;
+            }
+        }
+        for (int j = start2; j < end2; j++) {
+            int[] occurrence = occurrences.get(second.get(j));
+            if (occurrence != null) {
+                occurrence[1] = occurrence[1] == -1 ? j : -2;
+            }
+        }
+        comparisons += end1 - start1 + end2 - start2;
+
+        // indexes into the second window of the unique matches, in the order of the first window
+        List<int[]> matches = new ArrayList<int[]>();
+        for (int i = start1; i < end1; i++) {
+            int[] occurrence = occurrences.get(first.get(i));
+            if (occurrence[0] == i && occurrence[1] >= 0) {
+                matches.add(occurrence);
+            }
+        }
+
+        // patience sorting: tails[k] is the match ending the best increasing run of length k + 1
+        int[] tails = new int[matches.size()];
+        int[] previous = new int[matches.size()];
+        int length = 0;
+        for (int m = 0; m < matches.size(); m++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (matches.get(tails[mid])[1] < matches.get(m)[1]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[m] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = m;
+            if (low == length) length++;
+        }
+        int[][] anchors = new int[length][];
+        for (int k = length - 1, m = length > 0 ? tails[length - 1] : -1; k >= 0; k--, m = previous[m]) {
+            anchors[k] = matches.get(m);
+        }
+        return anchors;
+    }
+
+    private boolean equal(BsonValue one, BsonValue other) {
+        comparisons++;
+        return BsonEquality.equal(one, other);
+    }
+
+    private static BsonArray slice(BsonArray array, int start, int end) {
+        return new BsonArray(array.getValues().subList(start, end));
+    }
+}
@@ -20,6 +20,9 @@
 package com.ebay.bsonpatch;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -28,6 +31,7 @@ import java.util.EnumSet;
 
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.junit.Test;
 
 public class ApiTest {
@@ -66,6 +70,91 @@ public class ApiTest {
         assertTrue(source.get("b").isNull());
     }
 
+    @Test
+    public void applyInPlaceClonesPatchValuesByDefault() throws Exception {
+        BsonArray patch = BsonArray.parse("[{ \"op\": \"add\", \"path\": \"/b\", \"value\": {\"c\": 1} }]");
+        BsonDocument source = new BsonDocument();
+        BsonPatch.applyInPlace(patch, source);
+        assertThat(source.get("b"), is(patch.get(0).asDocument().get("value")));
+        assertThat(source.get("b"), not(sameInstance(patch.get(0).asDocument().get("value"))));
+    }
+
+    @Test
+    public void applyInPlaceMovesDisposablePatchValues() throws Exception {
+        BsonArray patch = BsonArray.parse("[{ \"op\": \"add\", \"path\": \"/b\", \"value\": {\"c\": 1} }," +
+                "{ \"op\": \"test\", \"path\": \"/b\", \"value\": {\"c\": 1} }]");
+        BsonDocument source = new BsonDocument();
+        BsonPatch.applyInPlace(patch, source, EnumSet.of(CompatibilityFlags.DISPOSABLE_PATCH_VALUES));
+        assertThat(source.get("b"), sameInstance(patch.get(0).asDocument().get("value")));
+    }
+
+    @Test
+    public void tryApplyReportsFailedTestWithoutCopying() throws Exception {
+        BsonArray patch = BsonArray.parse("[{ \"op\": \"test\", \"path\": \"/a\", \"value\": 1 }," +
+                "{ \"op\": \"test\", \"path\": \"/v\", \"value\": 2 }," +
+                "{ \"op\": \"replace\", \"path\": \"/v\", \"value\": 3 }]");
+        BsonDocument source = BsonDocument.parse("{\"a\": 1, \"v\": 1}");
+        BsonPatchResult result = BsonPatch.tryApply(patch, source);
+        assertFalse(result.isSuccess());
+        assertThat(result.getOperationIndex(), is(1));
+        assertThat(result.getOperation(), is("test"));
+        assertThat(result.getPath(), is("/v"));
+        assertThat(result.getReason(), is(BsonPatchResult.Reason.TEST_FAILED));
+    }
+
+    @Test
+    public void tryApplyReportsMissingPaths() throws Exception {
+        BsonDocument source = BsonDocument.parse("{\"a\": [1]}");
+        BsonPatchResult test = BsonPatch.tryApply(BsonArray.parse("[{ \"op\": \"test\", \"path\": \"/b/c\", \"value\": 1 }]"), source);
+        assertThat(test.getReason(), is(BsonPatchResult.Reason.PATH_NOT_FOUND));
+        BsonPatchResult move = BsonPatch.tryApply(BsonArray.parse("[{ \"op\": \"move\", \"from\": \"/c\", \"path\": \"/d\" }]"), source);
+        assertThat(move.getReason(), is(BsonPatchResult.Reason.PATH_NOT_FOUND));
+        BsonPatchResult remove = BsonPatch.tryApply(BsonArray.parse("[{ \"op\": \"remove\", \"path\": \"/a/5\" }]"), source);
+        assertThat(remove.getReason(), is(BsonPatchResult.Reason.NOT_APPLICABLE));
+    }
+
+    @Test
+    public void tryApplyReportsEveryOperationWithoutStackTraces() throws Exception {
+        BsonDocument source = BsonDocument.parse("{\"a\": [1], \"s\": 1}");
+        String[][] cases = {
+                {"{ \"op\": \"add\", \"path\": \"/b/c\", \"value\": 1 }", "PATH_NOT_FOUND"},
+                {"{ \"op\": \"add\", \"path\": \"/a/5\", \"value\": 1 }", "NOT_APPLICABLE"},
+                {"{ \"op\": \"add\", \"path\": \"/s/t\", \"value\": 1 }", "NOT_APPLICABLE"},
+                {"{ \"op\": \"replace\", \"path\": \"/b\", \"value\": 1 }", "NOT_APPLICABLE"},
+                {"{ \"op\": \"replace\", \"path\": \"/a/x\", \"value\": 1 }", "NOT_APPLICABLE"},
+                {"{ \"op\": \"remove\", \"path\": \"\" }", "NOT_APPLICABLE"},
+                {"{ \"op\": \"copy\", \"from\": \"/a/3\", \"path\": \"/d\" }", "PATH_NOT_FOUND"},
+                {"{ \"op\": \"move\", \"from\": \"/s\", \"path\": \"/b/c\" }", "PATH_NOT_FOUND"}
+        };
+        for (String[] c : cases) {
+            BsonPatchResult result = BsonPatch.tryApply(BsonArray.parse("[" + c[0] + "]"), source);
+            assertThat(c[0], result.getReason(), is(BsonPatchResult.Reason.valueOf(c[1])));
+        }
+        assertThat(source, is(BsonDocument.parse("{\"a\": [1], \"s\": 1}")));
+        assertThat(ApplyFailure.NOT_APPLICABLE.getStackTrace().length, is(0));
+    }
+
+    @Test
+    public void tryApplyReturnsCopyForPassingTests() throws Exception {
+        BsonArray patch = BsonArray.parse("[{ \"op\": \"test\", \"path\": \"/a\", \"value\": {\"b\": 1} }]");
+        BsonDocument source = BsonDocument.parse("{\"a\": {\"b\": 1}}");
+        BsonPatchResult result = BsonPatch.tryApply(patch, source);
+        assertTrue(result.isSuccess());
+        assertThat(result.getResult(), is((BsonValue) source));
+        assertThat(result.getResult(), not(sameInstance((BsonValue) source)));
+        assertThat(BsonPatch.tryApplyInPlace(patch, source).getResult(), sameInstance((BsonValue) source));
+    }
+
+    @Test
+    public void tryApplyInPlaceKeepsOperationsBeforeFailure() throws Exception {
+        BsonArray patch = BsonArray.parse("[{ \"op\": \"add\", \"path\": \"/b\", \"value\": 2 }," +
+                "{ \"op\": \"test\", \"path\": \"/a\", \"value\": 2 }]");
+        BsonDocument source = BsonDocument.parse("{\"a\": 1}");
+        BsonPatchResult result = BsonPatch.tryApplyInPlace(patch, source);
+        assertThat(result.getReason(), is(BsonPatchResult.Reason.TEST_FAILED));
+        assertThat(source, is(BsonDocument.parse("{\"a\": 1, \"b\": 2}")));
+    }
+
     @Test(expected = InvalidBsonPatchException.class)
     public void applyingNonArrayPatchShouldThrowAnException() throws IOException {
     	BsonArray invalid = BsonArray.parse("[\"not\", \"a patch\"]");
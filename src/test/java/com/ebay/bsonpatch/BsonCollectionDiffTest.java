@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.json.JsonReader;
+import org.junit.Test;
+
+public class BsonCollectionDiffTest {
+
+    private static final String[] SOURCE = {
+            "{\"_id\": 1, \"name\": \"one\"}",
+            "{\"_id\": 2, \"name\": \"two\"}",
+            "{\"_id\": {\"$numberLong\": \"4\"}, \"name\": \"four\"}",
+            "{\"_id\": \"a\", \"tags\": [1, 2]}",
+            "{\"_id\": {\"$oid\": \"5f0000000000000000000001\"}}"
+    };
+    private static final String[] TARGET = {
+            "{\"_id\": 2, \"name\": \"two\"}",
+            "{\"_id\": 3.5, \"name\": \"three and a half\"}",
+            "{\"_id\": {\"$numberLong\": \"4\"}, \"name\": \"FOUR\"}",
+            "{\"_id\": \"a\", \"tags\": [1, 2, 3]}",
+            "{\"_id\": \"b\"}"
+    };
+    private static final List<String> EXPECTED = Arrays.asList(
+            "- 1",
+            "+ 3.5",
+            "~ {\"$numberLong\": \"4\"} [{\"op\": \"replace\", \"path\": \"/name\", \"value\": \"FOUR\"}]",
+            "~ \"a\" [{\"op\": \"add\", \"path\": \"/tags/2\", \"value\": 3}]",
+            "+ \"b\"",
+            "- {\"$oid\": \"5f0000000000000000000001\"}");
+
+    private static final class Recorder implements BsonCollectionDiff.Listener {
+        final List<String> changes = new ArrayList<String>();
+
+        @Override
+        public void inserted(BsonDocument document) {
+            changes.add("+ " + json(document.get("_id")));
+        }
+
+        @Override
+        public void deleted(BsonDocument document) {
+            changes.add("- " + json(document.get("_id")));
+        }
+
+        @Override
+        public void updated(BsonValue id, BsonArray patch) {
+            changes.add("~ " + json(id) + " " + json(patch));
+        }
+
+        private static String json(BsonValue value) {
+            return new BsonDocument("v", value).toJson().replaceAll("^\\{\"v\": (.*)}$", "$1");
+        }
+    }
+
+    private static Iterator<BsonDocument> documents(String... json) {
+        List<BsonDocument> documents = new ArrayList<BsonDocument>();
+        for (String document : json) documents.add(BsonDocument.parse(document));
+        return documents.iterator();
+    }
+
+    private static BsonBinaryReader dump(String... json) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        for (String document : json) {
+            new BsonDocumentCodec().encode(new BsonBinaryWriter(buffer), BsonDocument.parse(document),
+                    EncoderContext.builder().build());
+        }
+        return new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray()));
+    }
+
+    @Test
+    public void mergesSortedCollections() {
+        Recorder recorder = new Recorder();
+        BsonCollectionDiff.diff(documents(SOURCE), documents(TARGET), new DiffOptions(DiffFlags.defaults()), recorder);
+        assertEquals(EXPECTED, recorder.changes);
+    }
+
+    @Test
+    public void readsBsonDumps() {
+        Recorder recorder = new Recorder();
+        BsonCollectionDiff.diff(dump(SOURCE), dump(TARGET), recorder);
+        assertEquals(EXPECTED, recorder.changes);
+    }
+
+    @Test
+    public void readsJson() {
+        StringBuilder json = new StringBuilder();
+        for (String document : TARGET) json.append(document).append('\n');
+        Iterator<BsonDocument> documents = BsonCollectionDiff.documents(new JsonReader(json.toString()));
+        for (String document : TARGET) assertEquals(BsonDocument.parse(document), documents.next());
+        assertFalse(documents.hasNext());
+    }
+
+    @Test
+    public void reportsInOrderWithExecutor() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int maxPending : new int[] {1, 2, 16}) {
+                Recorder recorder = new Recorder();
+                BsonCollectionDiff.diff(documents(SOURCE), documents(TARGET), new DiffOptions(DiffFlags.defaults()),
+                        executor, maxPending, recorder);
+                assertEquals(EXPECTED, recorder.changes);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void handlesEmptyCollections() {
+        Recorder recorder = new Recorder();
+        BsonCollectionDiff.diff(dump(), dump("{\"_id\": 1}"), recorder);
+        assertEquals(Arrays.asList("+ 1"), recorder.changes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsortedCollection() {
+        BsonCollectionDiff.diff(documents("{\"_id\": 2}", "{\"_id\": 1}"), documents(), new DiffOptions(DiffFlags.defaults()),
+                new Recorder());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateIds() {
+        BsonCollectionDiff.diff(documents(), documents("{\"_id\": 1}", "{\"_id\": 1.0}"), new DiffOptions(DiffFlags.defaults()),
+                new Recorder());
+    }
+
+    @Test
+    public void comparesNumericIdsExactly() {
+        String[] ids = {
+                "{\"_id\": {\"$numberDouble\": \"NaN\"}}",
+                "{\"_id\": {\"$numberDecimal\": \"-Infinity\"}}",
+                "{\"_id\": {\"$numberDecimal\": \"-0.00\"}}",
+                "{\"_id\": {\"$numberDecimal\": \"0.1\"}}",
+                "{\"_id\": 0.1}",
+                "{\"_id\": 9007199254740992.0}",
+                "{\"_id\": {\"$numberLong\": \"9007199254740993\"}}",
+                "{\"_id\": {\"$numberDecimal\": \"9007199254740993.5\"}}",
+                "{\"_id\": {\"$numberDecimal\": \"1E+400\"}}",
+                "{\"_id\": {\"$numberDouble\": \"Infinity\"}}"
+        };
+        Recorder recorder = new Recorder();
+        BsonCollectionDiff.diff(documents(ids), documents(), new DiffOptions(DiffFlags.defaults()), recorder);
+        assertEquals(ids.length, recorder.changes.size());
+    }
+
+    @Test
+    public void matchesZerosOfEitherSign() {
+        Recorder recorder = new Recorder();
+        BsonCollectionDiff.diff(documents("{\"_id\": -0.0, \"a\": 1}"), documents("{\"_id\": 0, \"a\": 2}", "{\"_id\": 1}"),
+                new DiffOptions(DiffFlags.defaults()), recorder);
+        BsonCollectionDiff.diff(documents("{\"_id\": {\"$numberDecimal\": \"-0\"}, \"a\": 1}"), documents("{\"_id\": 0.0, \"a\": 3}"),
+                new DiffOptions(DiffFlags.defaults()), recorder);
+        // the same _id in MongoDB, so an update, whose patch still records the new representation
+        assertEquals(Arrays.asList(
+                "~ -0.0 [{\"op\": \"replace\", \"path\": \"/_id\", \"value\": 0}, {\"op\": \"replace\", \"path\": \"/a\", \"value\": 2}]",
+                "+ 1",
+                "~ {\"$numberDecimal\": \"-0\"} [{\"op\": \"replace\", \"path\": \"/_id\", \"value\": 0.0}, {\"op\": \"replace\", \"path\": \"/a\", \"value\": 3}]"),
+                recorder.changes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEqualIdsOfDifferentTypes() {
+        BsonCollectionDiff.diff(documents("{\"_id\": 0}", "{\"_id\": {\"$numberDecimal\": \"-0\"}}"), documents(),
+                new DiffOptions(DiffFlags.defaults()), new Recorder());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDocumentsWithoutId() {
+        BsonCollectionDiff.diff(documents("{\"a\": 1}"), documents(), new DiffOptions(DiffFlags.defaults()), new Recorder());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class BsonEqualityTest {
+
+    @Test
+    public void documentsAreEqualRegardlessOfFieldOrder() {
+        BsonDocument first = BsonDocument.parse("{\"a\": 1, \"b\": {\"c\": [1, 2, {\"d\": \"e\"}]}}");
+        BsonDocument second = BsonDocument.parse("{\"b\": {\"c\": [1, 2, {\"d\": \"e\"}]}, \"a\": 1}");
+        assertTrue(BsonEquality.equal(first, second));
+        assertEquals(first.equals(second), BsonEquality.equal(first, second));
+    }
+
+    @Test
+    public void arraysAreComparedPositionally() {
+        assertFalse(BsonEquality.equal(BsonArray.parse("[1, 2]"), BsonArray.parse("[2, 1]")));
+        assertFalse(BsonEquality.equal(BsonArray.parse("[1, 2]"), BsonArray.parse("[1, 2, 3]")));
+    }
+
+    @Test
+    public void numericTypesAreNotInterchangeable() {
+        assertFalse(BsonEquality.equal(new BsonInt32(1), new BsonInt64(1)));
+    }
+
+    @Test
+    public void binariesAreComparedByContent() {
+        assertTrue(BsonEquality.equal(new BsonBinary(new byte[] {1, 2}), new BsonBinary(new byte[] {1, 2})));
+        assertFalse(BsonEquality.equal(new BsonBinary(new byte[] {1, 2}), new BsonBinary(new byte[] {1, 2, 3})));
+        assertFalse(BsonEquality.equal(new BsonBinary((byte) 0, new byte[] {1}), new BsonBinary((byte) 5, new byte[] {1})));
+    }
+
+    @Test
+    public void nullIsOnlyEqualToNull() {
+        assertTrue(BsonEquality.equal(null, null));
+        assertFalse(BsonEquality.equal(null, new BsonInt32(1)));
+    }
+
+    @Test
+    public void memoizedResultsAreReused() {
+        BsonDocument first = BsonDocument.parse("{\"a\": {\"b\": 1}}");
+        BsonDocument second = BsonDocument.parse("{\"a\": {\"b\": 1}}");
+        BsonEquality equality = new BsonEquality();
+        assertTrue(equality.equivalent(first, second));
+
+        // the memo is keyed by identity, so a mutation after the fact isn't observed
+        BsonValue nested = second.get("a");
+        nested.asDocument().put("b", new BsonInt32(2));
+        assertTrue(equality.equivalent(first.get("a"), nested));
+        assertFalse(BsonEquality.equal(first.get("a"), nested));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.junit.Test;
+
+public class BsonHashTest {
+
+    @Test
+    public void documentsHashAlikeRegardlessOfFieldOrder() {
+        BsonDocument first = BsonDocument.parse("{\"a\": 1, \"b\": {\"c\": [1, 2, {\"d\": \"e\"}], \"f\": null}}");
+        BsonDocument second = BsonDocument.parse("{\"b\": {\"f\": null, \"c\": [1, 2, {\"d\": \"e\"}]}, \"a\": 1}");
+        assertEquals(BsonHash.hash(first), BsonHash.hash(second));
+    }
+
+    @Test
+    public void hashDistinguishesWhatEqualityDistinguishes() {
+        assertNotEquals(BsonHash.hash(BsonArray.parse("[1, 2]")), BsonHash.hash(BsonArray.parse("[2, 1]")));
+        assertNotEquals(BsonHash.hash(new BsonInt32(1)), BsonHash.hash(new BsonInt64(1)));
+        assertNotEquals(BsonHash.hash(new BsonDouble(0.0)), BsonHash.hash(new BsonDouble(-0.0)));
+        assertNotEquals(BsonHash.hash(new BsonBinary((byte) 0, new byte[] {1})), BsonHash.hash(new BsonBinary((byte) 5, new byte[] {1})));
+        assertNotEquals(BsonHash.hash(BsonDocument.parse("{\"a\": 1, \"b\": 2}")), BsonHash.hash(BsonDocument.parse("{\"a\": 2, \"b\": 1}")));
+        assertNotEquals(BsonHash.hash(BsonDocument.parse("{\"a\": {}}")), BsonHash.hash(BsonDocument.parse("{\"a\": []}")));
+    }
+
+    @Test
+    public void stringsAndNumbersSpreadOverTheHashSpace() {
+        Set<Long> hashes = new HashSet<Long>();
+        for (int i = 0; i < 10000; i++) {
+            hashes.add(BsonHash.hash(new BsonInt32(i)));
+            hashes.add(BsonHash.hash(new BsonString("key" + i)));
+            hashes.add(BsonHash.hash(new BsonDocument("k", new BsonInt32(i))));
+        }
+        assertEquals(30000, hashes.size());
+    }
+
+    @Test
+    public void hashIsStable() {
+        // patches carry the hash, so it must never change between versions or JVMs
+        assertEquals(-6344894580081631862L, BsonHash.hash(BsonDocument.parse("{\"a\": [1, \"two\", 3.0, true, null]}")));
+    }
+
+    @Test
+    public void matchesChecksSizeAndHash() {
+        BsonDocument document = BsonDocument.parse("{\"a\": 1, \"b\": 2}");
+        assertTrue(BsonHash.matches(document, BsonHash.hash(document), 2));
+        assertTrue(BsonHash.matches(document, BsonHash.hash(document), -1));
+        assertFalse(BsonHash.matches(document, BsonHash.hash(document), 3));
+        assertFalse(BsonHash.matches(document, BsonHash.hash(document) + 1, 2));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.EnumSet;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class BsonMergePatchTest {
+
+    private static BsonValue value(String json) {
+        return BsonDocument.parse("{\"v\": " + json + "}").get("v");
+    }
+
+    // RFC 7396, Appendix A: original, patch, result
+    private static final String[][] RFC_EXAMPLES = {
+            {"{\"a\":\"b\"}", "{\"a\":\"c\"}", "{\"a\":\"c\"}"},
+            {"{\"a\":\"b\"}", "{\"b\":\"c\"}", "{\"a\":\"b\",\"b\":\"c\"}"},
+            {"{\"a\":\"b\"}", "{\"a\":null}", "{}"},
+            {"{\"a\":\"b\",\"b\":\"c\"}", "{\"a\":null}", "{\"b\":\"c\"}"},
+            {"{\"a\":[\"b\"]}", "{\"a\":\"c\"}", "{\"a\":\"c\"}"},
+            {"{\"a\":\"c\"}", "{\"a\":[\"b\"]}", "{\"a\":[\"b\"]}"},
+            {"{\"a\":{\"b\":\"c\"}}", "{\"a\":{\"b\":\"d\",\"c\":null}}", "{\"a\":{\"b\":\"d\"}}"},
+            {"{\"a\":[{\"b\":\"c\"}]}", "{\"a\":[1]}", "{\"a\":[1]}"},
+            {"[\"a\",\"b\"]", "[\"c\",\"d\"]", "[\"c\",\"d\"]"},
+            {"{\"a\":\"b\"}", "[\"c\"]", "[\"c\"]"},
+            {"{\"a\":\"foo\"}", "null", "null"},
+            {"{\"a\":\"foo\"}", "\"bar\"", "\"bar\""},
+            {"{\"e\":null}", "{\"a\":1}", "{\"e\":null,\"a\":1}"},
+            {"[1,2]", "{\"a\":\"b\",\"c\":null}", "{\"a\":\"b\"}"},
+            {"{}", "{\"a\":{\"bb\":{\"ccc\":null}}}", "{\"a\":{\"bb\":{}}}"}
+    };
+
+    @Test
+    public void appliesRfcExamples() {
+        for (String[] example : RFC_EXAMPLES) {
+            BsonValue original = value(example[0]);
+            BsonValue copy = original.isDocument() ? original.asDocument().clone() : original;
+            assertEquals(example[1], value(example[2]), BsonMergePatch.apply(value(example[1]), original));
+            assertEquals("source modified", copy, original);
+        }
+    }
+
+    @Test
+    public void appliesInPlace() {
+        BsonDocument source = BsonDocument.parse("{\"a\": {\"b\": \"c\", \"d\": 1}, \"e\": [1]}");
+        BsonValue nested = source.get("a");
+        BsonMergePatch.applyInPlace(BsonDocument.parse("{\"a\": {\"b\": null, \"f\": 2}, \"e\": null}"), source);
+        assertEquals(BsonDocument.parse("{\"a\": {\"d\": 1, \"f\": 2}}"), source);
+        assertSame(nested, source.get("a"));
+    }
+
+    @Test
+    public void resultDoesNotShareThePatchValues() {
+        BsonDocument patch = BsonDocument.parse("{\"a\": [1, 2]}");
+        BsonValue result = BsonMergePatch.apply(patch, BsonDocument.parse("{\"a\": 1}"));
+        result.asDocument().getArray("a").add(new BsonInt32(3));
+        assertEquals(BsonDocument.parse("{\"a\": [1, 2]}"), patch);
+
+        BsonValue disposable = BsonMergePatch.apply(patch, BsonDocument.parse("{\"a\": 1}"),
+                EnumSet.of(CompatibilityFlags.DISPOSABLE_PATCH_VALUES));
+        assertSame(patch.get("a"), disposable.asDocument().get("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesMissingTarget() {
+        BsonMergePatch.diff(BsonDocument.parse("{\"a\": 1}"), null);
+    }
+
+    @Test(expected = BsonPatchApplicationException.class)
+    public void refusesToReplaceRootInPlace() {
+        BsonMergePatch.applyInPlace(value("[1]"), BsonDocument.parse("{\"a\": 1}"));
+    }
+
+    @Test
+    public void diffRoundTrips() {
+        String[][] pairs = {
+                {"{\"a\": 1, \"b\": {\"c\": [1, 2], \"d\": \"x\"}}", "{\"b\": {\"c\": [2], \"d\": \"x\", \"e\": {\"f\": 1}}, \"g\": [null]}"},
+                {"{\"a\": {\"b\": 1}}", "{\"a\": [null]}"},
+                {"{\"a\": 1}", "{\"a\": 1}"},
+                {"{\"a\": 1}", "[1, 2]"},
+                {"[1]", "{\"a\": {\"b\": 2}}"}
+        };
+        for (String[] pair : pairs) {
+            BsonValue source = value(pair[0]);
+            BsonValue target = value(pair[1]);
+            BsonValue patch = BsonMergePatch.diff(source, target);
+            assertEquals(patch.toString(), target, BsonMergePatch.apply(patch, source));
+        }
+    }
+
+    @Test
+    public void diffOnlyCarriesChanges() {
+        BsonValue patch = BsonMergePatch.diff(
+                BsonDocument.parse("{\"a\": 1, \"b\": {\"c\": 1, \"d\": 2}, \"e\": 3}"),
+                BsonDocument.parse("{\"a\": 1, \"b\": {\"c\": 1, \"d\": 3}}"));
+        assertEquals(BsonDocument.parse("{\"e\": null, \"b\": {\"d\": 3}}"), patch);
+    }
+
+    @Test
+    public void diffDetachesValuesOnRequest() {
+        BsonDocument target = BsonDocument.parse("{\"a\": [1, 2]}");
+        BsonDocument source = new BsonDocument();
+        assertSame(target.get("a"), BsonMergePatch.diff(source, target).asDocument().get("a"));
+        BsonValue detached = BsonMergePatch.diff(source, target, EnumSet.of(DiffFlags.DETACH_VALUES)).asDocument().get("a");
+        assertNotSame(target.get("a"), detached);
+        assertEquals(target.get("a"), detached);
+    }
+
+    @Test
+    public void diffRejectsNulls() {
+        String[] targets = {"{\"a\": null}", "{\"b\": {\"c\": null}}", "{\"a\": {\"d\": {\"e\": null}}}"};
+        for (String target : targets) {
+            try {
+                BsonMergePatch.diff(BsonDocument.parse("{\"a\": 1, \"b\": {\"c\": 1}}"), BsonDocument.parse(target));
+                fail(target);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("/"));
+            }
+        }
+    }
+
+    @Test
+    public void picksSmallerFormat() {
+        BsonDocument source = BsonDocument.parse("{\"a\": {\"b\": 1, \"c\": 2}, \"d\": 3}");
+        BsonDocument target = BsonDocument.parse("{\"a\": {\"b\": 2, \"c\": 3}}");
+        BsonValue patch = BsonMergePatch.smaller(source, target);
+        assertTrue(patch.isDocument());
+        assertEquals(target, BsonMergePatch.apply(patch, source));
+
+        BsonDocument list = BsonDocument.parse("{\"a\": [1, 2, 3, 4, 5, 6, 7, 8, 9, 10]}");
+        patch = BsonMergePatch.smaller(list, BsonDocument.parse("{\"a\": [1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11]}"));
+        assertTrue(patch.isArray());
+    }
+
+    @Test
+    public void fallsBackToJsonPatchForNulls() {
+        BsonDocument source = BsonDocument.parse("{\"a\": 1}");
+        BsonDocument target = BsonDocument.parse("{\"a\": null}");
+        BsonValue patch = BsonMergePatch.smaller(source, target);
+        assertTrue(patch.isArray());
+        assertEquals(target, BsonPatch.apply((BsonArray) patch, source));
+    }
+}
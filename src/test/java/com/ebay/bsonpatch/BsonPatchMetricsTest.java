@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BsonPatchMetricsTest {
+
+    private RecordingMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new RecordingMetrics();
+        BsonPatchMetrics.install(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        BsonPatchMetrics.install(null);
+    }
+
+    @Test
+    public void noopIsInstalledByDefault() {
+        BsonPatchMetrics.install(null);
+        assertSame(BsonPatchMetrics.NOOP, BsonPatchMetrics.installed());
+        assertNull(MetricsHolder.enabled());
+    }
+
+    @Test
+    public void diffIsMeasured() {
+        BsonDocument source = BsonDocument.parse("{\"a\": [1, 2, 3], \"b\": 1, \"c\": {\"d\": 1}}");
+        BsonDocument target = BsonDocument.parse("{\"a\": [1, 3, 4], \"c\": {\"d\": 2}}");
+        BsonArray patch = BsonDiff.asBson(source, target);
+
+        assertEquals(1, metrics.diffs);
+        assertEquals(patch.size(), metrics.diffOperations);
+        int emitted = 0;
+        for (int count : metrics.emitted.values()) emitted += count;
+        assertEquals(patch.size(), emitted);
+        assertEquals(1, metrics.lcsSizes.size());
+        assertEquals(9, (int) metrics.lcsSizes.get(0));
+        assertEquals(1, metrics.movePasses);
+        assertEquals(1, metrics.copyPasses);
+        assertEquals(4, metrics.nodesVisited);
+    }
+
+    @Test
+    public void applyIsMeasured() {
+        BsonArray patch = BsonArray.parse("[{\"op\": \"add\", \"path\": \"/a\", \"value\": \"xyz\"}," +
+                "{\"op\": \"copy\", \"from\": \"/a\", \"path\": \"/b\"}, {\"op\": \"test\", \"path\": \"/b\", \"value\": \"xyz\"}]");
+        BsonPatch.applyInPlace(patch, new BsonDocument());
+
+        assertEquals(1, metrics.applies);
+        assertEquals(3, metrics.appliedOperations);
+        assertEquals(Integer.valueOf(1), metrics.applied.get("add"));
+        assertEquals(Integer.valueOf(1), metrics.applied.get("copy"));
+        assertEquals(Integer.valueOf(1), metrics.applied.get("test"));
+        assertEquals(16, metrics.bytesCloned);
+    }
+
+    @Test
+    public void documentApplyIsMeasuredLikeBson() {
+        BsonArray patch = BsonArray.parse("[{\"op\": \"add\", \"path\": \"/a\", \"value\": \"xyz\"}," +
+                "{\"op\": \"copy\", \"from\": \"/a\", \"path\": \"/b\"}]");
+        BsonPatch.applyInPlace(patch, new Document());
+
+        assertEquals(1, metrics.applies);
+        assertEquals(16, metrics.bytesCloned);
+    }
+
+    @Test
+    public void failuresAreReportedByType() {
+        BsonArray patch = BsonArray.parse("[{\"op\": \"test\", \"path\": \"/a\", \"value\": 1}]");
+        try {
+            BsonPatch.apply(patch, BsonDocument.parse("{\"a\": 2}"));
+            fail("Failure expected");
+        } catch (BsonPatchApplicationException e) {
+            // expected
+        }
+        try {
+            BsonPatch.apply(BsonArray.parse("[{\"op\": \"what\"}]"), new BsonDocument());
+            fail("Failure expected");
+        } catch (InvalidBsonPatchException e) {
+            // expected
+        }
+        assertEquals(2, metrics.failures.size());
+        assertEquals("test:BsonPatchApplicationException", metrics.failures.get(0));
+        assertEquals("null:InvalidBsonPatchException", metrics.failures.get(1));
+        assertEquals(0, metrics.applies);
+    }
+
+    @Test
+    public void fieldUsedAsArrayIndexIsReported() {
+        BsonPatchResult result = BsonPatch.tryApply(
+                BsonArray.parse("[{\"op\": \"remove\", \"path\": \"/a/x\"}]"), BsonDocument.parse("{\"a\": [1]}"));
+        assertFalse(result.isSuccess());
+        assertEquals(BsonPatchResult.Reason.NOT_APPLICABLE, result.getReason());
+        assertEquals(Arrays.asList("remove:BsonPatchApplicationException"), metrics.failures);
+    }
+
+    private static class RecordingMetrics implements BsonPatchMetrics {
+        int diffs;
+        int diffOperations;
+        long nodesVisited;
+        int movePasses;
+        int copyPasses;
+        int applies;
+        int appliedOperations;
+        long bytesCloned;
+        final Map<String, Integer> emitted = new HashMap<String, Integer>();
+        final Map<String, Integer> applied = new HashMap<String, Integer>();
+        final List<Integer> lcsSizes = new ArrayList<Integer>();
+        final List<String> failures = new ArrayList<String>();
+
+        @Override public void diffCompleted(long durationNanos, int operationCount) { diffs++; diffOperations += operationCount; }
+        @Override public void diffOperationEmitted(String operation) { increment(emitted, operation); }
+        @Override public void diffNodesVisited(long count) { nodesVisited += count; }
+        @Override public void lcsComputed(int sourceSize, int targetSize) { lcsSizes.add(sourceSize * targetSize); }
+        @Override public void movePassCompleted(long durationNanos) { movePasses++; }
+        @Override public void copyPassCompleted(long durationNanos) { copyPasses++; }
+        @Override public void applyCompleted(long durationNanos, int operationCount) { applies++; appliedOperations += operationCount; }
+        @Override public void operationApplied(String operation) { increment(applied, operation); }
+        @Override public void bytesCloned(long bytes) { bytesCloned += bytes; }
+        @Override public void applyFailed(String operation, Class<? extends BsonPatchApplicationException> failure) {
+            failures.add(operation + ":" + failure.getSimpleName());
+        }
+
+        private static void increment(Map<String, Integer> counts, String key) {
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class ChangedPathsTest {
+
+    private static final BsonDocument SOURCE = BsonDocument.parse(
+            "{\"a\": 1, \"b\": {\"c\": [1, 2, 3], \"d\": [1, 2], \"e\": \"x\"}, \"gone\": true, \"audit\": {\"at\": 1}}");
+    private static final BsonDocument TARGET = BsonDocument.parse(
+            "{\"a\": 1, \"b\": {\"c\": [1, 5, 3], \"d\": [1], \"e\": {\"x\": 1}}, \"audit\": {\"at\": 2}, \"new\": 1}");
+
+    private static List<String> list(Iterator<String> paths) {
+        List<String> result = new ArrayList<String>();
+        while (paths.hasNext()) result.add(paths.next());
+        return result;
+    }
+
+    @Test
+    public void listsChangedPathsInDocumentOrder() {
+        assertEquals(Arrays.asList("/b/c/1", "/b/d", "/b/e", "/gone", "/audit/at", "/new"), list(BsonDiff.changedPaths(SOURCE, TARGET)));
+    }
+
+    @Test
+    public void honorsOptions() {
+        DiffOptions options = new DiffOptions().ignore("/audit").atomic("/b");
+        assertEquals(Arrays.asList("/b", "/gone", "/new"), list(BsonDiff.changedPaths(SOURCE, TARGET, options)));
+    }
+
+    @Test
+    public void equalValuesHaveNoChangedPaths() {
+        assertFalse(BsonDiff.changedPaths(SOURCE, SOURCE.clone()).hasNext());
+        assertEquals(Collections.singletonList(""), list(BsonDiff.changedPaths(new BsonInt32(1), new BsonInt32(2))));
+        assertEquals(Collections.singletonList(""), list(BsonDiff.changedPaths(null, new BsonInt32(2))));
+    }
+
+    @Test
+    public void stopsAtFirstChange() {
+        BsonDocument source = BsonDocument.parse("{\"first\": 1, \"second\": [1, 2]}");
+        BsonDocument target = new BsonDocument() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public BsonValue get(Object key) {
+                if ("second".equals(key)) throw new AssertionError("compared past the first change");
+                return super.get(key);
+            }
+        };
+        target.put("first", new BsonInt32(2));
+        target.put("second", BsonArray.parse("[1, 2]"));
+        Iterator<String> paths = BsonDiff.changedPaths(source, target);
+        assertEquals("/first", paths.next());
+    }
+
+    @Test
+    public void anyChangedComparesOnlyGivenPaths() {
+        assertFalse(BsonDiff.anyChanged(SOURCE, TARGET, Arrays.asList("/a", "/b/c/0", "/missing")));
+        assertTrue(BsonDiff.anyChanged(SOURCE, TARGET, Arrays.asList("/a", "/b/c")));
+        assertTrue(BsonDiff.anyChanged(SOURCE, TARGET, Collections.singleton("/new")));
+        assertTrue(BsonDiff.anyChanged(SOURCE, TARGET, Collections.singleton("/gone")));
+        assertTrue(BsonDiff.anyChanged(SOURCE, TARGET, Collections.singleton("/b/e/x")));
+        assertFalse(BsonDiff.anyChanged(SOURCE, TARGET, Collections.singleton("/b/d/0")));
+        assertTrue(BsonDiff.anyChanged(SOURCE, TARGET, Collections.singleton("")));
+    }
+
+    private static BsonDocument document(Random random, int depth) {
+        BsonDocument document = new BsonDocument();
+        int fields = random.nextInt(5);
+        for (int i = 0; i < fields; i++) {
+            String key = "k" + random.nextInt(6);
+            document.put(key, depth > 0 && random.nextInt(3) == 0 ? document(random, depth - 1) : new BsonInt32(random.nextInt(3)));
+        }
+        return document;
+    }
+
+    @Test
+    public void matchesDiffPathsForDocuments() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            BsonDocument source = document(random, 3);
+            BsonDocument target = document(random, 3);
+            Set<String> expected = new HashSet<String>();
+            for (BsonValue operation : BsonDiff.asBson(source, target, DiffFlags.dontNormalizeOpIntoMoveAndCopy())) {
+                expected.add(operation.asDocument().getString("path").getValue());
+            }
+            List<String> changed = list(BsonDiff.changedPaths(source, target));
+            assertEquals(expected, new HashSet<String>(changed));
+            assertEquals(expected.size(), changed.size());
+            for (String path : changed) {
+                assertTrue(BsonDiff.anyChanged(source, target, Collections.singleton(path)));
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.codecs.BsonArrayCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.Test;
+
+public class CompactBsonPatchTest {
+
+    private static int rfcSize(BsonArray patch) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+        writer.writeStartDocument();
+        writer.writeName("patch");
+        new BsonArrayCodec().encode(writer, patch, EncoderContext.builder().build());
+        writer.writeEndDocument();
+        writer.close();
+        return buffer.getPosition();
+    }
+
+    @Test
+    public void generatedPatchesRoundTrip() {
+        for (int i = 0; i < 100; i++) {
+            BsonArray source = TestDataGenerator.generate((int) (Math.random() * 5));
+            BsonArray target = TestDataGenerator.generate((int) (Math.random() * 5));
+            BsonArray patch = BsonDiff.asBson(source, target);
+            byte[] compact = CompactBsonPatch.encode(patch);
+
+            assertEquals(patch, CompactBsonPatch.decode(compact));
+            assertEquals(target, CompactBsonPatch.apply(compact, source));
+            assertTrue(compact.length <= rfcSize(patch));
+
+            BsonArray inPlace = source.clone();
+            CompactBsonPatch.applyInPlace(compact, inPlace);
+            assertEquals(target, inPlace);
+        }
+    }
+
+    @Test
+    public void unusualTokensRoundTrip() {
+        BsonArray patch = BsonArray.parse("[" +
+                "{\"op\": \"add\", \"path\": \"/a/01\", \"value\": {\"$numberLong\": \"1\"}}," +
+                "{\"op\": \"add\", \"path\": \"/a/-\", \"value\": 2}," +
+                "{\"op\": \"test\", \"path\": \"\", \"value\": []}," +
+                "{\"op\": \"move\", \"from\": \"/a~1b/0\", \"path\": \"/a~1b/ü\"}," +
+                "{\"op\": \"remove\", \"path\": \"/a~1b/ü\"}," +
+                "{\"op\": \"copy\", \"from\": \"/x/y/z\", \"path\": \"/x/y/z/4294967296\"}]");
+        assertEquals(patch, CompactBsonPatch.decode(CompactBsonPatch.encode(patch)));
+    }
+
+    @Test
+    public void sharedPrefixesAreWrittenOnce() {
+        BsonArray patch = BsonArray.parse("[" +
+                "{\"op\": \"replace\", \"path\": \"/customer/address/street\", \"value\": 1}," +
+                "{\"op\": \"replace\", \"path\": \"/customer/address/city\", \"value\": 2}]");
+        byte[] compact = CompactBsonPatch.encode(patch);
+        String text = new String(compact, java.nio.charset.StandardCharsets.ISO_8859_1);
+        assertEquals(text.indexOf("address"), text.lastIndexOf("address"));
+    }
+
+    @Test(expected = InvalidBsonPatchException.class)
+    public void truncatedPatchIsRejected() {
+        BsonArray patch = BsonArray.parse("[{\"op\": \"add\", \"path\": \"/a\", \"value\": \"b\"}]");
+        byte[] compact = CompactBsonPatch.encode(patch);
+        CompactBsonPatch.apply(Arrays.copyOf(compact, compact.length - 3), new BsonDocument());
+    }
+
+    @Test
+    public void everyTruncationIsRejected() {
+        BsonArray patch = BsonArray.parse("[{\"op\": \"add\", \"path\": \"/a/0\", \"value\": {\"b\": [1, \"c\"]}}," +
+                "{\"op\": \"test\", \"path\": \"/a\", \"hash\": {\"$numberLong\": \"7\"}, \"size\": 1}," +
+                "{\"op\": \"move\", \"from\": \"/a/0\", \"path\": \"/d\"}]");
+        byte[] compact = CompactBsonPatch.encode(patch);
+        for (int length = 0; length < compact.length; length++) {
+            try {
+                CompactBsonPatch.decode(Arrays.copyOf(compact, length));
+                fail("Truncation to " + length + " bytes accepted");
+            } catch (InvalidBsonPatchException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = InvalidBsonPatchException.class)
+    public void corruptValueIsRejected() {
+        BsonArray patch = BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": \"b\"}]");
+        byte[] compact = CompactBsonPatch.encode(patch);
+        // the value document's terminator becomes the type of a second field
+        compact[compact.length - 1] = 0x10;
+        CompactBsonPatch.decode(compact);
+    }
+
+    @Test
+    public void opCodesAreStable() {
+        String[] operations = {
+                "{\"op\": \"add\", \"path\": \"\", \"value\": 1}",
+                "{\"op\": \"remove\", \"path\": \"\"}",
+                "{\"op\": \"replace\", \"path\": \"\", \"value\": 1}",
+                "{\"op\": \"move\", \"from\": \"\", \"path\": \"\"}",
+                "{\"op\": \"copy\", \"from\": \"\", \"path\": \"\"}",
+                "{\"op\": \"test\", \"path\": \"\", \"value\": 1}",
+                "{\"op\": \"test\", \"path\": \"\", \"hash\": {\"$numberLong\": \"7\"}}" };
+        for (int code = 0; code < operations.length; code++) {
+            // format byte, operation count, op code
+            assertEquals(operations[code], code, CompactBsonPatch.encode(BsonArray.parse("[" + operations[code] + "]"))[2]);
+        }
+    }
+
+    @Test(expected = InvalidBsonPatchException.class)
+    public void unknownFormatIsRejected() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(42);
+        out.write(0);
+        CompactBsonPatch.decode(out.toByteArray());
+    }
+
+    @Test(expected = BsonPatchApplicationException.class)
+    public void applicationErrorsAreReported() {
+        BsonArray patch = BsonArray.parse("[{\"op\": \"remove\", \"path\": \"/missing/field\"}]");
+        CompactBsonPatch.apply(CompactBsonPatch.encode(patch), new BsonDocument());
+    }
+}
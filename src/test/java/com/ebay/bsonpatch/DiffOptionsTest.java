@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class DiffOptionsTest {
+
+    private static final BsonDocument SOURCE = BsonDocument.parse(
+            "{\"a\": {\"b\": {\"c\": 1, \"d\": 2}}, \"audit\": {\"at\": 1}, \"items\": [{\"cache\": {\"x\": 1}, \"n\": 1}]}");
+    private static final BsonDocument TARGET = BsonDocument.parse(
+            "{\"a\": {\"b\": {\"c\": 1, \"d\": 3}}, \"audit\": {\"at\": 2}, \"items\": [{\"cache\": {\"x\": 2}, \"n\": 1}]}");
+
+    @Test
+    public void maxDepthReplacesDeeperContainersAsAWhole() {
+        BsonArray patch = BsonDiff.asBson(SOURCE, TARGET, new DiffOptions().maxDepth(1));
+        assertEquals(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": {\"b\": {\"c\": 1, \"d\": 3}}}," +
+                "{\"op\": \"replace\", \"path\": \"/audit\", \"value\": {\"at\": 2}}," +
+                "{\"op\": \"replace\", \"path\": \"/items\", \"value\": [{\"cache\": {\"x\": 2}, \"n\": 1}]}]"), patch);
+        assertEquals(TARGET, BsonPatch.apply(patch, SOURCE));
+    }
+
+    @Test
+    public void atomicPathsAreReplacedAsAWhole() {
+        BsonArray patch = BsonDiff.asBson(SOURCE, TARGET, new DiffOptions().atomic("/items/*/cache").atomic("/a/b"));
+        assertEquals(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a/b\", \"value\": {\"c\": 1, \"d\": 3}}," +
+                "{\"op\": \"replace\", \"path\": \"/audit/at\", \"value\": 2}," +
+                "{\"op\": \"replace\", \"path\": \"/items/0/cache\", \"value\": {\"x\": 2}}]"), patch);
+        assertEquals(TARGET, BsonPatch.apply(patch, SOURCE));
+    }
+
+    @Test
+    public void ignoredPathsAreSkipped() {
+        BsonArray patch = BsonDiff.asBson(SOURCE, TARGET, new DiffOptions().ignore("/audit").ignore("/**/cache"));
+        assertEquals(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a/b/d\", \"value\": 3}]"), patch);
+    }
+
+    /** A document failing the test if anything reads its fields. */
+    private static final class Untouchable extends BsonDocument {
+        private static final long serialVersionUID = 1L;
+
+        Untouchable(int at) {
+            super("at", new BsonInt32(at));
+        }
+
+        @Override public Set<Map.Entry<String, BsonValue>> entrySet() { throw new AssertionError("ignored subtree read"); }
+        @Override public Set<String> keySet() { throw new AssertionError("ignored subtree read"); }
+        @Override public Collection<BsonValue> values() { throw new AssertionError("ignored subtree read"); }
+        @Override public BsonValue get(Object key) { throw new AssertionError("ignored subtree read"); }
+        @Override public boolean containsKey(Object key) { throw new AssertionError("ignored subtree read"); }
+        @Override public int size() { throw new AssertionError("ignored subtree read"); }
+        @Override public boolean isEmpty() { throw new AssertionError("ignored subtree read"); }
+        @Override public boolean equals(Object o) { throw new AssertionError("ignored subtree read"); }
+        @Override public int hashCode() { throw new AssertionError("ignored subtree read"); }
+    }
+
+    @Test
+    public void ignoredSubtreesAreNeverRead() {
+        DiffOptions options = new DiffOptions().ignore("/audit").ignore("/items/*/audit");
+        BsonDocument source = new BsonDocument("audit", new Untouchable(1)).append("a", new BsonInt32(1))
+                .append("items", new BsonArray(Arrays.<BsonValue>asList(new BsonDocument("audit", new Untouchable(1)))));
+        BsonDocument target = new BsonDocument("audit", new Untouchable(2)).append("a", new BsonInt32(1))
+                .append("items", new BsonArray(Arrays.<BsonValue>asList(new BsonDocument("audit", new Untouchable(2)))));
+        assertEquals(new BsonArray(), BsonDiff.asBson(source, target, options));
+
+        target.put("a", new BsonInt32(2));
+        assertEquals(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 2}]"), BsonDiff.asBson(source, target, options));
+    }
+
+    @Test
+    public void ignoredFieldsAreNotAddedOrRemoved() {
+        BsonDocument source = BsonDocument.parse("{\"a\": 1, \"tmp\": 1}");
+        BsonDocument target = BsonDocument.parse("{\"a\": 2, \"cache\": 1}");
+        BsonArray patch = BsonDiff.asBson(source, target, new DiffOptions().ignore("/tmp").ignore("/cache"));
+        assertEquals(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 2}]"), patch);
+    }
+
+    @Test
+    public void unorderedArraysAreDiffedAsMultisets() {
+        BsonDocument source = BsonDocument.parse("{\"tags\": [\"a\", \"b\", \"c\", \"b\"], \"list\": [1, 2]}");
+        BsonDocument target = BsonDocument.parse("{\"tags\": [\"d\", \"c\", \"b\", \"a\"], \"list\": [2, 1]}");
+        BsonArray patch = BsonDiff.asBson(source, target, new DiffOptions().unordered("/tags"));
+        assertEquals(BsonArray.parse("[{\"op\": \"remove\", \"path\": \"/tags/1\"}," +
+                "{\"op\": \"add\", \"path\": \"/tags/3\", \"value\": \"d\"}," +
+                "{\"op\": \"move\", \"from\": \"/list/1\", \"path\": \"/list/0\"}]"), patch);
+        assertEquals(BsonArray.parse("[\"a\", \"c\", \"b\", \"d\"]"), BsonPatch.apply(patch, source).asDocument().get("tags"));
+    }
+
+    @Test
+    public void unorderedArraysKeepDuplicateCounts() {
+        BsonArray source = BsonArray.parse("[1, 1, 2, {\"x\": 1, \"y\": 2}, 3]");
+        BsonArray target = BsonArray.parse("[3, {\"y\": 2, \"x\": 1}, 1, 2, 2]");
+        BsonArray patch = BsonDiff.asBson(source, target, new DiffOptions().unordered(""));
+        assertEquals(BsonArray.parse("[{\"op\": \"remove\", \"path\": \"/0\"}," +
+                "{\"op\": \"add\", \"path\": \"/4\", \"value\": 2}]"), patch);
+        assertEquals(BsonArray.parse("[1, 2, {\"x\": 1, \"y\": 2}, 3, 2]"), BsonPatch.apply(patch, source));
+    }
+
+    @Test
+    public void patternsMatchWildcards() {
+        assertTrue(PathPattern.compile("/a/*/c").matches(JsonPointer.parse("/a/0/c")));
+        assertFalse(PathPattern.compile("/a/*/c").matches(JsonPointer.parse("/a/c")));
+        assertTrue(PathPattern.compile("/**/c").matches(JsonPointer.parse("/c")));
+        assertTrue(PathPattern.compile("/**/c").matches(JsonPointer.parse("/a/b/c")));
+        assertFalse(PathPattern.compile("/**/c").matches(JsonPointer.parse("/a/b/c/d")));
+        assertTrue(PathPattern.compile("/a/**").matches(JsonPointer.parse("/a")));
+
+        PathNode node = PathNode.ROOT.child("a").child(10).child("c");
+        assertTrue(PathPattern.compile("/a/*/c").matches(node));
+        assertTrue(PathPattern.compile("/a/10/c").matches(node));
+        assertFalse(PathPattern.compile("/a/1/c").matches(node));
+        assertFalse(PathPattern.compile("/a/010/c").matches(node));
+        assertTrue(PathPattern.compile("/**/c").matches(node));
+        assertTrue(PathPattern.compile("/a/**").matches(node));
+        assertTrue(PathPattern.compile("/**").matches(PathNode.ROOT));
+        assertFalse(PathPattern.compile("/**/a").matches(node));
+        assertFalse(PathPattern.compile("/a/*").matches(node));
+    }
+}
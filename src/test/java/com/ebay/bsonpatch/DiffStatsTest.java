@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.junit.Test;
+
+public class DiffStatsTest {
+
+    private static final BsonDocument SOURCE = BsonDocument.parse(
+            "{\"small\": [1, 2], \"large\": [1, 2, 3, 4, 5, 6], \"doc\": {\"a\": 1, \"b\": 2, \"c\": 3}}");
+    private static final BsonDocument TARGET = BsonDocument.parse(
+            "{\"small\": [2, 1], \"large\": [6, 5, 4, 3, 2, 1], \"doc\": {\"a\": 2, \"b\": 3, \"c\": 4}}");
+
+    @Test
+    public void patchIsTheSameAsWithoutStats() {
+        DiffStats stats = BsonDiff.asBsonWithStats(SOURCE, TARGET);
+        assertEquals(BsonDiff.asBson(SOURCE, TARGET), stats.getPatch());
+    }
+
+    @Test
+    public void largestArraysAreListedFirst() {
+        List<DiffStats.ArrayComparison> arrays = BsonDiff.asBsonWithStats(SOURCE, TARGET).getLargestArrays();
+        assertEquals(2, arrays.size());
+        assertEquals("/large", arrays.get(0).getPath());
+        assertEquals(6, arrays.get(0).getSourceSize());
+        assertEquals(6, arrays.get(0).getTargetSize());
+        assertEquals("/small", arrays.get(1).getPath());
+        assertTrue(arrays.get(0).getCost() > arrays.get(1).getCost());
+    }
+
+    @Test
+    public void busiestSubtreesAreListedFirst() {
+        DiffStats stats = BsonDiff.asBsonWithStats(SOURCE, TARGET, DiffFlags.dontNormalizeOpIntoMoveAndCopy());
+        Map.Entry<String, Integer> busiest = stats.getBusiestSubtrees().entrySet().iterator().next();
+        assertEquals("/large", busiest.getKey());
+        int total = 0;
+        for (int count : stats.getBusiestSubtrees().values()) total += count;
+        assertEquals(stats.getPatch().size(), total);
+    }
+
+    @Test
+    public void phasesAndComparisonsAreMeasured() {
+        DiffStats stats = BsonDiff.asBsonWithStats(SOURCE, TARGET, DiffFlags.dontNormalizeOpIntoMoveAndCopy());
+        assertEquals(0, stats.getPhaseNanos(DiffStats.Phase.INTRODUCE_MOVE_OPERATION));
+        assertEquals(0, stats.getPhaseNanos(DiffStats.Phase.INTRODUCE_COPY_OPERATION));
+        assertTrue(stats.getPhaseNanos(DiffStats.Phase.GENERATE_DIFFS) > 0);
+        assertTrue(stats.getTotalNanos() >= stats.getPhaseNanos(DiffStats.Phase.GENERATE_DIFFS));
+        assertTrue(stats.getEqualsCalls() > stats.getNodesVisited());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.BsonDocumentReader;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs the operation test cases whose documents are objects against {@link Document}s, expecting the same
+ * results and errors as with {@link BsonDocument}s.
+ */
+@RunWith(Parameterized.class)
+public class DocumentPatchTest {
+
+    @Parameter
+    public PatchTestCase p;
+
+    @Parameters
+    public static Collection<PatchTestCase> data() throws IOException {
+        List<PatchTestCase> cases = new ArrayList<PatchTestCase>();
+        for (String file : Arrays.asList("add", "copy", "move", "remove", "replace", "test", "rfc6902-samples", "js-libs-samples")) {
+            for (PatchTestCase testCase : PatchTestCase.load(file)) {
+                BsonValue expected = testCase.getNode().get("expected");
+                if (testCase.getNode().get("node").isDocument() && (expected == null || expected.isDocument()))
+                    cases.add(testCase);
+            }
+        }
+        return cases;
+    }
+
+    private static Document toDocument(BsonDocument document) {
+        return new DocumentCodec().decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    private static Class<?> exceptionType(String type) {
+        try {
+            return Class.forName(type.contains(".") ? type : "com.ebay.bsonpatch." + type);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Test
+    public void test() {
+        BsonDocument node = p.getNode();
+        Document document = toDocument(node.getDocument("node"));
+        BsonArray patch = node.getArray("op");
+
+        if (p.isOperation()) {
+            BsonPatch.applyInPlace(patch, document);
+            assertEquals(p.getSourceFile() + ": " + node.toJson(), toDocument(node.getDocument("expected")), document);
+            return;
+        }
+
+        try {
+            BsonPatch.applyInPlace(patch, document);
+            fail("Failure expected: " + node.toJson());
+        } catch (RuntimeException e) {
+            // like the BsonDocument tests, the samples only have to fail
+            if (p.getSourceFile().contains("samples")) return;
+            String type = node.containsKey("type") ? node.getString("type").getValue() : "BsonPatchApplicationException";
+            assertThat(node.toJson(), e, instanceOf(exceptionType(type)));
+            if (node.containsKey("message"))
+                assertThat(node.toJson(), e.toString(), containsString(node.getString("message").getValue().replace("\\\"", "\"")));
+        }
+    }
+}
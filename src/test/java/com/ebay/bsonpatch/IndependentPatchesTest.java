@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class IndependentPatchesTest {
+
+    private static boolean independent(String a, String b) {
+        return BsonPatch.independent(BsonArray.parse(a), BsonArray.parse(b));
+    }
+
+    @Test
+    public void disjointFieldsAreIndependent() {
+        assertTrue(independent("[{\"op\": \"replace\", \"path\": \"/a/b\", \"value\": 1}]", "[{\"op\": \"remove\", \"path\": \"/a/c\"}]"));
+        assertTrue(independent("[{\"op\": \"test\", \"path\": \"/a\", \"value\": 1}]", "[{\"op\": \"copy\", \"from\": \"/a\", \"path\": \"/b\"}]"));
+        assertTrue(independent("[{\"op\": \"replace\", \"path\": \"/arr/1\", \"value\": 1}]", "[{\"op\": \"replace\", \"path\": \"/arr/2\", \"value\": 1}]"));
+    }
+
+    @Test
+    public void nestedPathsOverlap() {
+        assertFalse(independent("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": {}}]", "[{\"op\": \"add\", \"path\": \"/a/b/c\", \"value\": 1}]"));
+        assertFalse(independent("[{\"op\": \"test\", \"path\": \"/a/b\", \"value\": 1}]", "[{\"op\": \"remove\", \"path\": \"/a\"}]"));
+        assertFalse(independent("[{\"op\": \"move\", \"from\": \"/x\", \"path\": \"/y\"}]", "[{\"op\": \"test\", \"path\": \"/x\", \"value\": 1}]"));
+    }
+
+    @Test
+    public void arrayInsertionsAndRemovalsCoverTheArray() {
+        assertFalse(independent("[{\"op\": \"add\", \"path\": \"/arr/0\", \"value\": 1}]", "[{\"op\": \"replace\", \"path\": \"/arr/3/x\", \"value\": 1}]"));
+        assertFalse(independent("[{\"op\": \"remove\", \"path\": \"/arr/5\"}]", "[{\"op\": \"add\", \"path\": \"/arr/-\", \"value\": 1}]"));
+    }
+
+    @Test
+    public void batchesFollowOverlappingPatches() {
+        List<BsonArray> patches = Arrays.asList(
+                BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 1}]"),
+                BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/b\", \"value\": 1}]"),
+                BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 2}]"),
+                BsonArray.parse("[{\"op\": \"add\", \"path\": \"/c\", \"value\": 1}]"),
+                BsonArray.parse("[{\"op\": \"copy\", \"from\": \"/a\", \"path\": \"/b\"}]"));
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 3), Arrays.asList(2), Arrays.asList(4)), BsonPatch.independentBatches(patches));
+    }
+
+    @Test
+    public void batchedApplicationMatchesSequentialApplication() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            BsonDocument state = new BsonDocument();
+            for (int f = 0; f < 5; f++) state.put("f" + f, TestDataGenerator.generate(2));
+            BsonDocument initial = state.clone();
+
+            List<BsonArray> patches = new ArrayList<BsonArray>();
+            for (int i = 0; i < 10; i++) {
+                BsonDocument next = state.clone();
+                next.put("f" + random.nextInt(5), TestDataGenerator.generate(random.nextInt(3)));
+                patches.add(BsonDiff.asBson(state, next, DiffFlags.dontNormalizeOpIntoMoveAndCopy()));
+                state = next;
+            }
+
+            BsonValue batched = initial.clone();
+            for (List<Integer> batch : BsonPatch.independentBatches(patches)) {
+                List<Integer> reversed = new ArrayList<Integer>(batch);
+                Collections.reverse(reversed);
+                for (int index : reversed) BsonPatch.applyInPlace(patches.get(index), batched);
+            }
+            assertEquals(state, batched);
+        }
+    }
+}
@@ -26,6 +26,8 @@ import java.util.EnumSet;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import org.apache.commons.io.IOUtils;
 import org.bson.BsonArray;
@@ -162,4 +164,30 @@ public class JsonDiffTest {
         assertEquals(JsonPointer.ROOT.toString(), diff.get(0).asDocument().getString("path").getValue());
         assertEquals("V1", diff.get(0).asDocument().getDocument("value").getString("K1").getValue());
     }
+
+    @Test
+    public void testAppendedArrayElementsReferenceTarget() {
+        BsonDocument source = BsonDocument.parse("{ \"a\": [1] }");
+        BsonDocument target = BsonDocument.parse("{ \"a\": [1, {\"b\": \"c\"}] }");
+        BsonArray diff = BsonDiff.asBson(source, target);
+
+        assertEquals(1, diff.size());
+        assertSame(target.getArray("a").get(1), diff.get(0).asDocument().get("value"));
+    }
+
+    @Test
+    public void testDetachedValuesSurviveLaterMutation() {
+        BsonDocument source = BsonDocument.parse("{ \"a\": [1], \"b\": {\"c\": 1} }");
+        BsonDocument target = BsonDocument.parse("{ \"a\": [1, {\"d\": \"e\"}], \"b\": {\"c\": 2} }");
+        BsonDocument original = target.clone();
+        BsonArray diff = BsonDiff.asBson(source, target,
+                EnumSet.of(DiffFlags.DETACH_VALUES, DiffFlags.ADD_ORIGINAL_VALUE_ON_REPLACE));
+        BsonArray expected = diff.clone();
+
+        assertNotSame(target.getArray("a").get(1), diff.get(0).asDocument().get("value"));
+        target.getArray("a").get(1).asDocument().put("d", new BsonString("changed"));
+        source.getDocument("b").put("c", new BsonInt32(3));
+        assertEquals(expected, diff);
+        assertEquals(original, BsonPatch.apply(diff, BsonDocument.parse("{ \"a\": [1], \"b\": {\"c\": 1} }")));
+    }
 }
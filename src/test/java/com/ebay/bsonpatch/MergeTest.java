@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class MergeTest {
+
+    private static BsonValue merge(String base, String patchA, String patchB) {
+        return BsonPatch.merge(BsonDocument.parse(base), BsonArray.parse(patchA), BsonArray.parse(patchB));
+    }
+
+    @Test
+    public void disjointChangesMerge() {
+        for (int i = 0; i < 100; i++) {
+            BsonDocument base = new BsonDocument("left", TestDataGenerator.generate(3)).append("right", TestDataGenerator.generate(3));
+            BsonDocument left = base.clone().append("left", TestDataGenerator.generate((int) (Math.random() * 4)));
+            BsonDocument right = base.clone().append("right", TestDataGenerator.generate((int) (Math.random() * 4)));
+            BsonDocument expected = left.clone().append("right", right.get("right"));
+
+            BsonValue merged = BsonPatch.merge(base, BsonDiff.asBson(base, left), BsonDiff.asBson(base, right));
+            assertEquals(expected, merged);
+        }
+    }
+
+    @Test
+    public void arrayIndexesAreShifted() {
+        assertEquals(BsonDocument.parse("{a: ['x', 2, 3, 'y']}"), merge("{a: [1, 2, 3]}",
+                "[{\"op\": \"add\", \"path\": \"/a/1\", \"value\": \"x\"}]",
+                "[{\"op\": \"add\", \"path\": \"/a/3\", \"value\": \"y\"}, {\"op\": \"remove\", \"path\": \"/a/0\"}]"));
+        assertEquals(BsonDocument.parse("{a: [{v: 1}, {v: 2, w: true}]}"), merge("{a: [{v: 0}, {v: 2}]}",
+                "[{\"op\": \"remove\", \"path\": \"/a/0\"}, {\"op\": \"add\", \"path\": \"/a/0\", \"value\": {\"v\": 1}}]",
+                "[{\"op\": \"add\", \"path\": \"/a/1/w\", \"value\": true}]"));
+    }
+
+    @Test
+    public void concurrentInsertsAtSameIndexKeepFirstPatchFirst() {
+        assertEquals(BsonDocument.parse("{a: ['x', 'y', 1]}"), merge("{a: [1]}",
+                "[{\"op\": \"add\", \"path\": \"/a/0\", \"value\": \"x\"}]",
+                "[{\"op\": \"add\", \"path\": \"/a/0\", \"value\": \"y\"}]"));
+    }
+
+    @Test
+    public void identicalChangesAreAppliedOnce() {
+        assertEquals(BsonDocument.parse("{a: [2], b: 5}"), merge("{a: [1, 2], b: 1, c: 1}",
+                "[{\"op\": \"remove\", \"path\": \"/a/0\"}, {\"op\": \"replace\", \"path\": \"/b\", \"value\": 5}, {\"op\": \"remove\", \"path\": \"/c\"}]",
+                "[{\"op\": \"remove\", \"path\": \"/a/0\"}, {\"op\": \"replace\", \"path\": \"/b\", \"value\": 5}, {\"op\": \"remove\", \"path\": \"/c\"}]"));
+    }
+
+    @Test
+    public void identicalRemovalIsNotShiftedTwice() {
+        assertEquals(BsonDocument.parse("{arr: ['a', 'c', 'X']}"), merge("{arr: ['a', 'b', 'c', 'd']}",
+                "[{\"op\": \"remove\", \"path\": \"/arr/1\"}]",
+                "[{\"op\": \"remove\", \"path\": \"/arr/1\"}, {\"op\": \"replace\", \"path\": \"/arr/2\", \"value\": \"X\"}]"));
+        assertEquals(BsonDocument.parse("{arr: ['a', 'X', 'd']}"), merge("{arr: ['a', 'b', 'c', 'd']}",
+                "[{\"op\": \"remove\", \"path\": \"/arr/1\"}]",
+                "[{\"op\": \"remove\", \"path\": \"/arr/1\"}, {\"op\": \"replace\", \"path\": \"/arr/1\", \"value\": \"X\"}]"));
+    }
+
+    @Test
+    public void numericFieldsAreNotShifted() {
+        assertEquals(BsonDocument.parse("{o: {'0': 'x', '1': 'y'}}"), merge("{o: {'0': 1}}",
+                "[{\"op\": \"replace\", \"path\": \"/o/0\", \"value\": \"x\"}]",
+                "[{\"op\": \"add\", \"path\": \"/o/1\", \"value\": \"y\"}]"));
+    }
+
+    @Test(expected = BsonPatchConflictException.class)
+    public void sameFieldWithDifferentValuesConflicts() {
+        merge("{a: 1}", "[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 2}]", "[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 3}]");
+    }
+
+    @Test(expected = BsonPatchConflictException.class)
+    public void changeToRemovedElementConflicts() {
+        merge("{a: [1, 2]}", "[{\"op\": \"remove\", \"path\": \"/a/1\"}]", "[{\"op\": \"replace\", \"path\": \"/a/1\", \"value\": 3}]");
+    }
+
+    @Test(expected = BsonPatchConflictException.class)
+    public void changeBelowReplacedValueConflicts() {
+        merge("{a: {b: 1}}", "[{\"op\": \"replace\", \"path\": \"/a\", \"value\": {}}]", "[{\"op\": \"add\", \"path\": \"/a/c\", \"value\": 1}]");
+    }
+
+    @Test(expected = BsonPatchConflictException.class)
+    public void testOfModifiedValueConflicts() {
+        merge("{a: 1, b: 1}", "[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 2}]",
+                "[{\"op\": \"test\", \"path\": \"/a\", \"value\": 1}, {\"op\": \"replace\", \"path\": \"/b\", \"value\": 2}]");
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+
+/**
+ * Evaluates the subset of MongoDB update semantics produced by {@link MongoUpdate} against an in-memory
+ * document, so that translations can be checked without a server.
+ */
+final class MongoUpdateSimulator {
+
+    private MongoUpdateSimulator() {}
+
+    /**
+     * Applies the update to a copy of the document the way {@link MongoUpdate} documents it, the filter selecting
+     * the document for the first stage only, and returns {@code null} if it doesn't match.
+     */
+    static BsonDocument apply(MongoUpdate update, BsonDocument document) {
+        BsonDocument result = document.clone();
+        BsonDocument filter = update.getFilter();
+        if (update.getStages().isEmpty()) return matches(filter, result) ? result : null;
+        for (MongoUpdate.Stage stage : update.getStages()) {
+            if (!matches(filter, result)) return null;
+            if (stage.isPipeline()) applyPipeline(stage.getPipeline(), result);
+            else applyOperators(stage.getUpdate(), result);
+            // the following stages select the document by _id alone
+            filter = new BsonDocument();
+        }
+        return result;
+    }
+
+    private static boolean matches(BsonDocument filter, BsonDocument document) {
+        for (Map.Entry<String, BsonValue> condition : filter.entrySet()) {
+            String key = condition.getKey();
+            if (key.equals("$and")) {
+                for (BsonValue nested : condition.getValue().asArray()) {
+                    if (!matches(nested.asDocument(), document)) return false;
+                }
+            } else if (key.equals("$expr")) {
+                if (!evaluate(condition.getValue(), document).asBoolean().getValue()) return false;
+            } else {
+                BsonDocument predicate = condition.getValue().asDocument();
+                BsonValue value = resolve(document, key);
+                if (predicate.containsKey("$exists") && predicate.getBoolean("$exists").getValue() != (value != null))
+                    return false;
+                if (predicate.containsKey("$eq") && (value == null || !value.equals(predicate.get("$eq"))))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static void applyOperators(BsonDocument update, BsonDocument document) {
+        for (Map.Entry<String, BsonValue> operator : update.entrySet()) {
+            for (Map.Entry<String, BsonValue> field : operator.getValue().asDocument().entrySet()) {
+                String name = field.getKey();
+                if (operator.getKey().equals("$set")) {
+                    set(document, name, CopyingApplyProcessor.deepCopy(field.getValue()));
+                } else if (operator.getKey().equals("$unset")) {
+                    unset(document, name);
+                } else if (operator.getKey().equals("$push")) {
+                    BsonDocument push = field.getValue().asDocument();
+                    BsonArray array = resolve(document, name).asArray();
+                    int position = push.containsKey("$position") ? push.getInt32("$position").getValue() : array.size();
+                    for (BsonValue element : push.getArray("$each")) {
+                        array.add(position++, CopyingApplyProcessor.deepCopy(element));
+                    }
+                } else {
+                    throw new IllegalArgumentException(operator.getKey());
+                }
+            }
+        }
+    }
+
+    private static void applyPipeline(List<BsonDocument> pipeline, BsonDocument document) {
+        for (BsonDocument stage : pipeline) {
+            if (stage.containsKey("$set")) {
+                BsonDocument snapshot = document.clone();
+                for (Map.Entry<String, BsonValue> field : stage.getDocument("$set").entrySet()) {
+                    set(document, field.getKey(), CopyingApplyProcessor.deepCopy(evaluate(field.getValue(), snapshot)));
+                }
+            } else {
+                unset(document, stage.getString("$unset").getValue());
+            }
+        }
+    }
+
+    private static BsonValue evaluate(BsonValue expression, BsonDocument document) {
+        if (expression.isString()) {
+            String value = expression.asString().getValue();
+            if (value.equals("$$ROOT")) return document;
+            if (value.startsWith("$")) return resolve(document, value.substring(1));
+            return expression;
+        }
+        if (!expression.isDocument()) return expression;
+        BsonDocument operator = expression.asDocument();
+        String name = operator.getFirstKey();
+        BsonValue argument = operator.get(name);
+        if (name.equals("$literal")) return argument;
+        BsonArray operands = new BsonArray();
+        for (BsonValue operand : argument.isArray() ? argument.asArray() : new BsonArray(java.util.Collections.singletonList(argument))) {
+            operands.add(evaluate(operand, document));
+        }
+        if (name.equals("$eq")) return BsonBoolean.valueOf(BsonEquality.equal(operands.get(0), operands.get(1)));
+        if (name.equals("$size")) return new BsonInt32(operands.get(0).asArray().size());
+        if (name.equals("$max")) return new BsonInt32(Math.max(operands.get(0).asInt32().getValue(), operands.get(1).asInt32().getValue()));
+        if (name.equals("$concatArrays")) {
+            BsonArray result = new BsonArray();
+            for (BsonValue operand : operands) result.addAll(operand.asArray());
+            return result;
+        }
+        if (name.equals("$slice")) {
+            List<BsonValue> array = operands.get(0).asArray().getValues();
+            int from = operands.size() == 3 ? operands.get(1).asInt32().getValue() : 0;
+            int count = operands.get(operands.size() - 1).asInt32().getValue();
+            from = Math.min(from, array.size());
+            return new BsonArray(array.subList(from, Math.min(array.size(), from + count)));
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static BsonValue resolve(BsonValue document, String path) {
+        BsonValue current = document;
+        for (String token : path.split("\\.")) {
+            if (current == null) return null;
+            if (current.isDocument()) {
+                current = current.asDocument().get(token);
+            } else if (current.isArray() && token.matches("\\d+")) {
+                int index = Integer.parseInt(token);
+                current = index < current.asArray().size() ? current.asArray().get(index) : null;
+            } else {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    private static void set(BsonDocument document, String path, BsonValue value) {
+        int dot = path.lastIndexOf('.');
+        String field = path.substring(dot + 1);
+        BsonValue parent = dot < 0 ? document : resolve(document, path.substring(0, dot));
+        if (parent.isArray()) parent.asArray().set(Integer.parseInt(field), value);
+        else parent.asDocument().put(field, value);
+    }
+
+    private static void unset(BsonDocument document, String path) {
+        int dot = path.lastIndexOf('.');
+        BsonValue parent = dot < 0 ? document : resolve(document, path.substring(0, dot));
+        if (parent != null && parent.isDocument()) parent.asDocument().remove(path.substring(dot + 1));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.junit.Test;
+
+public class MongoUpdateTest {
+
+    private static void assertTranslated(String source, String patch) {
+        BsonDocument document = BsonDocument.parse(source);
+        BsonArray operations = BsonArray.parse(patch);
+        MongoUpdate update = MongoUpdate.fromPatch(operations);
+        assertTrue(update.toString(), update.isComplete());
+        assertEquals(update.toString(), BsonPatch.apply(operations, document), MongoUpdateSimulator.apply(update, document));
+    }
+
+    @Test
+    public void unrelatedFieldsShareOneOperatorUpdate() {
+        MongoUpdate update = MongoUpdate.fromPatch(BsonArray.parse("[" +
+                "{\"op\": \"add\", \"path\": \"/a/b\", \"value\": 1}," +
+                "{\"op\": \"remove\", \"path\": \"/c\"}," +
+                "{\"op\": \"add\", \"path\": \"/d/-\", \"value\": \"x\"}]"));
+        assertEquals(1, update.getStages().size());
+        assertEquals(BsonDocument.parse("{$set: {'a.b': 1}, $unset: {c: ''}, $push: {d: {$each: ['x']}}}"),
+                update.getStages().get(0).getUpdate());
+        assertEquals(new BsonDocument(), update.getFilter());
+    }
+
+    @Test
+    public void overlappingFieldsStartNewStage() {
+        MongoUpdate update = MongoUpdate.fromPatch(BsonArray.parse("[" +
+                "{\"op\": \"add\", \"path\": \"/a\", \"value\": {}}," +
+                "{\"op\": \"add\", \"path\": \"/a/b\", \"value\": 1}]"));
+        assertEquals(2, update.getStages().size());
+        assertTranslated("{}", "[{\"op\": \"add\", \"path\": \"/a\", \"value\": {}}, {\"op\": \"add\", \"path\": \"/a/b\", \"value\": 1}]");
+    }
+
+    @Test
+    public void testsBecomeFilter() {
+        MongoUpdate update = MongoUpdate.fromPatch(BsonArray.parse("[" +
+                "{\"op\": \"test\", \"path\": \"/a\", \"value\": {\"$gt\": 1}}," +
+                "{\"op\": \"replace\", \"path\": \"/b\", \"value\": 2}]"));
+        assertEquals(BsonDocument.parse("{$and: [{$expr: {$eq: ['$a', {$literal: {$gt: 1}}]}}, {b: {$exists: true}}]}"),
+                update.getFilter());
+        assertNull(MongoUpdateSimulator.apply(update, BsonDocument.parse("{a: 5, b: 1}")));
+        assertEquals(BsonDocument.parse("{a: {$gt: 1}, b: 2}"),
+                MongoUpdateSimulator.apply(update, BsonDocument.parse("{a: {$gt: 1}, b: 1}")));
+    }
+
+    @Test
+    public void filterOnlyHoldsBeforeFirstStage() {
+        MongoUpdate update = MongoUpdate.fromPatch(BsonArray.parse("[" +
+                "{\"op\": \"remove\", \"path\": \"/arr/1\"}," +
+                "{\"op\": \"replace\", \"path\": \"/t\", \"value\": 1}]"));
+        assertEquals(2, update.getStages().size());
+        assertEquals(BsonDocument.parse("{$and: [{'arr.1': {$exists: true}}, {t: {$exists: true}}]}"), update.getFilter());
+        assertEquals(BsonDocument.parse("{arr: [1], t: 1}"), MongoUpdateSimulator.apply(update, BsonDocument.parse("{arr: [1, 2], t: 0}")));
+    }
+
+    @Test
+    public void arrayOperations() {
+        assertTranslated("{a: [1, 2, 3]}", "[{\"op\": \"remove\", \"path\": \"/a/0\"}, {\"op\": \"remove\", \"path\": \"/a/1\"}]");
+        assertTranslated("{a: [1, 2, 3]}", "[{\"op\": \"add\", \"path\": \"/a/1\", \"value\": 9}, {\"op\": \"replace\", \"path\": \"/a/0\", \"value\": 0}]");
+        assertTranslated("{a: {b: [1, 2]}}", "[{\"op\": \"remove\", \"path\": \"/a/b/1\"}, {\"op\": \"add\", \"path\": \"/a/b/-\", \"value\": 3}]");
+    }
+
+    @Test
+    public void moveAndCopyBecomePipelines() {
+        MongoUpdate update = MongoUpdate.fromPatch(BsonArray.parse("[{\"op\": \"move\", \"from\": \"/a\", \"path\": \"/b/c\"}]"));
+        assertTrue(update.getStages().get(0).isPipeline());
+        assertTranslated("{a: {x: 1}, b: {}}", "[{\"op\": \"move\", \"from\": \"/a\", \"path\": \"/b/c\"}]");
+        assertTranslated("{a: '$b', b: 1}", "[{\"op\": \"copy\", \"from\": \"/a\", \"path\": \"/c\"}]");
+    }
+
+    @Test
+    public void untranslatableOperationsAreRejected() {
+        MongoUpdate update = MongoUpdate.fromPatch(BsonArray.parse("[" +
+                "{\"op\": \"replace\", \"path\": \"\", \"value\": {}}," +
+                "{\"op\": \"add\", \"path\": \"/a.b\", \"value\": 1}," +
+                "{\"op\": \"add\", \"path\": \"/$set\", \"value\": 1}," +
+                "{\"op\": \"remove\", \"path\": \"/a/0/b/1\"}," +
+                "{\"op\": \"add\", \"path\": \"/c\", \"value\": 1}," +
+                "{\"op\": \"test\", \"path\": \"/c\", \"value\": 1}," +
+                "{\"op\": \"move\", \"from\": \"/d/0\", \"path\": \"/e\"}]"));
+        assertFalse(update.isComplete());
+        assertEquals(6, update.getRejections().size());
+        assertEquals(5, update.getRejections().get(4).getIndex());
+    }
+
+    @Test
+    public void generatedPatchesTranslateFaithfully() {
+        int translated = 0;
+        for (int i = 0; i < 200; i++) {
+            BsonDocument source = new BsonDocument("items", TestDataGenerator.generate((int) (Math.random() * 4)));
+            BsonDocument target = new BsonDocument("items", TestDataGenerator.generate((int) (Math.random() * 4)));
+            source.put("first", source.getArray("items").isEmpty() ? new BsonDocument() : source.getArray("items").get(0));
+            target.put("first", target.getArray("items").isEmpty() ? new BsonDocument() : target.getArray("items").get(0));
+            BsonArray patch = BsonDiff.asBson(source, target, DiffFlags.dontNormalizeOpIntoMoveAndCopy());
+            MongoUpdate update = MongoUpdate.fromPatch(patch);
+            if (!update.isComplete()) continue;
+            assertEquals(update.toString(), target, MongoUpdateSimulator.apply(update, source));
+            translated++;
+        }
+        assertTrue(translated > 0);
+    }
+}
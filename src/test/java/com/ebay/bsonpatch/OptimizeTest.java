@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class OptimizeTest {
+
+    private static void assertOptimized(String expected, String patch) {
+        assertEquals(BsonArray.parse(expected), BsonPatch.optimize(BsonArray.parse(patch)));
+    }
+
+    @Test
+    public void repeatedReplacesKeepTheLast() {
+        assertOptimized("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 3}]",
+                "[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 1}, {\"op\": \"replace\", \"path\": \"/a\", \"value\": 2}, {\"op\": \"replace\", \"path\": \"/a\", \"value\": 3}]");
+    }
+
+    @Test
+    public void writesUnderLaterReplacedParentAreDropped() {
+        assertOptimized("[{\"op\": \"replace\", \"path\": \"/a\", \"value\": {}}]",
+                "[{\"op\": \"add\", \"path\": \"/a/b\", \"value\": 1}, {\"op\": \"remove\", \"path\": \"/a/c\"}, {\"op\": \"replace\", \"path\": \"/a\", \"value\": {}}]");
+    }
+
+    @Test
+    public void addThenRemoveKeepsTheRemove() {
+        assertOptimized("[{\"op\": \"remove\", \"path\": \"/a\"}]",
+                "[{\"op\": \"add\", \"path\": \"/a\", \"value\": 1}, {\"op\": \"remove\", \"path\": \"/a\"}]");
+    }
+
+    @Test
+    public void readsKeepEarlierWrites() {
+        String patch = "[{\"op\": \"replace\", \"path\": \"/a\", \"value\": 1}, {\"op\": \"copy\", \"from\": \"/a\", \"path\": \"/b\"}, {\"op\": \"replace\", \"path\": \"/a\", \"value\": 2}]";
+        assertOptimized(patch, patch);
+    }
+
+    @Test
+    public void arrayShiftsKeepOperations() {
+        String patch = "[{\"op\": \"replace\", \"path\": \"/a/1\", \"value\": 1}, {\"op\": \"add\", \"path\": \"/a/0\", \"value\": 0}, {\"op\": \"replace\", \"path\": \"/a/1\", \"value\": 2}]";
+        assertOptimized(patch, patch);
+        String insertThenRemove = "[{\"op\": \"add\", \"path\": \"/a/1\", \"value\": 1}, {\"op\": \"remove\", \"path\": \"/a/1\"}]";
+        assertOptimized(insertThenRemove, insertThenRemove);
+    }
+
+    @Test
+    public void impliedTestsAreDropped() {
+        assertOptimized("[{\"op\": \"test\", \"path\": \"/a\", \"value\": {\"b\": [1, 2]}}, {\"op\": \"replace\", \"path\": \"/c\", \"value\": {\"d\": 1}}]",
+                "[{\"op\": \"test\", \"path\": \"/a\", \"value\": {\"b\": [1, 2]}}, {\"op\": \"test\", \"path\": \"/a/b/1\", \"value\": 2}," +
+                " {\"op\": \"replace\", \"path\": \"/c\", \"value\": {\"d\": 1}}, {\"op\": \"test\", \"path\": \"/c/d\", \"value\": 1}]");
+        String contradicting = "[{\"op\": \"test\", \"path\": \"/a\", \"value\": 1}, {\"op\": \"test\", \"path\": \"/a\", \"value\": 2}]";
+        assertOptimized(contradicting, contradicting);
+    }
+
+    @Test
+    public void optimizedPatchesGiveTheSameResult() {
+        Random random = new Random(7);
+        List<String> paths = Arrays.asList("/a", "/a/x", "/a/y", "/b", "/b/0", "/b/1", "/c");
+        int removed = 0;
+        for (int round = 0; round < 300; round++) {
+            BsonDocument source = BsonDocument.parse("{a: {x: 1, y: 2}, b: [1, 2, 3], c: 'c'}");
+            BsonValue state = source.clone();
+            BsonArray patch = new BsonArray();
+            for (int i = 0; i < 8; i++) {
+                String path = paths.get(random.nextInt(paths.size()));
+                String[] ops = {"add", "remove", "replace", "test", "copy"};
+                BsonDocument operation = new BsonDocument("op", new BsonString(ops[random.nextInt(ops.length)]))
+                        .append("path", new BsonString(path));
+                if (operation.getString("op").getValue().equals("copy")) {
+                    operation.put("from", new BsonString(paths.get(random.nextInt(paths.size()))));
+                } else if (operation.getString("op").getValue().equals("test")) {
+                    try {
+                        operation.put("value", JsonPointer.parse(path).evaluate(state));
+                    } catch (JsonPointerEvaluationException e) {
+                        continue;
+                    }
+                } else {
+                    operation.put("value", random.nextBoolean() ? new BsonInt32(random.nextInt(3)) : BsonDocument.parse("{x: 0}"));
+                }
+                try {
+                    state = BsonPatch.apply(new BsonArray(Arrays.<BsonValue>asList(operation)), state);
+                    patch.add(operation);
+                } catch (RuntimeException e) {
+                    // only keep operations that apply
+                }
+            }
+
+            BsonArray optimized = BsonPatch.optimize(patch);
+            assertEquals(patch.toString(), state, BsonPatch.apply(optimized, source));
+            removed += patch.size() - optimized.size();
+        }
+        assertTrue(removed > 0);
+    }
+}
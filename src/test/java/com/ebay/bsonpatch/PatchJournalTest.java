@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PatchJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Builds a history of versions that grow, shrink and change. */
+    private static List<BsonValue> history(int versions) {
+        List<BsonValue> history = new ArrayList<BsonValue>();
+        BsonDocument document = BsonDocument.parse("{\"name\": \"doc\", \"items\": []}");
+        history.add(document.clone());
+        for (int i = 1; i < versions; i++) {
+            BsonArray items = document.getArray("items");
+            if (i % 4 == 0) items.remove(0);
+            else items.add(new BsonDocument("n", new BsonInt32(i)));
+            document.put("name", new BsonString("doc " + i));
+            history.add(document.clone());
+        }
+        return history;
+    }
+
+    private static void assertHistory(List<BsonValue> history, PatchJournal journal) {
+        assertEquals(history.size() - 1, journal.version());
+        for (int v = 0; v < history.size(); v++) {
+            assertEquals("version " + v, history.get(v), journal.read(v));
+        }
+    }
+
+    private static PatchJournal record(Path directory, List<BsonValue> history, int segmentSize) throws IOException {
+        PatchJournal journal = PatchJournal.create(directory, history.get(0), 3, segmentSize);
+        for (int v = 1; v < history.size(); v++) {
+            assertEquals(v, journal.append(BsonDiff.asBson(history.get(v - 1), history.get(v))));
+        }
+        return journal;
+    }
+
+    @Test
+    public void readsEveryVersion() throws IOException {
+        List<BsonValue> history = history(40);
+        PatchJournal journal = record(folder.getRoot().toPath(), history, 256);
+        assertHistory(history, journal);
+        journal.close();
+    }
+
+    @Test
+    public void reopensAndContinues() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("journal");
+        List<BsonValue> history = history(30);
+        record(directory, history.subList(0, 20), 200).close();
+
+        PatchJournal journal = PatchJournal.open(directory, 3, 200);
+        assertHistory(history.subList(0, 20), journal);
+        for (int v = 20; v < history.size(); v++) {
+            journal.append(BsonDiff.asBson(history.get(v - 1), history.get(v)));
+        }
+        journal.close();
+
+        journal = PatchJournal.open(directory, 5);
+        assertHistory(history, journal);
+        journal.close();
+    }
+
+    @Test
+    public void rejectedPatchLeavesJournalUnchanged() throws IOException {
+        List<BsonValue> history = history(5);
+        PatchJournal journal = record(folder.getRoot().toPath(), history, 1024);
+        try {
+            journal.append(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/name\", \"value\": \"x\"},"
+                    + " {\"op\": \"replace\", \"path\": \"/missing\", \"value\": 1}]"));
+            fail();
+        } catch (BsonPatchApplicationException e) {
+            // expected
+        }
+        assertEquals(4, journal.version());
+        BsonValue next = history.get(4).asDocument().clone().append("extra", new BsonInt32(1));
+        assertEquals(5, journal.append(BsonDiff.asBson(history.get(4), next)));
+        assertEquals(next, journal.read(5));
+        assertEquals(history.get(4), journal.read(4));
+        journal.close();
+    }
+
+    @Test
+    public void storesRecordsLargerThanSegments() throws IOException {
+        BsonDocument base = new BsonDocument("text", new BsonString(new String(new char[1000]).replace('\0', 'x')));
+        PatchJournal journal = PatchJournal.create(folder.getRoot().toPath(), base, 1, 64);
+        journal.append(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"\", \"value\": [1, 2]}]"));
+        assertEquals(base, journal.read(0));
+        assertEquals(BsonArray.parse("[1, 2]"), journal.read(1));
+        journal.close();
+    }
+
+    @Test
+    public void closedJournalRefusesUse() throws IOException {
+        PatchJournal journal = record(folder.getRoot().toPath(), history(3), 1024);
+        journal.close();
+        journal.close();
+        try {
+            journal.append(new BsonArray());
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            journal.read(0);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        PatchJournal reopened = PatchJournal.open(folder.getRoot().toPath(), 3);
+        assertHistory(history(3), reopened);
+        reopened.close();
+    }
+
+    @Test
+    public void appendsOverTornRecord() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        List<BsonValue> history = history(2);
+        record(directory, history, 4096).close();
+
+        // a record whose kind byte was never written, longer than the one that replaces it
+        Path segment = directory.resolve("00000000.journal");
+        byte[] bytes = Files.readAllBytes(segment);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int end = 0;
+        while (bytes[end] != 0) end += 13 + buffer.getInt(end + 1);
+        buffer.position(end + 1);
+        buffer.putInt(187).putLong(2);
+        for (int i = 0; i < 187; i++) buffer.put((byte) 0x7f);
+        Files.write(segment, bytes);
+
+        PatchJournal journal = PatchJournal.open(directory, 3, 4096);
+        assertEquals(1, journal.version());
+        BsonValue next = history.get(1).asDocument().clone().append("n", new BsonInt32(1));
+        journal.append(BsonDiff.asBson(history.get(1), next));
+        journal.close();
+
+        journal = PatchJournal.open(directory, 3, 4096);
+        assertEquals(2, journal.version());
+        assertEquals(next, journal.read(2));
+        journal.close();
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void refusesToOverwriteJournal() throws IOException {
+        PatchJournal.create(folder.getRoot().toPath(), new BsonDocument(), 10).close();
+        PatchJournal.create(folder.getRoot().toPath(), new BsonDocument(), 10);
+    }
+}
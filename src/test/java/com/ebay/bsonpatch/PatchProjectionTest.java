@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class PatchProjectionTest {
+
+    private static BsonArray patch(String json) {
+        return BsonDocument.parse("{\"p\": " + json + "}").getArray("p");
+    }
+
+    /** Fetches a projection the way MongoDB would, for documents without arrays along the projected paths. */
+    private static BsonDocument project(BsonDocument document, BsonDocument projection) {
+        if (projection.isEmpty()) return document.clone();
+        BsonDocument partial = new BsonDocument();
+        for (String field : projection.keySet()) {
+            BsonDocument from = document;
+            BsonDocument to = partial;
+            String[] names = field.split("\\.");
+            for (int i = 0; i < names.length && from != null; i++) {
+                BsonValue value = from.get(names[i]);
+                if (value == null) break;
+                if (i == names.length - 1) {
+                    to.put(names[i], CopyingApplyProcessor.deepCopy(value));
+                } else if (value.isDocument()) {
+                    if (!to.containsKey(names[i])) to.put(names[i], new BsonDocument());
+                    to = to.getDocument(names[i]);
+                    from = value.asDocument();
+                } else {
+                    break;
+                }
+            }
+        }
+        return partial;
+    }
+
+    /** Writes the subtrees returned by a projected apply back into the whole document. */
+    private static BsonValue writeBack(BsonDocument document, Map<String, BsonValue> written) {
+        BsonArray update = new BsonArray();
+        for (Map.Entry<String, BsonValue> entry : written.entrySet()) {
+            BsonDocument operation = new BsonDocument("path", new BsonString(entry.getKey()));
+            if (entry.getValue() == null) {
+                operation.put("op", new BsonString("remove"));
+            } else {
+                boolean exists = JsonPointer.parse(entry.getKey()).find(document) != null;
+                operation.put("op", new BsonString(exists ? "replace" : "add"));
+                operation.put("value", entry.getValue());
+            }
+            update.add(operation);
+        }
+        return BsonPatch.apply(update, document);
+    }
+
+    @Test
+    public void footprintCoversEveryOperation() {
+        BsonArray patch = patch("[{\"op\": \"test\", \"path\": \"/a/b/c\", \"value\": 1}, "
+                + "{\"op\": \"replace\", \"path\": \"/a/b\", \"value\": {}}, "
+                + "{\"op\": \"copy\", \"from\": \"/x\", \"path\": \"/y/z\"}, "
+                + "{\"op\": \"move\", \"from\": \"/m/0\", \"path\": \"/n\"}, "
+                + "{\"op\": \"add\", \"path\": \"/items/2\", \"value\": 3}]");
+        assertEquals(Arrays.asList("/a/b", "/items", "/m", "/n", "/x", "/y/z"), BsonPatch.footprint(patch));
+        assertEquals(Collections.singletonList(""),
+                BsonPatch.footprint(patch("[{\"op\": \"test\", \"path\": \"/a\", \"value\": 1}, {\"op\": \"replace\", \"path\": \"\", \"value\": {}}]")));
+        assertEquals(Collections.<String>emptyList(), BsonPatch.footprint(new BsonArray()));
+    }
+
+    @Test
+    public void projectionStopsAtArrayIndexesAndUnprojectableFields() {
+        BsonArray patch = patch("[{\"op\": \"replace\", \"path\": \"/items/3/price\", \"value\": 1}, "
+                + "{\"op\": \"replace\", \"path\": \"/items/4\", \"value\": 1}, "
+                + "{\"op\": \"remove\", \"path\": \"/meta/a.b\"}, "
+                + "{\"op\": \"test\", \"path\": \"/meta/c/d\", \"value\": 1}, "
+                + "{\"op\": \"add\", \"path\": \"/name\", \"value\": \"x\"}]");
+        assertEquals(BsonDocument.parse("{\"items\": 1, \"meta\": 1, \"name\": 1}"), MongoUpdate.projection(patch));
+        assertEquals(new BsonDocument(), MongoUpdate.projection(patch("[{\"op\": \"remove\", \"path\": \"/$x/y\"}]")));
+    }
+
+    @Test
+    public void projectedApplyReturnsWrittenSubtrees() {
+        BsonDocument document = BsonDocument.parse("{\"_id\": 1, \"big\": {\"blob\": \"...\"}, "
+                + "\"profile\": {\"name\": \"a\", \"tags\": [\"x\"], \"old\": true}, \"counts\": {\"views\": 1}}");
+        BsonArray patch = patch("[{\"op\": \"test\", \"path\": \"/counts/views\", \"value\": 1}, "
+                + "{\"op\": \"replace\", \"path\": \"/profile/name\", \"value\": \"b\"}, "
+                + "{\"op\": \"add\", \"path\": \"/profile/tags/-\", \"value\": \"y\"}, "
+                + "{\"op\": \"remove\", \"path\": \"/profile/old\"}]");
+
+        BsonDocument projection = MongoUpdate.projection(patch);
+        assertEquals(BsonDocument.parse("{\"counts.views\": 1, \"profile.name\": 1, \"profile.old\": 1, \"profile.tags\": 1}"), projection);
+        BsonDocument partial = project(document, projection);
+        Map<String, BsonValue> written = BsonPatch.applyToProjection(patch, partial);
+
+        assertEquals(Arrays.asList("/profile/name", "/profile/old", "/profile/tags"), new ArrayList<String>(written.keySet()));
+        assertEquals(new BsonString("b"), written.get("/profile/name"));
+        assertNull(written.get("/profile/old"));
+        assertEquals(BsonArray.parse("[\"x\", \"y\"]"), written.get("/profile/tags"));
+        assertEquals(BsonPatch.apply(patch, document), writeBack(document, written));
+    }
+
+    @Test(expected = BsonPatchApplicationException.class)
+    public void projectedApplyFailsLikeTheWholeDocument() {
+        BsonDocument document = BsonDocument.parse("{\"a\": {\"b\": 1}, \"c\": 2}");
+        BsonArray patch = patch("[{\"op\": \"test\", \"path\": \"/a/b\", \"value\": 2}]");
+        BsonPatch.applyToProjection(patch, project(document, MongoUpdate.projection(patch)));
+    }
+
+    @Test
+    public void projectedApplyOfDiffsMatchesWholeApply() {
+        for (int i = 0; i < 50; i++) {
+            BsonDocument source = new BsonDocument("people", TestDataGenerator.generate(3))
+                    .append("group", new BsonDocument("owner", TestDataGenerator.generate(1).get(0)));
+            BsonDocument target = new BsonDocument("people", TestDataGenerator.generate(3))
+                    .append("group", new BsonDocument("owner", TestDataGenerator.generate(1).get(0)));
+            BsonArray patch = BsonDiff.asBson(source, target);
+
+            BsonDocument partial = project(source, MongoUpdate.projection(patch));
+            Map<String, BsonValue> written = BsonPatch.applyToProjection(patch, partial);
+            assertEquals(patch.toString(), target, writeBack(source, written));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class PatchedDocumentRefTest {
+
+    @Test
+    public void generatedPatchesMatchApply() {
+        for (int i = 0; i < 100; i++) {
+            BsonArray source = TestDataGenerator.generate((int) (Math.random() * 5));
+            BsonArray target = TestDataGenerator.generate((int) (Math.random() * 5));
+            BsonArray patch = BsonDiff.asBson(source, target);
+            BsonValue before = source.clone();
+
+            PatchedDocumentRef ref = new PatchedDocumentRef(source);
+            assertEquals(target, ref.apply(patch));
+            assertEquals(target, ref.get());
+            assertEquals(before, source);
+        }
+    }
+
+    @Test
+    public void untouchedSubtreesAreShared() {
+        BsonDocument source = BsonDocument.parse("{a: {x: 1}, b: {y: [1, 2]}}");
+        PatchedDocumentRef ref = new PatchedDocumentRef(source);
+        BsonValue result = ref.apply(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/a/x\", \"value\": 2}]"));
+
+        assertSame(source.get("b"), result.asDocument().get("b"));
+        assertEquals(BsonDocument.parse("{x: 1}"), source.get("a"));
+    }
+
+    @Test
+    public void copiedValuesStayIndependent() {
+        PatchedDocumentRef ref = new PatchedDocumentRef(BsonDocument.parse("{a: {x: 1}}"));
+        BsonValue result = ref.apply(BsonArray.parse("[" +
+                "{\"op\": \"add\", \"path\": \"/a/y\", \"value\": 2}," +
+                "{\"op\": \"copy\", \"from\": \"/a\", \"path\": \"/b\"}," +
+                "{\"op\": \"add\", \"path\": \"/a/z\", \"value\": 3}]"));
+        assertEquals(BsonDocument.parse("{a: {x: 1, y: 2, z: 3}, b: {x: 1, y: 2}}"), result);
+    }
+
+    @Test
+    public void failedPatchLeavesDocumentUnchanged() {
+        BsonDocument source = BsonDocument.parse("{a: {x: 1}}");
+        PatchedDocumentRef ref = new PatchedDocumentRef(source);
+        try {
+            ref.apply(BsonArray.parse("[" +
+                    "{\"op\": \"add\", \"path\": \"/a/y\", \"value\": 2}," +
+                    "{\"op\": \"test\", \"path\": \"/a/x\", \"value\": 2}]"));
+            fail();
+        } catch (BsonPatchApplicationException e) {
+            assertSame(source, ref.get());
+            assertEquals(BsonDocument.parse("{a: {x: 1}}"), source);
+        }
+    }
+
+    @Test
+    public void compareAndApplyRejectsStaleSnapshots() {
+        PatchedDocumentRef ref = new PatchedDocumentRef(BsonDocument.parse("{n: 0}"));
+        BsonValue snapshot = ref.get();
+        ref.apply(BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/n\", \"value\": 1}]"));
+        assertNull(ref.compareAndApply(snapshot, BsonArray.parse("[{\"op\": \"replace\", \"path\": \"/n\", \"value\": 2}]")));
+        assertEquals(BsonDocument.parse("{n: 1}"), ref.get());
+    }
+
+    @Test
+    public void concurrentWritersDoNotLoseUpdates() throws Exception {
+        final PatchedDocumentRef ref = new PatchedDocumentRef(BsonDocument.parse("{log: [], other: {x: 1}}"));
+        final BsonArray patch = BsonArray.parse("[{\"op\": \"add\", \"path\": \"/log/-\", \"value\": 1}]");
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 250; i++) {
+                            BsonDocument before = ref.get().asDocument();
+                            int size = before.getArray("log").size();
+                            ref.apply(patch);
+                            // snapshots never change after being published
+                            if (before.getArray("log").size() != size) throw new AssertionError("torn snapshot");
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(new ArrayList<Throwable>(), errors);
+        assertEquals(1000, ref.get().asDocument().getArray("log").size());
+        assertFalse(ref.get().asDocument().getDocument("other").isEmpty());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PathNodeTest {
+
+    @Test
+    public void rootMaterializesAsRootPointer() {
+        assertSame(JsonPointer.ROOT, PathNode.ROOT.toPointer());
+        assertEquals(0, PathNode.ROOT.depth());
+    }
+
+    @Test
+    public void materializesSameAsAppending() {
+        PathNode node = PathNode.ROOT.child("a/b").child(3).child("~c");
+        JsonPointer expected = JsonPointer.ROOT.append("a/b").append(3).append("~c");
+        assertEquals(3, node.depth());
+        assertEquals(expected, node.toPointer());
+        assertEquals("/a~1b/3/~0c", node.toString());
+        assertTrue(node.toPointer().get(1).isArrayIndex());
+    }
+
+    @Test
+    public void pointerIsKeptOnceMaterialized() {
+        PathNode node = PathNode.ROOT.child("a").child(0);
+        assertSame(node.toPointer(), node.toPointer());
+    }
+}
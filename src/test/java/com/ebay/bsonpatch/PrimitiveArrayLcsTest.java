@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.collections4.Equator;
+import org.apache.commons.collections4.ListUtils;
+import org.bson.BsonArray;
+import org.bson.BsonDateTime;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class PrimitiveArrayLcsTest {
+
+    private static final Equator<BsonValue> EQUATOR = new Equator<BsonValue>() {
+        @Override
+        public boolean equate(BsonValue o1, BsonValue o2) {
+            return BsonEquality.equal(o1, o2);
+        }
+
+        @Override
+        public int hash(BsonValue o) {
+            return o.hashCode();
+        }
+    };
+
+    private final Random random = new Random(11);
+
+    private BsonValue value(int kind, int n) {
+        switch (kind) {
+            case 0: return new BsonInt32(n);
+            case 1: return new BsonInt64(n * 1000000007L);
+            case 2: return new BsonDouble(n == 0 ? -0.0 : n == 1 ? Double.NaN : n / 2.0);
+            case 3: return new BsonDateTime(n);
+            default: return new BsonString("s" + n);
+        }
+    }
+
+    private BsonArray array(int kind, int size, int alphabet) {
+        BsonArray array = new BsonArray();
+        for (int i = 0; i < size; i++) array.add(value(kind, random.nextInt(alphabet)));
+        return array;
+    }
+
+    @Test
+    public void sameSubsequenceAsListUtils() {
+        for (int round = 0; round < 5000; round++) {
+            int kind = random.nextInt(5);
+            int alphabet = 1 + random.nextInt(6);
+            BsonArray source = array(kind, random.nextInt(30), alphabet);
+            BsonArray target = array(kind, random.nextInt(30), alphabet);
+
+            List<BsonValue> expected = ListUtils.longestCommonSubsequence(source.getValues(), target.getValues(), EQUATOR);
+            PrimitiveArrayLcs lcs = PrimitiveArrayLcs.of(source, target);
+            if (source.isEmpty() && target.isEmpty()) {
+                assertNull(lcs);
+                continue;
+            }
+            List<BsonValue> actual = lcs.compute(source);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) assertSame(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void mixedOrUnsupportedTypesAreNotSpecialized() {
+        assertNull(PrimitiveArrayLcs.of(BsonArray.parse("[1, 2]"), BsonArray.parse("[1, {\"$numberLong\": \"2\"}]")));
+        assertNull(PrimitiveArrayLcs.of(BsonArray.parse("[true, false]"), BsonArray.parse("[true]")));
+        assertNull(PrimitiveArrayLcs.of(BsonArray.parse("[{}]"), BsonArray.parse("[]")));
+    }
+
+    @Test
+    public void diffOfPrimitiveArraysAppliesCorrectly() {
+        // copies are left out: their source indexes are not adjusted for later array shifts
+        EnumSet<DiffFlags> flags = EnumSet.of(DiffFlags.OMIT_COPY_OPERATION);
+        for (int round = 0; round < 200; round++) {
+            int kind = random.nextInt(5);
+            BsonArray source = array(kind, random.nextInt(200), 20);
+            BsonArray target = array(kind, random.nextInt(200), 20);
+            assertEquals(target, BsonPatch.apply(BsonDiff.asBson(source, target, flags), source));
+        }
+    }
+}
@@ -7,6 +7,8 @@ import static org.junit.Assert.*;
 
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
 import org.bson.BsonValue;
 import org.junit.Test;
 
@@ -90,4 +92,41 @@ public class TestNodesEmissionTest {
         assertEquals(2, diff.size());
         assertEquals(testNode, diff.iterator().next());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void hashedTestNodeEmittedForDocuments() throws IOException {
+        EnumSet<DiffFlags> hashed = flags.clone();
+        hashed.add(DiffFlags.HASH_TEST_VALUES);
+        BsonDocument source = BsonDocument.parse("{\"key\":{\"a\":1,\"b\":[1,2]},\"s\":\"x\"}");
+        BsonDocument target = BsonDocument.parse("{\"key\":\"replaced\",\"s\":\"y\"}");
+
+        BsonArray diff = BsonDiff.asBson(source, target, hashed);
+
+        BsonDocument testNode = BsonDocument.parse("{\"op\":\"test\",\"path\":\"/key\"}")
+                .append("hash", new BsonInt64(BsonHash.hash(source.get("key"))))
+                .append("size", new BsonInt32(2));
+        assertEquals(testNode, diff.get(0));
+        assertEquals(BsonDocument.parse("{\"op\":\"test\",\"path\":\"/s\",\"value\":\"x\"}"), diff.get(2));
+
+        assertEquals(target, BsonPatch.apply(diff, source));
+        assertEquals(target, CompactBsonPatch.apply(CompactBsonPatch.encode(diff), source));
+        assertEquals(diff, CompactBsonPatch.decode(CompactBsonPatch.encode(diff)));
+
+        BsonDocument concurrent = BsonDocument.parse("{\"key\":{\"b\":[1,2],\"a\":2},\"s\":\"x\"}");
+        try {
+            BsonPatch.apply(diff, concurrent);
+            fail("Hashed test should fail");
+        } catch (BsonPatchApplicationException e) {
+            assertTrue(e.toString().contains("/key"));
+        }
+        BsonPatchResult result = BsonPatch.tryApply(diff, concurrent);
+        assertEquals(BsonPatchResult.Reason.TEST_FAILED, result.getReason());
+        assertEquals(0, result.getOperationIndex());
+        assertTrue(BsonPatch.tryApply(diff, BsonDocument.parse("{\"key\":{\"b\":[1,2],\"a\":1},\"s\":\"x\"}")).isSuccess());
+    }
+
+    @Test(expected = InvalidBsonPatchException.class)
+    public void hashedTestRequiresLongHash() {
+        BsonPatch.apply(BsonArray.parse("[{\"op\":\"test\",\"path\":\"/a\",\"hash\":\"abc\"}]"), new BsonDocument());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs the operation test cases through {@link BsonPatch#tryApply(BsonArray, BsonValue)}, expecting the same
+ * results as {@link BsonPatch#apply(BsonArray, BsonValue)} and a failed result wherever it throws.
+ */
+@RunWith(Parameterized.class)
+public class TryApplyTest {
+
+    @Parameter
+    public PatchTestCase p;
+
+    @Parameters
+    public static Collection<PatchTestCase> data() throws IOException {
+        List<PatchTestCase> cases = new ArrayList<PatchTestCase>();
+        for (String file : Arrays.asList("add", "copy", "move", "remove", "replace", "test", "rfc6902-samples", "js-libs-samples")) {
+            cases.addAll(PatchTestCase.load(file));
+        }
+        return cases;
+    }
+
+    @Test
+    public void test() {
+        BsonDocument node = p.getNode();
+        BsonValue source = node.get("node");
+        BsonValue before = CopyingApplyProcessor.deepCopy(source);
+        BsonArray patch = node.getArray("op");
+
+        if (p.isOperation()) {
+            BsonPatchResult result = BsonPatch.tryApply(patch, source);
+            assertTrue(node.toJson() + ": " + result, result.isSuccess());
+            assertEquals(node.toJson(), node.get("expected"), result.getResult());
+            assertEquals(before, source);
+            return;
+        }
+
+        if (node.containsKey("type") && node.getString("type").getValue().equals("InvalidBsonPatchException")) {
+            try {
+                BsonPatch.tryApply(patch, source);
+                fail("Invalid patch expected: " + node.toJson());
+            } catch (InvalidBsonPatchException e) {
+                return;
+            }
+        }
+        BsonPatchResult result;
+        try {
+            result = BsonPatch.tryApply(patch, source);
+        } catch (InvalidBsonPatchException | IllegalArgumentException e) {
+            // a malformed patch is still reported by an exception
+            return;
+        }
+        assertFalse(node.toJson(), result.isSuccess());
+        assertNull(result.getResult());
+        assertTrue(result.getOperationIndex() >= 0 && result.getOperationIndex() < patch.size());
+        assertEquals(before, source);
+    }
+}
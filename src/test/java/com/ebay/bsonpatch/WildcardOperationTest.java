@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class WildcardOperationTest {
+
+    private static final EnumSet<CompatibilityFlags> WILDCARDS = EnumSet.of(CompatibilityFlags.ALLOW_WILDCARD_PATHS);
+
+    private static BsonArray patch(String json) {
+        return BsonDocument.parse("{\"p\": " + json + "}").getArray("p");
+    }
+
+    private static BsonDocument doc(String json) {
+        return BsonDocument.parse(json);
+    }
+
+    @Test
+    public void replaceIsAppliedToEveryElement() {
+        BsonDocument source = doc("{\"items\": [{\"sku\": 1, \"currency\": \"USD\"}, {\"sku\": 2, \"currency\": \"GBP\"}]}");
+        BsonValue result = BsonPatch.apply(patch("[{\"op\": \"replace\", \"path\": \"/items/*/currency\", \"value\": \"EUR\"}]"),
+                source, WILDCARDS);
+        assertEquals(doc("{\"items\": [{\"sku\": 1, \"currency\": \"EUR\"}, {\"sku\": 2, \"currency\": \"EUR\"}]}"), result);
+        assertEquals("USD", source.getArray("items").get(0).asDocument().getString("currency").getValue());
+    }
+
+    @Test
+    public void addIsAppliedToEveryElement() {
+        BsonDocument source = doc("{\"items\": [{\"sku\": 1}, {\"sku\": 2}, {\"sku\": 3}]}");
+        BsonValue result = BsonPatch.apply(patch("[{\"op\": \"add\", \"path\": \"/items/*/tags\", \"value\": [\"new\"]}]"),
+                source, WILDCARDS);
+        BsonArray items = result.asDocument().getArray("items");
+        for (BsonValue item : items) {
+            assertEquals(new BsonArray(Collections.<BsonValue>singletonList(new BsonString("new"))),
+                    item.asDocument().get("tags"));
+        }
+        // every element gets a value of its own
+        items.get(0).asDocument().getArray("tags").clear();
+        assertEquals(1, items.get(1).asDocument().getArray("tags").size());
+    }
+
+    @Test
+    public void disposableValuesAreCopiedForAllButOneElement() {
+        EnumSet<CompatibilityFlags> flags = EnumSet.of(CompatibilityFlags.ALLOW_WILDCARD_PATHS, CompatibilityFlags.DISPOSABLE_PATCH_VALUES);
+        BsonDocument source = doc("{\"items\": [{}, {}]}");
+        BsonPatch.applyInPlace(patch("[{\"op\": \"add\", \"path\": \"/items/*/meta\", \"value\": {\"n\": 1}}]"), source, flags);
+        BsonArray items = source.getArray("items");
+        items.get(0).asDocument().getDocument("meta").put("n", new BsonInt32(2));
+        assertEquals(doc("{\"n\": 1}"), items.get(1).asDocument().getDocument("meta"));
+    }
+
+    @Test
+    public void nestedWildcardsAreExpandedAtEveryLevel() {
+        BsonDocument source = doc("{\"a\": [{\"b\": [{\"c\": 1}, {\"c\": 2}]}, {\"b\": [{\"c\": 3}]}]}");
+        BsonValue result = BsonPatch.apply(patch("[{\"op\": \"replace\", \"path\": \"/a/*/b/*/c\", \"value\": 0}]"), source, WILDCARDS);
+        assertEquals(doc("{\"a\": [{\"b\": [{\"c\": 0}, {\"c\": 0}]}, {\"b\": [{\"c\": 0}]}]}"), result);
+    }
+
+    @Test
+    public void removeOfEveryElementEmptiesTheArray() {
+        BsonDocument source = doc("{\"items\": [1, 2, 3], \"rows\": [{\"x\": 1, \"y\": 2}, {\"x\": 3, \"y\": 4}]}");
+        BsonValue result = BsonPatch.apply(patch("[{\"op\": \"remove\", \"path\": \"/items/*\"}, "
+                + "{\"op\": \"remove\", \"path\": \"/rows/*/y\"}]"), source, WILDCARDS);
+        assertEquals(doc("{\"items\": [], \"rows\": [{\"x\": 1}, {\"x\": 3}]}"), result);
+    }
+
+    @Test
+    public void wildcardOverEmptyArrayDoesNothing() {
+        BsonDocument source = doc("{\"items\": []}");
+        assertEquals(source, BsonPatch.apply(patch("[{\"op\": \"replace\", \"path\": \"/items/*/x\", \"value\": 1}]"), source, WILDCARDS));
+    }
+
+    @Test
+    public void testMustHoldForEveryElement() {
+        BsonDocument source = doc("{\"items\": [{\"state\": \"open\"}, {\"state\": \"closed\"}]}");
+        BsonPatchResult result = BsonPatch.tryApply(patch("[{\"op\": \"test\", \"path\": \"/items/*/state\", \"value\": \"open\"}]"),
+                source, WILDCARDS);
+        assertFalse(result.isSuccess());
+        assertEquals(BsonPatchResult.Reason.TEST_FAILED, result.getReason());
+
+        BsonPatchResult missing = BsonPatch.tryApply(patch("[{\"op\": \"test\", \"path\": \"/nothing/*/state\", \"value\": \"open\"}]"),
+                source, WILDCARDS);
+        assertEquals(BsonPatchResult.Reason.PATH_NOT_FOUND, missing.getReason());
+
+        source.getArray("items").get(1).asDocument().put("state", new BsonString("open"));
+        BsonPatchResult ok = BsonPatch.tryApply(patch("[{\"op\": \"test\", \"path\": \"/items/*/state\", \"value\": \"open\"}]"),
+                source, WILDCARDS);
+        assertTrue(ok.toString(), ok.isSuccess());
+    }
+
+    @Test
+    public void wildcardIsALiteralFieldWithoutTheFlag() {
+        BsonDocument source = doc("{\"items\": {\"*\": {\"x\": 1}}}");
+        BsonValue result = BsonPatch.apply(patch("[{\"op\": \"replace\", \"path\": \"/items/*/x\", \"value\": 2}]"), source);
+        assertEquals(doc("{\"items\": {\"*\": {\"x\": 2}}}"), result);
+    }
+
+    @Test(expected = BsonPatchApplicationException.class)
+    public void wildcardOverDocumentIsRejected() {
+        BsonDocument source = doc("{\"items\": {\"a\": {\"x\": 1}}}");
+        BsonPatch.apply(patch("[{\"op\": \"replace\", \"path\": \"/items/*/x\", \"value\": 2}]"), source, WILDCARDS);
+    }
+
+    @Test
+    public void ambiguousOperationsAreInvalid() {
+        for (String op : new String[] {
+                "{\"op\": \"move\", \"from\": \"/a/*/x\", \"path\": \"/b\"}",
+                "{\"op\": \"copy\", \"from\": \"/a/0\", \"path\": \"/b/*/x\"}",
+                "{\"op\": \"add\", \"path\": \"/a/*\", \"value\": 1}" }) {
+            try {
+                BsonPatch.validate(patch("[" + op + "]"), WILDCARDS);
+                fail("Invalid patch expected: " + op);
+            } catch (InvalidBsonPatchException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void wildcardOverlapsEverySibling() {
+        BsonArray wildcard = patch("[{\"op\": \"replace\", \"path\": \"/items/*/price\", \"value\": 2}]");
+        BsonArray element = patch("[{\"op\": \"replace\", \"path\": \"/items/0/price\", \"value\": 1}]");
+        BsonArray other = patch("[{\"op\": \"replace\", \"path\": \"/items/0/name\", \"value\": 1}]");
+        BsonArray array = patch("[{\"op\": \"add\", \"path\": \"/items/0\", \"value\": {}}]");
+        assertFalse(BsonPatch.independent(wildcard, element, WILDCARDS));
+        assertFalse(BsonPatch.independent(element, wildcard, WILDCARDS));
+        assertFalse(BsonPatch.independent(wildcard, array, WILDCARDS));
+        assertTrue(BsonPatch.independent(wildcard, other, WILDCARDS));
+        // without the flag, * is just a field name
+        assertTrue(BsonPatch.independent(wildcard, element));
+
+        assertEquals(Arrays.asList(Arrays.asList(0, 2), Arrays.asList(1)),
+                BsonPatch.independentBatches(Arrays.asList(element, wildcard, other), WILDCARDS));
+        assertEquals(Arrays.asList(Arrays.asList(0, 2), Arrays.asList(1)),
+                BsonPatch.independentBatches(Arrays.asList(wildcard, element, other), WILDCARDS));
+    }
+
+    @Test
+    public void footprintCoversTheWholeArray() {
+        BsonArray patch = patch("[{\"op\": \"replace\", \"path\": \"/items/*/price\", \"value\": 2}]");
+        assertEquals(Collections.singletonList("/items"), BsonPatch.footprint(patch, WILDCARDS));
+        assertEquals(new BsonDocument("items", new BsonInt32(1)), MongoUpdate.projection(patch, WILDCARDS));
+    }
+
+    @Test
+    public void compactMovesWithWildcardsAreInvalid() {
+        byte[] compact = CompactBsonPatch.encode(patch("[{\"op\": \"move\", \"from\": \"/a/*\", \"path\": \"/b\"}]"));
+        try {
+            CompactBsonPatch.apply(compact, doc("{\"a\": [1], \"b\": 0}"), WILDCARDS);
+            fail("Invalid patch expected");
+        } catch (InvalidBsonPatchException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void optimizerLeavesWildcardPatchesAlone() {
+        BsonArray patch = patch("[{\"op\": \"add\", \"path\": \"/items/*/x\", \"value\": 1}, "
+                + "{\"op\": \"remove\", \"path\": \"/items/0/x\"}]");
+        assertEquals(patch, BsonPatch.optimize(patch, WILDCARDS));
+    }
+
+    @Test
+    public void rebaseExpandsWildcardsAgainstTheBase() {
+        BsonDocument base = doc("{\"items\": [{\"x\": 1}, {\"x\": 2}], \"n\": 0}");
+        BsonArray patch = patch("[{\"op\": \"replace\", \"path\": \"/items/*/x\", \"value\": 9}]");
+        BsonArray onto = patch("[{\"op\": \"replace\", \"path\": \"/n\", \"value\": 1}]");
+        BsonArray rebased = BsonPatch.rebase(patch, onto, base, WILDCARDS);
+        assertEquals(2, rebased.size());
+        assertEquals(doc("{\"items\": [{\"x\": 9}, {\"x\": 9}], \"n\": 1}"),
+                BsonPatch.apply(rebased, BsonPatch.apply(onto, base), WILDCARDS));
+    }
+
+    @Test
+    public void mongoUpdateRejectsWildcards() {
+        MongoUpdate update = MongoUpdate.fromPatch(patch("[{\"op\": \"replace\", \"path\": \"/items/*/x\", \"value\": 9}]"), WILDCARDS);
+        assertFalse(update.isComplete());
+        assertEquals(0, update.getRejections().get(0).getIndex());
+    }
+
+    @Test
+    public void diffCollapsesUniformElementChanges() {
+        EnumSet<DiffFlags> flags = DiffFlags.defaults();
+        flags.add(DiffFlags.EMIT_WILDCARD_OPERATIONS);
+        BsonDocument source = doc("{\"items\": [{\"sku\": 1, \"c\": \"USD\"}, {\"sku\": 2, \"c\": \"USD\"}, {\"sku\": 3, \"c\": \"USD\"}]}");
+        BsonDocument target = doc("{\"items\": [{\"sku\": 1, \"c\": \"EUR\"}, {\"sku\": 2, \"c\": \"EUR\"}, {\"sku\": 3, \"c\": \"EUR\"}]}");
+        BsonArray patch = BsonDiff.asBson(source, target, flags);
+        assertEquals(patch("[{\"op\": \"replace\", \"path\": \"/items/*/c\", \"value\": \"EUR\"}]"), patch);
+        assertEquals(target, BsonPatch.apply(patch, source, WILDCARDS));
+
+        // nested uniform changes collapse level by level
+        source = doc("{\"a\": [{\"b\": [{\"c\": 1}, {\"c\": 2}]}, {\"b\": [{\"c\": 3}, {\"c\": 4}]}]}");
+        target = doc("{\"a\": [{\"b\": [{\"c\": 1, \"d\": true}, {\"c\": 2, \"d\": true}]}, {\"b\": [{\"c\": 3, \"d\": true}, {\"c\": 4, \"d\": true}]}]}");
+        patch = BsonDiff.asBson(source, target, flags);
+        assertEquals(patch("[{\"op\": \"add\", \"path\": \"/a/*/b/*/d\", \"value\": true}]"), patch);
+        assertEquals(target, BsonPatch.apply(patch, source, WILDCARDS));
+    }
+
+    @Test
+    public void diffKeepsDifferingElementChanges() {
+        EnumSet<DiffFlags> flags = DiffFlags.defaults();
+        flags.add(DiffFlags.EMIT_WILDCARD_OPERATIONS);
+        BsonDocument source = doc("{\"items\": [{\"c\": \"USD\"}, {\"c\": \"USD\"}]}");
+        BsonDocument target = doc("{\"items\": [{\"c\": \"EUR\"}, {\"c\": \"GBP\"}]}");
+        assertEquals(2, BsonDiff.asBson(source, target, flags).size());
+
+        // replacing the elements themselves stays element by element
+        source = doc("{\"items\": [1, 2]}");
+        target = doc("{\"items\": [3, 3]}");
+        BsonArray patch = BsonDiff.asBson(source, target, flags);
+        assertEquals(patch("[{\"op\": \"replace\", \"path\": \"/items/*\", \"value\": 3}]"), patch);
+        assertEquals(target, BsonPatch.apply(patch, source, WILDCARDS));
+
+        source = doc("{\"items\": [1, 2]}");
+        target = doc("{\"items\": [1, 2, 3]}");
+        assertEquals(patch("[{\"op\": \"add\", \"path\": \"/items/2\", \"value\": 3}]"), BsonDiff.asBson(source, target, flags));
+    }
+
+    @Test
+    public void diffRoundTripsRandomDocuments() {
+        EnumSet<DiffFlags> flags = DiffFlags.dontNormalizeOpIntoMoveAndCopy();
+        flags.add(DiffFlags.EMIT_WILDCARD_OPERATIONS);
+        Random random = new Random(49);
+        for (int i = 0; i < 200; i++) {
+            BsonArray source = new BsonArray();
+            BsonArray target = new BsonArray();
+            int size = 1 + random.nextInt(4);
+            boolean uniform = random.nextBoolean();
+            for (int j = 0; j < size; j++) {
+                int x = random.nextInt(3);
+                source.add(doc("{\"x\": " + x + ", \"y\": " + j + "}"));
+                target.add(doc("{\"x\": " + (uniform ? 7 : random.nextInt(3)) + ", \"y\": " + j + "}"));
+            }
+            BsonArray patch = BsonDiff.asBson(source, target, flags);
+            assertEquals(patch.toString(), target, BsonPatch.apply(patch, source, WILDCARDS));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ebay.bsonpatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.collections4.ListUtils;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+public class WindowedLcsTest {
+
+    private final Random random = new Random(5);
+
+    private BsonArray array(int size, int alphabet) {
+        BsonArray array = new BsonArray();
+        for (int i = 0; i < size; i++) {
+            int n = random.nextInt(alphabet);
+            array.add(n % 3 == 0 ? new BsonDocument("n", new BsonInt32(n)) : new BsonInt32(n));
+        }
+        return array;
+    }
+
+    private static BsonArray edit(BsonArray source, Random random, int edits) {
+        BsonArray target = new BsonArray(source.getValues());
+        for (int i = 0; i < edits; i++) {
+            int at = random.nextInt(target.size() + 1);
+            if (random.nextBoolean() && at < target.size()) {
+                target.remove(at);
+            } else {
+                target.add(at, new BsonInt32(-random.nextInt(1000) - 1));
+            }
+        }
+        return target;
+    }
+
+    private static boolean isSubsequence(List<BsonValue> sequence, BsonArray array) {
+        int i = 0;
+        for (BsonValue value : array) {
+            if (i < sequence.size() && sequence.get(i).equals(value)) i++;
+        }
+        return i == sequence.size();
+    }
+
+    private static WindowedLcs windowed(BsonArray first, BsonArray second, final int window) {
+        return new WindowedLcs(first, second, window, new WindowedLcs.Exact() {
+            @Override
+            public List<BsonValue> lcs(BsonArray first, BsonArray second) {
+                assertTrue(first.size() + second.size() <= window);
+                return ListUtils.longestCommonSubsequence(first.getValues(), second.getValues());
+            }
+        });
+    }
+
+    @Test
+    public void computesCommonSubsequenceWithinWindow() {
+        for (int round = 0; round < 500; round++) {
+            BsonArray first = array(random.nextInt(300), 2 + random.nextInt(400));
+            BsonArray second = random.nextBoolean() ? edit(first, random, random.nextInt(20)) : array(random.nextInt(300), 2 + random.nextInt(400));
+            List<BsonValue> lcs = windowed(first, second, 2 + random.nextInt(60)).compute();
+            assertTrue(isSubsequence(lcs, first));
+            assertTrue(isSubsequence(lcs, second));
+        }
+    }
+
+    @Test
+    public void matchesExactResultWhenArraysFitWindow() {
+        BsonArray first = array(100, 10);
+        BsonArray second = array(100, 10);
+        assertEquals(ListUtils.longestCommonSubsequence(first.getValues(), second.getValues()), windowed(first, second, 200).compute());
+    }
+
+    @Test
+    public void findsAllCommonElementsOfLightlyEditedArrays() {
+        BsonArray first = new BsonArray();
+        for (int i = 0; i < 100000; i++) first.add(new BsonInt32(i));
+        BsonArray second = edit(first, random, 50);
+        List<BsonValue> lcs = windowed(first, second, 64).compute();
+        assertEquals(ListUtils.longestCommonSubsequence(first.getValues(), second.getValues()).size(), lcs.size());
+    }
+
+    @Test
+    public void diffWithWindowAppliesCorrectly() {
+        // copies are left out: their source indexes are not adjusted for later array shifts
+        DiffOptions options = new DiffOptions(EnumSet.of(DiffFlags.OMIT_COPY_OPERATION)).lcsWindow(16);
+        for (int round = 0; round < 200; round++) {
+            BsonArray source = array(random.nextInt(200), 2 + random.nextInt(100));
+            BsonArray target = random.nextBoolean() ? edit(source, random, random.nextInt(20)) : array(random.nextInt(200), 2 + random.nextInt(100));
+            BsonDocument sourceDoc = new BsonDocument("a", source);
+            BsonDocument targetDoc = new BsonDocument("a", target);
+            assertEquals(targetDoc, BsonPatch.apply(BsonDiff.asBson(sourceDoc, targetDoc, options), sourceDoc));
+        }
+    }
+}